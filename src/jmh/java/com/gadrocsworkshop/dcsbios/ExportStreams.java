@@ -0,0 +1,79 @@
+package com.gadrocsworkshop.dcsbios;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Builds export streams shaped like a capture from DCS-BIOS: an initial frame which
+ * writes the whole aircraft export area followed by frames which each write a
+ * handful of small changed regions and the update counter.
+ */
+public final class ExportStreams {
+
+    private static final int EXPORT_START = 0x1000;
+    private static final int EXPORT_SIZE = 0x0800;
+    private static final int UPDATE_COUNTER = 0xfffe;
+
+    private ExportStreams() {
+    }
+
+    /**
+     * Creates an export stream.
+     *
+     * @param size Exact size of the stream in bytes.  The final frame is cut short to fit.
+     * @param seed Seed so the same stream is produced on every run.
+     * @return Export stream data.
+     */
+    public static byte[] create(int size, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size + EXPORT_SIZE + 64);
+
+        byte[] full = new byte[EXPORT_SIZE];
+        random.nextBytes(full);
+        writeSync(stream);
+        writeBlock(stream, EXPORT_START, full, 0, full.length);
+        writeCounter(stream, 0);
+
+        int frame = 1;
+        byte[] data = new byte[64];
+        while (stream.size() < size) {
+            writeSync(stream);
+            int address = EXPORT_START;
+            int regions = 2 + random.nextInt(10);
+            for (int i = 0; i < regions; i++) {
+                address += 2 * random.nextInt(EXPORT_SIZE / (2 * regions));
+                int length = 2 * (1 + random.nextInt(16));
+                if (address + length > EXPORT_START + EXPORT_SIZE) {
+                    break;
+                }
+                random.nextBytes(data);
+                writeBlock(stream, address, data, 0, length);
+                address += length;
+            }
+            writeCounter(stream, frame++);
+        }
+
+        byte[] result = new byte[size];
+        System.arraycopy(stream.toByteArray(), 0, result, 0, size);
+        return result;
+    }
+
+    private static void writeSync(ByteArrayOutputStream stream) {
+        for (int i = 0; i < 4; i++) {
+            stream.write(0x55);
+        }
+    }
+
+    private static void writeCounter(ByteArrayOutputStream stream, int frame) {
+        byte[] counter = { (byte)frame, (byte)(frame >> 8) };
+        writeBlock(stream, UPDATE_COUNTER, counter, 0, 2);
+    }
+
+    private static void writeBlock(ByteArrayOutputStream stream, int address, byte[] data, int offset, int length) {
+        stream.write(address & 0xff);
+        stream.write(address >> 8);
+        stream.write(length & 0xff);
+        stream.write(length >> 8);
+        stream.write(data, offset, length);
+    }
+}
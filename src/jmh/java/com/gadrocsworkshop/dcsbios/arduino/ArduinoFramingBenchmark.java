@@ -0,0 +1,41 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import com.gadrocsworkshop.dcsbios.ExportStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost per export byte of framing buffered export data into load
+ * export data messages for a bus controller.
+ */
+@State(Scope.Thread)
+public class ArduinoFramingBenchmark {
+
+    private static final int STREAM_SIZE = 4096;
+
+    private byte[] stream;
+    private ByteRingBuffer buffer;
+    private final byte[] message = new byte[DcsBiosArduinoController.MAX_EXPORT_DATA_SIZE + 3];
+
+    @Setup
+    public void setUp() {
+        stream = ExportStreams.create(STREAM_SIZE, 42);
+        buffer = new ByteRingBuffer(STREAM_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public void frame(Blackhole blackhole) {
+        buffer.add(stream, 0, stream.length);
+        int position = 0;
+        while (position < buffer.size()) {
+            position += DcsBiosArduinoController.encodeExportData(buffer, position, message) - 3;
+            blackhole.consume(message);
+        }
+        buffer.clear();
+    }
+}
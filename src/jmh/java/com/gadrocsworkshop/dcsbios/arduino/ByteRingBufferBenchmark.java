@@ -0,0 +1,50 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import com.gadrocsworkshop.dcsbios.ExportStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures ring buffer cost per byte moved through it, adding packet sized chunks
+ * and draining them a byte at a time or in bus message sized blocks.
+ */
+@State(Scope.Thread)
+public class ByteRingBufferBenchmark {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private byte[] chunk;
+    private ByteRingBuffer buffer;
+    private final byte[] message = new byte[DcsBiosArduinoController.MAX_EXPORT_DATA_SIZE];
+
+    @Setup
+    public void setUp() {
+        chunk = ExportStreams.create(CHUNK_SIZE, 42);
+        buffer = new ByteRingBuffer(4096);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public int addGet() {
+        buffer.add(chunk, 0, chunk.length);
+        int sum = 0;
+        while (!buffer.isEmpty()) {
+            sum += buffer.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public int addDrain() {
+        buffer.add(chunk, 0, chunk.length);
+        int drained = 0;
+        while (!buffer.isEmpty()) {
+            drained += buffer.drain(message, 0, message.length);
+        }
+        return drained;
+    }
+}
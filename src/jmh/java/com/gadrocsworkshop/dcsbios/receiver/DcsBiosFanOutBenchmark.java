@@ -0,0 +1,52 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import com.gadrocsworkshop.dcsbios.ExportStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parser cost per byte of export stream as the number of listeners grows,
+ * for listeners registered for every address and for listeners subscribed to a
+ * single address each.
+ */
+@State(Scope.Thread)
+public class DcsBiosFanOutBenchmark {
+
+    private static final int STREAM_SIZE = 0x10000;
+
+    @Param({"1", "10", "100"})
+    public int listeners;
+
+    private byte[] stream;
+    private DcsBiosParser allAddresses;
+    private DcsBiosParser subscribed;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        stream = ExportStreams.create(STREAM_SIZE, 42);
+        allAddresses = new DcsBiosParser();
+        subscribed = new DcsBiosParser();
+        for (int i = 0; i < listeners; i++) {
+            DcsBiosDataListener listener = (address, data) -> blackhole.consume(data);
+            allAddresses.addDataListener(listener);
+            subscribed.addDataListener(listener, 0x1000 + i * 2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public void allAddresses() {
+        allAddresses.processData(stream, 0, stream.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public void subscribed() {
+        subscribed.processData(stream, 0, stream.length);
+    }
+}
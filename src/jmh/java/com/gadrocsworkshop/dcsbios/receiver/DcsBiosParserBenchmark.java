@@ -0,0 +1,57 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import com.gadrocsworkshop.dcsbios.ExportStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures parser cost per byte of export stream with a single data listener.
+ */
+@State(Scope.Thread)
+public class DcsBiosParserBenchmark {
+
+    private static final int STREAM_SIZE = 0x10000;
+
+    private byte[] stream;
+    private ByteBuffer directStream;
+    private DcsBiosParser parser;
+    private int sum;
+
+    @Setup
+    public void setUp() {
+        stream = ExportStreams.create(STREAM_SIZE, 42);
+        directStream = ByteBuffer.allocateDirect(STREAM_SIZE);
+        directStream.put(stream).flip();
+        parser = new DcsBiosParser();
+        parser.addDataListener((address, data) -> sum += data);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public int singleByte() {
+        for (byte b : stream) {
+            parser.processData(b);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public int array() {
+        parser.processData(stream, 0, stream.length);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public int directBuffer() {
+        directStream.rewind();
+        parser.processData(directStream);
+        return sum;
+    }
+}
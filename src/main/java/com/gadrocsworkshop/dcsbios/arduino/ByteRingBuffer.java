@@ -1,56 +1,358 @@
 package com.gadrocsworkshop.dcsbios.arduino;
 
-import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Thread safe ring buffer of DCS-BIOS export stream bytes.  Capacity is always a
+ * power of two so positions wrap with a mask, and bulk operations move data with at
+ * most two array copies.  When data is added to a full buffer the overflow policy
+ * decides whether the buffer grows, waits for space or drops the oldest frames.
+ */
 class ByteRingBuffer {
 
-    private final byte[] elements;
+    private static final byte SYNC_BYTE = 0x55;
+    private static final int SYNC_LENGTH = 4;
+    private static final int DEFAULT_MAX_CAPACITY = 0x100000;
+
+    private byte[] elements;
+    private int mask;
 
     private int head = 0;
     private int available = 0;
+    private long readPosition = 0;
+
+    private DcsBiosExportOverflowPolicy policy;
+    private int maxCapacity = DEFAULT_MAX_CAPACITY;
+    private long blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private int waiters = 0;
+
+    private int highWaterMark = 0;
+    private long overflowCount = 0;
+    private long droppedByteCount = 0;
 
     public ByteRingBuffer(int size) {
-        if (size <= 0) {
+        this(size, DcsBiosExportOverflowPolicy.DROP_OLDEST_FRAME);
+    }
+
+    public ByteRingBuffer(int size, DcsBiosExportOverflowPolicy policy) {
+        if (size <= 0 || size > 1 << 30) {
             throw new IllegalArgumentException("Buffer capacity must be positive");
         }
-        elements = new byte[size];
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        elements = new byte[capacity];
+        mask = capacity - 1;
+        this.policy = policy;
     }
 
-    @SuppressWarnings("WeakerAccess")
-    public void add(byte item) {
+    /**
+     * Sets what happens when data is added to a full buffer.
+     *
+     * @param policy Overflow policy.
+     */
+    public synchronized void setOverflowPolicy(DcsBiosExportOverflowPolicy policy) {
+        this.policy = policy;
+    }
 
-        if (available == elements.length) {
-            throw new BufferOverflowException();
-        }
+    /**
+     * Sets the largest capacity the GROW policy will grow the buffer to.
+     *
+     * @param maxCapacity Maximum capacity in bytes.
+     */
+    public synchronized void setMaxCapacity(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+    }
 
-        elements[head] = item;
-        head = (head + 1) % elements.length;
+    /**
+     * Sets how long the BLOCK policy waits for space before dropping the oldest frames.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     */
+    public synchronized void setBlockTimeout(long timeout, TimeUnit unit) {
+        this.blockTimeoutNanos = unit.toNanos(timeout);
+    }
 
-        ++available;
+    @SuppressWarnings("WeakerAccess")
+    public synchronized void add(byte item) {
+        if (available == elements.length) {
+            makeRoom(1);
+        }
+        elements[(head + available) & mask] = item;
+        available++;
+        updateHighWaterMark();
     }
 
-    public void add(byte[] data, int offset, int length) {
-        for (int i=0; i<length; i++) {
-            add(data[offset+i]);
+    public synchronized void add(byte[] data, int offset, int length) {
+        if (length > elements.length - available) {
+            makeRoom(length);
         }
+        int free = elements.length - available;
+        if (length > free) {
+            // Even an empty buffer can not hold it all, keep the newest data.
+            droppedByteCount += length - free;
+            offset += length - free;
+            length = free;
+        }
+
+        int tail = (head + available) & mask;
+        int first = Math.min(length, elements.length - tail);
+        System.arraycopy(data, offset, elements, tail, first);
+        System.arraycopy(data, offset + first, elements, 0, length - first);
+        available += length;
+        updateHighWaterMark();
     }
 
-    public byte get() {
-        byte result = elements[(head + (capacity() - available)) % capacity()];
+    public synchronized byte get() {
+        if (available == 0) {
+            throw new BufferUnderflowException();
+        }
+        byte result = elements[head];
+        head = (head + 1) & mask;
         available--;
+        readPosition++;
+        spaceFreed();
         return result;
     }
 
+    /**
+     * Removes bytes from the front of the buffer.
+     *
+     * @param destination Array to copy the bytes into.
+     * @param offset Offset into destination to start copying.
+     * @param maxLength Maximum number of bytes to remove.
+     * @return Number of bytes removed.
+     */
+    public synchronized int drain(byte[] destination, int offset, int maxLength) {
+        int length = peek(0, destination, offset, maxLength);
+        skip(length);
+        return length;
+    }
+
+    /**
+     * Copies bytes without removing them from the buffer.
+     *
+     * @param position Number of bytes from the front of the buffer to start copying.
+     * @param destination Array to copy the bytes into.
+     * @param offset Offset into destination to start copying.
+     * @param maxLength Maximum number of bytes to copy.
+     * @return Number of bytes copied.
+     */
+    public synchronized int peek(int position, byte[] destination, int offset, int maxLength) {
+        int length = Math.max(0, Math.min(maxLength, available - position));
+        int start = (head + position) & mask;
+        int first = Math.min(length, elements.length - start);
+        System.arraycopy(elements, start, destination, offset, first);
+        System.arraycopy(elements, 0, destination, offset + first, length - first);
+        return length;
+    }
+
+    /**
+     * Removes bytes from the front of the buffer without copying them.
+     *
+     * @param length Number of bytes to remove.
+     */
+    public synchronized void skip(int length) {
+        if (length < 0 || length > available) {
+            throw new BufferUnderflowException();
+        }
+        head = (head + length) & mask;
+        available -= length;
+        readPosition += length;
+        spaceFreed();
+    }
+
+    /**
+     * Finds the start of the newest frame in the buffer.
+     *
+     * @return Number of bytes from the front of the buffer to the last sync marker, -1 if there is none.
+     */
+    public synchronized int findLastSync() {
+        for (int i = available - SYNC_LENGTH; i >= 0; i--) {
+            if (isSyncAt(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces every complete frame in the buffer with a single frame, keeping the
+     * newest frame which is still arriving after it.  If the buffer holds no sync
+     * marker its data can not be lined up with the new frame, so it is emptied and
+     * nothing is added.  Replaced data is not counted as dropped.
+     *
+     * @param data Array containing the frame.
+     * @param offset Offset into data of the frame.
+     * @param length Length of the frame.
+     * @return True if the frame was added, false if there was no sync marker or the
+     *         frame does not fit even at the maximum capacity.
+     */
+    public synchronized boolean replaceCompleteFrames(byte[] data, int offset, int length) {
+        int start = findLastSync();
+        skip(start < 0 ? available : start);
+        if (start < 0) {
+            return false;
+        }
+        while (elements.length - available < length && elements.length < maxCapacity) {
+            grow();
+        }
+        if (elements.length - available < length) {
+            return false;
+        }
+
+        // Put the new frame in front of the partial frame.  The stream position moves
+        // past the partial frame as if it had been read and added again.
+        readPosition += available;
+        head = (head - length) & mask;
+        available += length;
+        int first = Math.min(length, elements.length - head);
+        System.arraycopy(data, offset, elements, head, first);
+        System.arraycopy(data, offset + first, elements, 0, length - first);
+        updateHighWaterMark();
+        return true;
+    }
+
+    /**
+     * Removes all bytes from the buffer.
+     */
+    public synchronized void clear() {
+        skip(available);
+    }
+
     @SuppressWarnings("WeakerAccess")
-    public int capacity() {
+    public synchronized int capacity() {
         return elements.length;
     }
 
-    public int size() {
+    public synchronized int size() {
         return available;
     }
 
-    public boolean isEmpty() {
-        return size() == 0;
+    public synchronized boolean isEmpty() {
+        return available == 0;
+    }
+
+    /**
+     * Position in the stream of the byte at the front of the buffer, which is the
+     * total number of bytes ever removed from the buffer whether read or dropped.
+     *
+     * @return Stream position of the front of the buffer.
+     */
+    public synchronized long getReadPosition() {
+        return readPosition;
+    }
+
+    /**
+     * Largest number of bytes which have been buffered at once.
+     *
+     * @return High water mark in bytes.
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Number of times data was added to a full buffer.
+     *
+     * @return Overflow count.
+     */
+    public synchronized long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * Number of bytes dropped to make room for new data.
+     *
+     * @return Dropped byte count.
+     */
+    public synchronized long getDroppedByteCount() {
+        return droppedByteCount;
+    }
+
+    /**
+     * Applies the overflow policy to make room for new data.  Caller must hold the lock.
+     */
+    private void makeRoom(int length) {
+        overflowCount++;
+        if (policy == DcsBiosExportOverflowPolicy.BLOCK && waitForSpace(length)) {
+            return;
+        }
+        if (policy == DcsBiosExportOverflowPolicy.GROW) {
+            while (elements.length - available < length && elements.length < maxCapacity) {
+                grow();
+            }
+            if (elements.length - available >= length) {
+                return;
+            }
+        }
+        dropOldestFrames(length);
+    }
+
+    private boolean waitForSpace(int length) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        waiters++;
+        try {
+            long remaining;
+            while (elements.length - available < length && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiters--;
+        }
+        return elements.length - available >= length;
+    }
+
+    private void grow() {
+        byte[] grown = new byte[elements.length * 2];
+        peek(0, grown, 0, available);
+        elements = grown;
+        mask = grown.length - 1;
+        head = 0;
+    }
+
+    /**
+     * Drops whole frames from the front of the buffer until there is room for
+     * length bytes, or everything if no frame boundary leaves enough room.
+     */
+    private void dropOldestFrames(int length) {
+        int needed = available + length - elements.length;
+        int drop = available;
+        for (int i = Math.max(needed, 1); i <= available - SYNC_LENGTH; i++) {
+            if (isSyncAt(i)) {
+                drop = i;
+                break;
+            }
+        }
+        droppedByteCount += drop;
+        head = (head + drop) & mask;
+        available -= drop;
+        readPosition += drop;
+    }
+
+    private boolean isSyncAt(int position) {
+        for (int i = 0; i < SYNC_LENGTH; i++) {
+            if (elements[(head + position + i) & mask] != SYNC_BYTE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateHighWaterMark() {
+        if (available > highWaterMark) {
+            highWaterMark = available;
+        }
+    }
+
+    private void spaceFreed() {
+        if (waiters > 0) {
+            notifyAll();
+        }
     }
 }
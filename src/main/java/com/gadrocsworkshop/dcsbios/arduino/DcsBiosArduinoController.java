@@ -4,10 +4,17 @@ import com.fazecast.jSerialComm.SerialPort;
 
 import com.fazecast.jSerialComm.SerialPortDataListener;
 import com.fazecast.jSerialComm.SerialPortEvent;
-import com.gadrocsworkshop.dcsbios.receiver.DcsBiosReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.AbstractDcsBiosReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosAddressFilter;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosCommandSource;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDeltaEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosKeyframeEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamFilter;
 import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamListener;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,64 +34,82 @@ public class DcsBiosArduinoController implements DcsBiosStreamListener {
     private static final byte CONTROLLER_ERROR_LOADING = (byte)'x';
     private static final byte CONTROLLER_MESSAGE_RECEIVED = (byte)'m';
 
+    static final int MAX_EXPORT_DATA_SIZE = 64;
+    private static final int MAX_MESSAGE_SIZE = 64;
+    private static final int MAX_COMMAND_DATAGRAM_SIZE = 1024;
+    private static final int DEFAULT_WINDOW_SIZE = 4;
+    private static final int QUEUE_SIZE = 0x4000;
+    private static final long WRITER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long REOPEN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private enum CONTROLLER_STATE {
         WAITING,
         MESSAGE_SIZE,
         MESSAGE_DATA
     }
 
-    private final DcsBiosReceiver receiver;
+    private final AbstractDcsBiosReceiver receiver;
     private final ByteRingBuffer buffer;
+    private final ExportWindow window;
+    private final ExportQueue queue = new ExportQueue(QUEUE_SIZE);
+    // Serializes draining the queue, which is done by the writer or, once it stops, the receive thread.
+    private final Object drainLock = new Object();
+    private volatile Thread writer;
+    private volatile long bytesWritten = 0;
+    private volatile DcsBiosCommandSource commandSource;
+    private final DcsBiosAddressFilter addressFilter = new DcsBiosAddressFilter();
+    private DcsBiosDeltaEncoder deltaEncoder;
+    private DcsBiosStreamFilter streamFilter;
+    private boolean deltaEncoding = false;
+    private int fullRefreshInterval = 60;
+    private DcsBiosKeyframeEncoder keyframeEncoder;
+    private boolean keyframePending;
 
     private String serialPortName;
-    private SerialPort serialPort;
-    private byte[] writeBuffer = new byte[67];
+    private volatile SerialPort serialPort;
+    private volatile boolean portLost;
+    private long nextReopenNanos;
+    private byte[] writeBuffer = new byte[MAX_EXPORT_DATA_SIZE + 3];
 
     private boolean statusRequestPending;
     private boolean controllerReadyForData;
     private CONTROLLER_STATE state;
 
+    // Serial input, only touched by the serial event thread.
+    private final byte[] readBuffer = new byte[1024];
+    private final byte[] commandBuffer = new byte[MAX_COMMAND_DATAGRAM_SIZE];
+    private int commandLength;
+    private int messageStart;
     private int messageSize;
-    private int messagePointer;
-    private final byte[] messageBuffer = new byte[64];
 
     private SerialPortDataListener listener = new SerialPortDataListener() {
         @Override
-        public int getListeningEvents() { return SerialPort.LISTENING_EVENT_DATA_AVAILABLE; }
+        public int getListeningEvents() {
+            return SerialPort.LISTENING_EVENT_DATA_AVAILABLE | SerialPort.LISTENING_EVENT_PORT_DISCONNECTED;
+        }
 
         @Override
         public void serialEvent(SerialPortEvent event) {
-            byte[] data = new byte[serialPort.bytesAvailable()];
-            int numRead = serialPort.readBytes(data, data.length);
-            for (byte datum : data) {
-                switch (state) {
-                    case WAITING:
-                        processControllerNotification(datum);
-                        break;
-                    case MESSAGE_SIZE:
-                        messageSize = datum;
-                        state = CONTROLLER_STATE.MESSAGE_DATA;
-                        break;
-                    case MESSAGE_DATA:
-                        messageBuffer[messagePointer++] = datum;
-                        if (messagePointer == messageSize) {
-                            try {
-                                String message = new String(messageBuffer, 0, messageSize);
-                                receiver.sendCommand(message);
-                                LOGGER.finer(new String(messageBuffer, 0, messageSize));
-                            } catch (IOException e) {
-                                LOGGER.log(Level.WARNING, "Error sending command to DCS-BIOS.", e);
-                            }
-                            state = CONTROLLER_STATE.WAITING;
-                        }
-                        break;
+            if (event.getEventType() == SerialPort.LISTENING_EVENT_PORT_DISCONNECTED) {
+                portDisconnected();
+                return;
+            }
+            SerialPort port = serialPort;
+            int available;
+            while (port != null && (available = port.bytesAvailable()) > 0) {
+                int length = port.readBytes(readBuffer, Math.min(available, readBuffer.length));
+                if (length <= 0) {
+                    break;
                 }
+                processSerialData(readBuffer, length);
             }
+            flushCommands();
         }
     };
 
-    public DcsBiosArduinoController(DcsBiosReceiver receiver, String serialPortName) {
+    public DcsBiosArduinoController(AbstractDcsBiosReceiver receiver, String serialPortName) {
         this.buffer = new ByteRingBuffer(4096);
+        this.window = new ExportWindow(buffer, DEFAULT_WINDOW_SIZE);
         this.receiver = receiver;
         this.receiver.addStreamListener(this);
         setControllerReadyForData(false);
@@ -92,6 +117,296 @@ public class DcsBiosArduinoController implements DcsBiosStreamListener {
         setSerialPortName(serialPortName);
     }
 
+    /**
+     * Starts a writer thread for this controller.  While the writer is running export
+     * data is handed to it through a lock free queue and all serial writes happen on
+     * the writer thread, so the receive thread never waits on the serial port.
+     */
+    public synchronized void start() {
+        if (writer == null) {
+            writer = new Thread(this::runWriter, String.format("DCS-BIOS Bus Writer %s", serialPortName));
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread, export data is written on the receive thread again.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+            writer = null;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drainQueue();
+        }
+    }
+
+    /**
+     * Checks if the writer thread is running.
+     *
+     * @return True if export data is written by this controller's own thread.
+     */
+    public boolean isRunning() {
+        return writer != null;
+    }
+
+    /**
+     * Stops the writer, stops listening to the receiver and closes the serial port.
+     */
+    public void close() {
+        stop();
+        synchronized (this) {
+            disconnectExportStream();
+            closePort();
+        }
+    }
+
+    /**
+     * Sets the source used to queue commands from the controller.  When set, commands
+     * are sent by the source's DcsBiosCommandSender, which batches them and applies
+     * any conflation windows, instead of directly through the receiver.
+     *
+     * @param commandSource Command source, or null to send commands directly.
+     */
+    public void setCommandSource(DcsBiosCommandSource commandSource) {
+        this.commandSource = commandSource;
+    }
+
+    /**
+     * Enables delta encoding.  Instead of forwarding the raw export stream the controller
+     * is sent frames containing only the data words which changed since they were last
+     * sent, plus a rolling full refresh.
+     *
+     * @param enabled True to send only changes, false to forward the raw export stream.
+     */
+    public synchronized void setDeltaEncoding(boolean enabled) {
+        if (enabled != deltaEncoding) {
+            deltaEncoding = enabled;
+            connectExportStream();
+        }
+    }
+
+    public synchronized boolean isDeltaEncoding() {
+        return deltaEncoding;
+    }
+
+    /**
+     * Limits the export data sent to the controller to a range of addresses.  Once a
+     * range has been added only writes to addresses inside the ranges, plus the frame
+     * sync and update counter, are sent.  Call once for each range the panels on the
+     * bus use.
+     *
+     * @param startAddress First address in the range.
+     * @param endAddress Last address (inclusive) in the range.
+     */
+    public synchronized void addAddressRange(int startAddress, int endAddress) {
+        boolean wasEmpty = addressFilter.isEmpty();
+        addressFilter.addRange(startAddress, endAddress);
+        if (wasEmpty) {
+            connectExportStream();
+        }
+    }
+
+    /**
+     * Registers with the receiver for raw, filtered or delta encoded export data
+     * depending on the current settings.
+     */
+    private void connectExportStream() {
+        receiver.removeStreamListener(this);
+        if (streamFilter != null) {
+            receiver.removeBlockListener(streamFilter);
+            receiver.removeSyncListener(streamFilter);
+            streamFilter = null;
+        }
+
+        if (deltaEncoding) {
+            if (deltaEncoder == null) {
+                deltaEncoder = new DcsBiosDeltaEncoder(receiver.getExportImage(), this);
+                deltaEncoder.setFullRefreshInterval(fullRefreshInterval);
+                receiver.addBlockListener(deltaEncoder);
+                receiver.addSyncListener(deltaEncoder);
+            }
+            deltaEncoder.setAddressFilter(addressFilter.isEmpty() ? null : addressFilter);
+            return;
+        }
+
+        disconnectExportStream();
+        if (addressFilter.isEmpty()) {
+            receiver.addStreamListener(this);
+        }
+        else {
+            streamFilter = new DcsBiosStreamFilter(addressFilter, this);
+            receiver.addBlockListener(streamFilter);
+            receiver.addSyncListener(streamFilter);
+        }
+    }
+
+    /**
+     * Sends the controller a keyframe holding the latest value of every exported
+     * address before any more live data.  Keyframes are sent automatically whenever
+     * the serial port is opened or reconnected and after an acknowledgement timeout.
+     */
+    public synchronized void requestKeyframe() {
+        keyframePending = true;
+        exportDataReady();
+    }
+
+    /**
+     * Sets how many frames it takes to resend every known address when delta encoding.
+     *
+     * @param frames Number of frames per full refresh, zero to only send changes.
+     */
+    public synchronized void setFullRefreshInterval(int frames) {
+        if (deltaEncoder != null) {
+            deltaEncoder.setFullRefreshInterval(frames);
+        }
+        fullRefreshInterval = frames;
+    }
+
+    private void disconnectExportStream() {
+        receiver.removeStreamListener(this);
+        if (streamFilter != null) {
+            receiver.removeBlockListener(streamFilter);
+            receiver.removeSyncListener(streamFilter);
+            streamFilter = null;
+        }
+        if (deltaEncoder != null) {
+            receiver.removeBlockListener(deltaEncoder);
+            receiver.removeSyncListener(deltaEncoder);
+            deltaEncoder = null;
+        }
+    }
+
+    /**
+     * Sets what happens when export data arrives faster than the bus can take it and
+     * the export buffer is full.  Defaults to DROP_OLDEST_FRAME.
+     *
+     * @param policy Overflow policy.
+     */
+    public void setOverflowPolicy(DcsBiosExportOverflowPolicy policy) {
+        buffer.setOverflowPolicy(policy);
+    }
+
+    /**
+     * Sets how long the BLOCK overflow policy holds up the receiver waiting for the
+     * bus before dropping the oldest frames.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     */
+    public void setBlockTimeout(long timeout, TimeUnit unit) {
+        buffer.setBlockTimeout(timeout, unit);
+    }
+
+    /**
+     * Sets the largest size the GROW overflow policy can grow the export buffer to.
+     *
+     * @param maxCapacity Maximum buffer size in bytes.
+     */
+    public void setMaxBufferCapacity(int maxCapacity) {
+        buffer.setMaxCapacity(maxCapacity);
+    }
+
+    /**
+     * Largest number of export bytes which have been waiting for the bus at once.
+     *
+     * @return High water mark in bytes.
+     */
+    public int getBufferHighWaterMark() {
+        return buffer.getHighWaterMark();
+    }
+
+    /**
+     * Number of times export data arrived while the export buffer was full.
+     *
+     * @return Overflow count.
+     */
+    public long getBufferOverflowCount() {
+        return buffer.getOverflowCount();
+    }
+
+    /**
+     * Number of export bytes dropped because the bus could not keep up, either by the
+     * export buffer's overflow policy or because the writer's queue was full.
+     *
+     * @return Dropped byte count.
+     */
+    public long getDroppedByteCount() {
+        return buffer.getDroppedByteCount() + queue.getDroppedByteCount();
+    }
+
+    /**
+     * Number of export bytes waiting to be sent or acknowledged by the controller.
+     *
+     * @return Backlog in bytes.
+     */
+    public int getExportBacklog() {
+        return queue.size() + buffer.size();
+    }
+
+    /**
+     * Number of bytes of load export data messages written to the serial port,
+     * including retransmits.
+     *
+     * @return Written byte count.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Sets the number of load export data messages which can be sent to the controller
+     * before the first is acknowledged.  Defaults to 4, a size of 1 waits for every
+     * message to be acknowledged before sending the next.
+     *
+     * @param size Window size, between 1 and 16.
+     */
+    public synchronized void setWindowSize(int size) {
+        window.setSize(size);
+    }
+
+    public synchronized int getWindowSize() {
+        return window.getSize();
+    }
+
+    /**
+     * Sets how long to wait for the controller to acknowledge a message before assuming
+     * the acknowledgement was lost and sending unacknowledged data again.  Timeouts are
+     * checked whenever export data arrives or the controller responds.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     */
+    public synchronized void setAckTimeout(long timeout, TimeUnit unit) {
+        window.setAckTimeout(timeout, unit);
+    }
+
+    /**
+     * Number of times the controller failed to load a message and data was sent again.
+     *
+     * @return Retransmit count.
+     */
+    public synchronized long getRetransmitCount() {
+        return window.getRetransmitCount();
+    }
+
+    /**
+     * Number of times the controller did not acknowledge a message in time.
+     *
+     * @return Acknowledgement timeout count.
+     */
+    public synchronized long getAckTimeoutCount() {
+        return window.getTimeoutCount();
+    }
+
     public String getSerialPortName() {
         return serialPortName;
     }
@@ -99,29 +414,92 @@ public class DcsBiosArduinoController implements DcsBiosStreamListener {
     @SuppressWarnings("WeakerAccess")
     public synchronized void setSerialPortName(String serialPortName) {
         this.serialPortName = serialPortName;
-        if (serialPort != null && serialPort.isOpen()) {
-            serialPort.removeDataListener();
-            serialPort.closePort();
-            serialPort = null;
-        }
+        closePort();
         initSerialPort();
     }
 
     private void initSerialPort() {
         LOGGER.info(String.format("Opening serial port '%s'", serialPortName));
-        serialPort = SerialPort.getCommPort(serialPortName);
-        serialPort.openPort();
-        serialPort.setComPortParameters(250000, 8, 1, 0);
-        serialPort.addDataListener(listener);
+        if (!openPort()) {
+            LOGGER.warning(String.format("Unable to open serial port '%s', will keep trying.", serialPortName));
+            portLost = true;
+            nextReopenNanos = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+            return;
+        }
         statusRequestPending = false;
+        window.reset();
+        keyframePending = true;
         setControllerReadyForData(false);
         requestControllerStatus();
     }
 
+    /**
+     * Opens the serial port and starts listening for data from the controller.  The
+     * serial port methods are package private so tests can stand in for the port.
+     *
+     * @return True if the port was opened.
+     */
+    boolean openPort() {
+        SerialPort port = SerialPort.getCommPort(serialPortName);
+        if (!port.openPort()) {
+            return false;
+        }
+        port.setComPortParameters(250000, 8, 1, 0);
+        port.addDataListener(listener);
+        serialPort = port;
+        return true;
+    }
+
+    void closePort() {
+        SerialPort port = serialPort;
+        if (port != null && port.isOpen()) {
+            port.removeDataListener();
+            port.closePort();
+        }
+        serialPort = null;
+    }
+
+    boolean isPortOpen() {
+        SerialPort port = serialPort;
+        return port != null && port.isOpen();
+    }
+
+    void writePort(byte[] data, int length) {
+        SerialPort port = serialPort;
+        if (port != null) {
+            port.writeBytes(data, length);
+        }
+    }
+
+    /**
+     * The serial port has gone away, typically because the controller was unplugged.
+     * It is reopened by reopenLostPort once it comes back.
+     */
+    private synchronized void portDisconnected() {
+        LOGGER.warning(String.format("Serial port '%s' disconnected.", serialPortName));
+        portLost = true;
+        nextReopenNanos = System.nanoTime() + REOPEN_INTERVAL_NANOS;
+        controllerReadyForData = false;
+    }
+
+    /**
+     * Tries to reopen a disconnected serial port, at most once every REOPEN_INTERVAL_NANOS.
+     * The controller gets a keyframe once it reports ready on the reopened port.
+     */
+    private synchronized void reopenLostPort() {
+        long now = System.nanoTime();
+        if (!portLost || now - nextReopenNanos < 0) {
+            return;
+        }
+        closePort();
+        portLost = false;
+        initSerialPort();
+    }
+
     private synchronized void requestControllerStatus() {
         if (!statusRequestPending) {
             writeBuffer[0] = COMMAND_REQUEST_STATUS;
-            serialPort.writeBytes(writeBuffer, 1);
+            writePort(writeBuffer, 1);
             LOGGER.finer("Requesting controller status.");
             statusRequestPending = true;
         }
@@ -133,55 +511,246 @@ public class DcsBiosArduinoController implements DcsBiosStreamListener {
 
     private synchronized void setControllerReadyForData(boolean value) {
         controllerReadyForData = value;
-        sendBusExportStreamData();
+        exportDataReady();
+    }
+
+    /**
+     * Sends export data now, or wakes the writer thread if it is running.  Must be
+     * called from a synchronized method.
+     */
+    private void exportDataReady() {
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        else {
+            sendBusExportStreamData();
+        }
+    }
+
+    private void drainQueue() {
+        synchronized (drainLock) {
+            queue.drainTo(buffer);
+        }
+    }
+
+    /**
+     * Run loop for the writer thread.  Also wakes up periodically to check for
+     * acknowledgement timeouts when no data is arriving.
+     */
+    private void runWriter() {
+        LOGGER.fine(String.format("Entering bus writer loop for '%s'.", serialPortName));
+        Thread self = Thread.currentThread();
+        while (writer == self) {
+            if (portLost) {
+                reopenLostPort();
+            }
+            drainQueue();
+            synchronized (this) {
+                sendBusExportStreamData();
+            }
+            LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+        }
+        LOGGER.fine(String.format("Exiting bus writer loop for '%s'.", serialPortName));
     }
 
     /**
      * Note: Must be called from a synchronized method as it uses a class instance level write buffer.
      */
     private void sendBusExportStreamData() {
-        if (isControllerReadyForData() && buffer.size() > 0) {
-            int size = Math.min(buffer.size(), 64);
-            writeBuffer[0] = COMMAND_LOAD_EXPORT_DATA;
-            writeBuffer[1] = (byte)size;
-            int checksum = size;
-            for(int i=0;i<size;i++) {
-                byte d = buffer.get();
-                checksum += d;
-                writeBuffer[2+i] = d;
+        long now = System.nanoTime();
+        if (window.checkTimeout(now)) {
+            LOGGER.warning("Timeout waiting for bus controller to acknowledge data.");
+            // The controller may have reset and lost its state.
+            keyframePending = true;
+            controllerReadyForData = false;
+            statusRequestPending = false;
+            requestControllerStatus();
+            return;
+        }
+        if (keyframePending && isControllerReadyForData() && window.getInFlightCount() == 0) {
+            sendKeyframe();
+        }
+        while (isControllerReadyForData()) {
+            int length = window.next(writeBuffer, now);
+            if (length == 0) {
+                break;
             }
-            writeBuffer[size+2] = (byte)checksum;
-            serialPort.writeBytes(writeBuffer, size+3);
-            setControllerReadyForData(false);
-            LOGGER.finest(String.format("Sent %d bytes with %d remaining.", size, buffer.size()));
+            writePort(writeBuffer, length);
+            bytesWritten += length;
+            LOGGER.finest(String.format("Sent %d bytes with %d in flight.", length - 3, window.getInFlightCount()));
+        }
+    }
+
+    /**
+     * Replaces the complete frames waiting for the controller with a keyframe, so a
+     * controller which has just connected or reset is brought up to date at once.
+     * Must be called from a synchronized method with nothing in flight.
+     */
+    private void sendKeyframe() {
+        if (keyframeEncoder == null) {
+            keyframeEncoder = new DcsBiosKeyframeEncoder(receiver.getExportImage());
+        }
+        keyframeEncoder.setAddressFilter(addressFilter.isEmpty() ? null : addressFilter);
+        int length = keyframeEncoder.encode();
+        if (buffer.replaceCompleteFrames(keyframeEncoder.getBuffer(), 0, length)) {
+            LOGGER.fine(String.format("Sending %d byte keyframe for frame %d.", length, keyframeEncoder.getFrame()));
+            keyframePending = false;
         }
+        // Otherwise wait for the start of the next frame to line the keyframe up with.
+        window.reset();
+    }
+
+    private synchronized void controllerReady() {
+        // Also sent after every full buffer, which loses no data, so not a sign of a reset.
+        statusRequestPending = false;
+        setControllerReadyForData(true);
+    }
+
+    private synchronized void exportDataAcknowledged() {
+        window.acknowledged();
+        exportDataReady();
+    }
+
+    private synchronized void exportDataRejected() {
+        window.rejected();
+        exportDataReady();
+    }
+
+    /**
+     * Copies up to MAX_EXPORT_DATA_SIZE bytes from the buffer into a load export data
+     * message: the command byte, data size, data and an 8 bit checksum of the size and data.
+     * The data is left in the buffer until the controller acknowledges it.
+     *
+     * @param buffer Buffer containing export data.
+     * @param position Number of bytes from the front of the buffer to start at, must be less than its size.
+     * @param message Array to write the message into, at least MAX_EXPORT_DATA_SIZE + 3 bytes.
+     * @return Length of the message.
+     */
+    static int encodeExportData(ByteRingBuffer buffer, int position, byte[] message) {
+        int size = buffer.peek(position, message, 2, MAX_EXPORT_DATA_SIZE);
+        message[0] = COMMAND_LOAD_EXPORT_DATA;
+        message[1] = (byte)size;
+        int checksum = size;
+        for(int i=0;i<size;i++) {
+            checksum += message[2+i];
+        }
+        message[size+2] = (byte)checksum;
+        return size+3;
     }
 
     @Override
-    public synchronized void  dcsBiosStreamDataReceived(byte[] data, int offset, int length) {
-        if (serialPort != null && serialPort.isOpen()) {
+    public void dcsBiosStreamDataReceived(byte[] data, int offset, int length) {
+        if (portLost && writer == null) {
+            reopenLostPort();
+        }
+        if (isPortOpen()) {
+            Thread thread = writer;
+            if (thread != null) {
+                // Full queue discards the data and counts it as dropped.
+                queue.offer(data, offset, length);
+                LockSupport.unpark(thread);
+                return;
+            }
+            // A packet offered while the writer was stopping must go first.
+            drainQueue();
+            // Added outside our lock so a blocking buffer can be drained by the serial thread.
             buffer.add(data, offset, length);
-            sendBusExportStreamData();
+            synchronized (this) {
+                sendBusExportStreamData();
+            }
         }
     }
 
+    /**
+     * Frames notifications and command messages from the controller.  Command text is
+     * framed straight into the command buffer so completed commands can be sent
+     * together without copying.
+     */
+    void processSerialData(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            byte datum = data[i];
+            switch (state) {
+                case WAITING:
+                    processControllerNotification(datum);
+                    break;
+                case MESSAGE_SIZE:
+                    messageSize = datum & 0xff;
+                    if (messageSize == 0 || messageSize > MAX_MESSAGE_SIZE) {
+                        LOGGER.warning(String.format("Invalid message size(%d) from bus controller.", messageSize));
+                        state = CONTROLLER_STATE.WAITING;
+                        break;
+                    }
+                    if (commandLength + messageSize + 1 > commandBuffer.length) {
+                        flushCommands();
+                    }
+                    messageStart = commandLength;
+                    state = CONTROLLER_STATE.MESSAGE_DATA;
+                    break;
+                case MESSAGE_DATA:
+                    commandBuffer[commandLength++] = datum;
+                    if (commandLength - messageStart == messageSize) {
+                        commandReceived();
+                        state = CONTROLLER_STATE.WAITING;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Handles the command message which has just been framed at messageStart.
+     */
+    private void commandReceived() {
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer(new String(commandBuffer, messageStart, messageSize));
+        }
+        DcsBiosCommandSource source = commandSource;
+        if (source != null) {
+            if (!source.post(commandBuffer, messageStart, messageSize)) {
+                LOGGER.warning("Command queue full, dropping command.");
+            }
+            commandLength = messageStart;
+        }
+        else if (commandBuffer[commandLength - 1] != '\n') {
+            commandBuffer[commandLength++] = '\n';
+        }
+    }
+
+    /**
+     * Sends all completed commands to DCS-BIOS in one datagram and moves any partly
+     * received message to the front of the command buffer.
+     */
+    private void flushCommands() {
+        int complete = state == CONTROLLER_STATE.MESSAGE_DATA ? messageStart : commandLength;
+        if (complete == 0) {
+            return;
+        }
+        try {
+            receiver.sendCommand(commandBuffer, 0, complete);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending command to DCS-BIOS.", e);
+        }
+        System.arraycopy(commandBuffer, complete, commandBuffer, 0, commandLength - complete);
+        commandLength -= complete;
+        messageStart = 0;
+    }
+
     private void processControllerNotification(byte data) {
         if (data == CONTROLLER_READY_FOR_DATA) {
             LOGGER.finer("Controller buffer ready.");
-            statusRequestPending = false;
-            setControllerReadyForData(true);
+            controllerReady();
         } else if (data == CONTROLLER_BUFFER_FULL) {
             LOGGER.finer("Controller buffer full.");
             statusRequestPending = false;
             setControllerReadyForData(false);
         } else if (data == CONTROLLER_DATA_RECEIVED) {
             LOGGER.finer("Controller buffer data received.");
-            // TODO Increment pointer.
+            exportDataAcknowledged();
         } else if (data == CONTROLLER_ERROR_LOADING) {
             LOGGER.warning("Error loading data to bus controller.");
-            // TODO Rewind and retransmit.
+            exportDataRejected();
         } else if (data == CONTROLLER_MESSAGE_RECEIVED) {
-            messagePointer = 0;
             state = CONTROLLER_STATE.MESSAGE_SIZE;
         } else {
             LOGGER.warning(String.format("Unexpected data(%d) from bus controller.", data));
@@ -0,0 +1,25 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+/**
+ * Behavior of a bus controller's export buffer when export data arrives faster
+ * than the bus can accept it and the buffer is full.
+ */
+public enum DcsBiosExportOverflowPolicy {
+
+    /**
+     * Double the buffer up to its maximum capacity, then drop the oldest frames.
+     */
+    GROW,
+
+    /**
+     * Drop the oldest buffered data up to the next frame sync marker so the bus
+     * receives whole frames.
+     */
+    DROP_OLDEST_FRAME,
+
+    /**
+     * Wait up to the block timeout for the bus to drain the buffer, then drop the
+     * oldest frames.
+     */
+    BLOCK
+}
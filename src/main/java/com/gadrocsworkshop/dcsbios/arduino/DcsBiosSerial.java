@@ -3,26 +3,78 @@ package com.gadrocsworkshop.dcsbios.arduino;
 import com.fazecast.jSerialComm.SerialPort;
 import com.fazecast.jSerialComm.SerialPortDataListener;
 import com.fazecast.jSerialComm.SerialPortEvent;
+import com.gadrocsworkshop.dcsbios.receiver.AbstractDcsBiosReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosKeyframeEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosUdpReceiver;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class DcsBiosSerial {
+/**
+ * Relays the DCS-BIOS export stream from a receiver to a single controller on a
+ * serial port and sends commands from the controller back to DCS-BIOS.  Export data
+ * is written by a dedicated writer thread in batches which end on a frame boundary,
+ * so the controller never holds half a frame while the rest is in flight.
+ *
+ * A keyframe with the latest value of every exported address is sent when the relay
+ * starts, and can be requested again at any time, for example after the controller
+ * resets.
+ */
+public class DcsBiosSerial implements DcsBiosStreamListener, DcsBiosSyncListener {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosSerial.class.getName());
+
+    private static final int BUFFER_SIZE = 0x10000;
 
     public static void main(String[] args) {
-        DcsBiosSerial relay = new DcsBiosSerial(args[0]);
-        relay.run();
+        if (args.length < 1) {
+            System.err.println("Usage: DcsBiosSerial <serial port> [baud rate] [group address] [port]");
+            return;
+        }
+        try {
+            String group = args.length > 2 ? args[2] : "239.255.50.10";
+            int port = args.length > 3 ? Integer.parseInt(args[3]) : 5010;
+            DcsBiosUdpReceiver receiver = new DcsBiosUdpReceiver(group, port);
+            DcsBiosSerial relay = new DcsBiosSerial(receiver, args[0]);
+            if (args.length > 1) {
+                relay.setBaudRate(Integer.parseInt(args[1]));
+            }
+            receiver.start();
+            relay.start();
+
+            while(true) {
+                Thread.sleep(1000);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
+    private final AbstractDcsBiosReceiver receiver;
+    private final String serialPortName;
+    private final FrameCoalescer coalescer = new FrameCoalescer(BUFFER_SIZE, 4096);
+    private final DcsBiosKeyframeEncoder keyframeEncoder;
+    private volatile boolean keyframePending = false;
+
+    private int baudRate = 250000;
+    private volatile int maxWriteSize = 4096;
+
     private SerialPort serialPort;
-    private int dcsPort = 7778;
-    private DatagramSocket socket;
+    private volatile boolean running = false;
+    private Thread writer;
+
+    private volatile long bytesWritten = 0;
+    private volatile long writeCount = 0;
+
+    // Command input, only touched by the serial event thread.
+    private final byte[] readBuffer = new byte[1024];
     private final byte[] sendBuffer = new byte[2048];
     private int sendBufferPointer = 0;
-    private InetAddress dcsAddress = null;
+    private boolean discarding = false;
 
     private SerialPortDataListener listener = new SerialPortDataListener() {
         @Override
@@ -34,53 +86,231 @@ public class DcsBiosSerial {
             if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE)
                 return;
 
-            try {
-                byte[] data = new byte[serialPort.bytesAvailable()];
-                int numRead = serialPort.readBytes(data, data.length);
-                for (byte aData : data) {
-                    sendBuffer[sendBufferPointer++] = aData;
-                    if (aData == 10) {
-                        if (dcsAddress != null) {
-                            DatagramPacket sendPacket = new DatagramPacket(sendBuffer, sendBufferPointer, dcsAddress, dcsPort);
-                            socket.send(sendPacket);
-                        }
-                        sendBufferPointer = 0;
-                    }
+            SerialPort port = serialPort;
+            int available;
+            while (port != null && (available = port.bytesAvailable()) > 0) {
+                int length = port.readBytes(readBuffer, Math.min(available, readBuffer.length));
+                if (length <= 0) {
+                    break;
                 }
-            } catch(IOException e) {
-                e.printStackTrace();
+                bufferCommands(length);
             }
+            sendCommands();
         }
     };
 
-    public DcsBiosSerial(String portName) {
+    /**
+     * Creates a new relay.
+     *
+     * @param receiver Receiver providing the export stream and sending commands.
+     * @param serialPortName Name of the serial port the controller is connected to.
+     */
+    public DcsBiosSerial(AbstractDcsBiosReceiver receiver, String serialPortName) {
+        this.receiver = receiver;
+        this.serialPortName = serialPortName;
+        this.keyframeEncoder = new DcsBiosKeyframeEncoder(receiver.getExportImage());
+    }
+
+    /**
+     * Sets the baud rate of the serial port.  Takes effect on the next start.
+     *
+     * @param baudRate Baud rate, defaults to 250000.
+     */
+    public synchronized void setBaudRate(int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    /**
+     * Sets the largest number of bytes written to the serial port in one call.  A frame
+     * which grows past this size is passed to the writer before it is complete.
+     *
+     * @param maxWriteSize Maximum write size in bytes, defaults to 4096.
+     */
+    public void setMaxWriteSize(int maxWriteSize) {
+        coalescer.setMaxWriteSize(maxWriteSize);
+        this.maxWriteSize = maxWriteSize;
+    }
+
+    /**
+     * Opens the serial port and starts relaying.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        LOGGER.info(String.format("Opening serial port '%s'", serialPortName));
+        serialPort = SerialPort.getCommPort(serialPortName);
+        if (!serialPort.openPort()) {
+            throw new IllegalStateException(String.format("Unable to open serial port '%s'.", serialPortName));
+        }
+        serialPort.setComPortParameters(baudRate, 8, 1, 0);
+        serialPort.addDataListener(listener);
+
+        running = true;
+        keyframePending = true;
+        writer = new Thread(this::runWriter, String.format("DCS-BIOS Serial Writer %s", serialPortName));
+        writer.start();
+        receiver.addSyncListener(this);
+        receiver.addStreamListener(this);
+    }
+
+    /**
+     * Stops relaying and closes the serial port.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        receiver.removeStreamListener(this);
+        receiver.removeSyncListener(this);
+        running = false;
+        writer.interrupt();
         try {
-            serialPort = SerialPort.getCommPort(portName);
-            serialPort.openPort();
-            serialPort.setComPortParameters(250000, 8, 1, 0);
-            serialPort.addDataListener(listener);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serialPort.removeDataListener();
+        serialPort.closePort();
+    }
 
-            InetAddress group = InetAddress.getByName("239.255.50.10");
-            socket = new MulticastSocket(5010);
-            ((MulticastSocket)socket).joinGroup(group);
+    /**
+     * Sends the controller a keyframe with the latest value of every exported address
+     * at the end of the current frame, replacing any frames it has not been sent yet.
+     */
+    public void requestKeyframe() {
+        keyframePending = true;
+    }
+
+    /**
+     * Number of bytes written to the serial port.
+     *
+     * @return Written byte count.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Number of writes made to the serial port.
+     *
+     * @return Write count.
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Number of bytes in the most recently completed frame.
+     *
+     * @return Frame size in bytes.
+     */
+    public int getLastFrameSize() {
+        return coalescer.getLastFrameSize();
+    }
 
-        } catch (Exception ex) {
-            ex.printStackTrace();
+    /**
+     * Average number of bytes per frame since the relay was created.
+     *
+     * @return Average frame size in bytes, zero if no frame has completed.
+     */
+    public double getAverageFrameSize() {
+        long frames = coalescer.getFrameCount();
+        return frames > 0 ? (double)coalescer.getFrameByteCount() / frames : 0;
+    }
+
+    /**
+     * Number of export bytes dropped because the serial port could not keep up.
+     *
+     * @return Dropped byte count.
+     */
+    public long getDroppedByteCount() {
+        return coalescer.getDroppedByteCount();
+    }
+
+    @Override
+    public void dcsBiosFrameSyncReceived() {
+        coalescer.frameCompleted();
+    }
+
+    @Override
+    public void dcsBiosStreamDataReceived(byte[] data, int offset, int length) {
+        if (coalescer.append(data, offset, length) && keyframePending) {
+            keyframePending = false;
+            int keyframeLength = keyframeEncoder.encode();
+            coalescer.replaceReady(keyframeEncoder.getBuffer(), 0, keyframeLength);
         }
     }
 
-    public void run() {
-        byte[] buf = new byte[2048];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+    /**
+     * Run loop for the writer thread.
+     */
+    private void runWriter() {
+        LOGGER.fine("Entering serial writer loop.");
         try {
-            while(true) {
-                socket.receive(packet);
-                dcsAddress = packet.getAddress();
-                int size = packet.getLength();
-                serialPort.writeBytes(buf, size, packet.getOffset());
+            while (running) {
+                int length = coalescer.take(1, TimeUnit.SECONDS);
+                byte[] data = coalescer.getWriteBuffer();
+                int chunk = maxWriteSize;
+                for (int offset = 0; offset < length; offset += chunk) {
+                    int written = serialPort.writeBytes(data, Math.min(chunk, length - offset), offset);
+                    if (written < 0) {
+                        LOGGER.warning(String.format("Error writing to serial port '%s'.", serialPortName));
+                        break;
+                    }
+                    bytesWritten += written;
+                    writeCount++;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        }
+        LOGGER.fine("Exiting serial writer loop.");
+    }
+
+    /**
+     * Appends serial data to the send buffer, sending completed commands early if the
+     * buffer fills up.  A line too long to fit in the buffer can not be a command and
+     * is discarded up to and including its newline.
+     */
+    private void bufferCommands(int length) {
+        for (int i = 0; i < length; i++) {
+            byte datum = readBuffer[i];
+            if (discarding) {
+                discarding = datum != 10;
+                continue;
+            }
+            if (sendBufferPointer == sendBuffer.length) {
+                sendCommands();
+                if (sendBufferPointer == sendBuffer.length) {
+                    LOGGER.warning("Discarding over long line from serial port.");
+                    sendBufferPointer = 0;
+                    discarding = datum != 10;
+                    continue;
+                }
             }
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            sendBuffer[sendBufferPointer++] = datum;
+        }
+    }
+
+    /**
+     * Sends every complete command in the send buffer as one datagram and keeps
+     * the partial command after the last newline.
+     */
+    private void sendCommands() {
+        int end = sendBufferPointer;
+        while (end > 0 && sendBuffer[end - 1] != 10) {
+            end--;
+        }
+        if (end == 0) {
+            return;
+        }
+        try {
+            receiver.sendCommand(sendBuffer, 0, end);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending command to DCS-BIOS.", e);
         }
+        System.arraycopy(sendBuffer, end, sendBuffer, 0, sendBufferPointer - end);
+        sendBufferPointer -= end;
     }
 }
@@ -0,0 +1,125 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import com.gadrocsworkshop.dcsbios.receiver.AbstractDcsBiosReceiver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Drives several bus controllers from one receiver.  Each controller runs its own
+ * writer thread, so the receive thread only copies export data into each
+ * controller's queue and a slow or unplugged port never holds up the receiver or
+ * the other buses.
+ */
+public class DcsBiosSerialFanOut {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosSerialFanOut.class.getName());
+
+    private final AbstractDcsBiosReceiver receiver;
+    private final List<DcsBiosArduinoController> controllers = new ArrayList<>();
+    private boolean running = false;
+
+    /**
+     * Creates a new fan out.
+     *
+     * @param receiver Receiver the controllers get export data from.
+     */
+    public DcsBiosSerialFanOut(AbstractDcsBiosReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Opens a serial port and adds a controller for it.  The controller's writer is
+     * started if the fan out is running.
+     *
+     * @param serialPortName Name of the serial port the bus controller is connected to.
+     * @return Controller for the port, which can be used to configure it.
+     */
+    public synchronized DcsBiosArduinoController addController(String serialPortName) {
+        DcsBiosArduinoController controller = new DcsBiosArduinoController(receiver, serialPortName);
+        controllers.add(controller);
+        if (running) {
+            controller.start();
+        }
+        return controller;
+    }
+
+    /**
+     * Removes a controller and closes its serial port.
+     *
+     * @param controller Controller returned from addController.
+     */
+    public synchronized void removeController(DcsBiosArduinoController controller) {
+        if (controllers.remove(controller)) {
+            controller.close();
+        }
+    }
+
+    /**
+     * Controllers currently driven by this fan out.
+     *
+     * @return Unmodifiable snapshot of the controllers.
+     */
+    public synchronized List<DcsBiosArduinoController> getControllers() {
+        return Collections.unmodifiableList(new ArrayList<>(controllers));
+    }
+
+    /**
+     * Starts the writer thread of every controller.
+     */
+    public synchronized void start() {
+        running = true;
+        for (DcsBiosArduinoController controller : controllers) {
+            controller.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread of every controller.
+     */
+    public synchronized void stop() {
+        running = false;
+        for (DcsBiosArduinoController controller : controllers) {
+            controller.stop();
+        }
+    }
+
+    /**
+     * Total bytes written to all serial ports.
+     *
+     * @return Written byte count.
+     */
+    public synchronized long getBytesWritten() {
+        long total = 0;
+        for (DcsBiosArduinoController controller : controllers) {
+            total += controller.getBytesWritten();
+        }
+        return total;
+    }
+
+    /**
+     * Total export bytes waiting to be sent to all buses.
+     *
+     * @return Backlog in bytes.
+     */
+    public synchronized long getExportBacklog() {
+        long total = 0;
+        for (DcsBiosArduinoController controller : controllers) {
+            total += controller.getExportBacklog();
+        }
+        return total;
+    }
+
+    /**
+     * Logs throughput and backlog of each port.
+     */
+    public synchronized void logStatistics() {
+        for (DcsBiosArduinoController controller : controllers) {
+            LOGGER.info(String.format("%s: %d bytes written, %d bytes backlog (high water %d), %d bytes dropped, %d retransmits.",
+                    controller.getSerialPortName(), controller.getBytesWritten(), controller.getExportBacklog(),
+                    controller.getBufferHighWaterMark(), controller.getDroppedByteCount(), controller.getRetransmitCount()));
+        }
+    }
+}
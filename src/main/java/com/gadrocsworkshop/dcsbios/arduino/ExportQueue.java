@@ -0,0 +1,108 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lock free single producer, single consumer queue of export stream bytes.  The
+ * receive thread offers data and a bus writer thread drains it, neither ever waits
+ * for the other.  Data offered while the queue is too full to hold all of it is
+ * discarded whole so the stream only ever loses complete packets.
+ */
+final class ExportQueue {
+
+    private static final AtomicLongFieldUpdater<ExportQueue> HEAD = AtomicLongFieldUpdater.newUpdater(ExportQueue.class, "head");
+    private static final AtomicLongFieldUpdater<ExportQueue> TAIL = AtomicLongFieldUpdater.newUpdater(ExportQueue.class, "tail");
+    private static final AtomicLongFieldUpdater<ExportQueue> DROPPED = AtomicLongFieldUpdater.newUpdater(ExportQueue.class, "droppedByteCount");
+
+    private final byte[] data;
+    private final int mask;
+
+    // Written only by the consumer.
+    private volatile long head = 0;
+
+    // Written only by the producer.
+    private volatile long tail = 0;
+    private volatile long droppedByteCount = 0;
+    private long cachedHead = 0;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param size Minimum capacity in bytes, rounded up to a power of two.
+     */
+    ExportQueue(int size) {
+        if (size <= 0 || size > 1 << 30) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        data = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds data to the queue.  Only called from the producer thread.
+     *
+     * @param source Array containing the data.
+     * @param offset Offset into source of the data.
+     * @param length Number of bytes to add.
+     * @return True if the data was added, false if it was discarded because the queue is full.
+     */
+    boolean offer(byte[] source, int offset, int length) {
+        long t = tail;
+        if (length > data.length - (t - cachedHead)) {
+            cachedHead = head;
+            if (length > data.length - (t - cachedHead)) {
+                DROPPED.lazySet(this, droppedByteCount + length);
+                return false;
+            }
+        }
+        int start = (int)t & mask;
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(source, offset, data, start, first);
+        System.arraycopy(source, offset + first, data, 0, length - first);
+        TAIL.lazySet(this, t + length);
+        return true;
+    }
+
+    /**
+     * Moves everything in the queue into a ring buffer.  Only called from the consumer thread.
+     *
+     * @param buffer Buffer to add the data to.
+     * @return Number of bytes moved.
+     */
+    int drainTo(ByteRingBuffer buffer) {
+        long h = head;
+        long t = tail;
+        int length = (int)(t - h);
+        if (length > 0) {
+            int start = (int)h & mask;
+            int first = Math.min(length, data.length - start);
+            buffer.add(data, start, first);
+            buffer.add(data, 0, length - first);
+            HEAD.lazySet(this, t);
+        }
+        return length;
+    }
+
+    /**
+     * Number of bytes waiting in the queue.
+     *
+     * @return Queued byte count.
+     */
+    int size() {
+        long h = head;
+        return (int)(tail - h);
+    }
+
+    /**
+     * Number of bytes discarded because the queue was full.
+     *
+     * @return Dropped byte count.
+     */
+    long getDroppedByteCount() {
+        return droppedByteCount;
+    }
+}
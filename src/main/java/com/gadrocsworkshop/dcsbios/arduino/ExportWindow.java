@@ -0,0 +1,182 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding window of load export data messages which have been sent to a bus
+ * controller but not yet acknowledged.  Sent data stays in the export buffer until
+ * the controller acknowledges it, so a rejected message and everything sent after
+ * it can be sent again (go-back-N).  Responses are expected in the order messages
+ * were sent.
+ *
+ * Positions are tracked as stream positions of the export buffer so data dropped by
+ * the buffer's overflow policy while in flight is simply skipped.  Not thread safe,
+ * callers must synchronize; the buffer's own lock is held while reading from it.
+ */
+class ExportWindow {
+
+    static final int MAX_SIZE = 16;
+
+    private final ByteRingBuffer buffer;
+
+    private final long[] ends = new long[MAX_SIZE];
+    private final long[] sentTimes = new long[MAX_SIZE];
+    private int first = 0;
+    private int count = 0;
+    private int size;
+
+    private long ackedPosition;
+    private long sentPosition;
+    private int ignoredResponses = 0;
+    private long ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private long retransmitCount = 0;
+    private long timeoutCount = 0;
+
+    ExportWindow(ByteRingBuffer buffer, int size) {
+        this.buffer = buffer;
+        setSize(size);
+        ackedPosition = sentPosition = buffer.getReadPosition();
+    }
+
+    /**
+     * Sets the maximum number of messages in flight.  A size of one is stop-and-wait.
+     *
+     * @param size Number of messages which can be sent before the first is acknowledged.
+     */
+    void setSize(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException(String.format("Window size must be between 1 and %d.", MAX_SIZE));
+        }
+        this.size = size;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets how long to wait for the response to the oldest message in flight before
+     * assuming responses were lost.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     */
+    void setAckTimeout(long timeout, TimeUnit unit) {
+        this.ackTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    int getInFlightCount() {
+        return count;
+    }
+
+    long getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * Encodes the next unsent export data into a message if the window has room.
+     *
+     * @param message Array to write the message into, at least MAX_EXPORT_DATA_SIZE + 3 bytes.
+     * @param now Current System.nanoTime().
+     * @return Length of the message, zero if the window is full or there is no unsent data.
+     */
+    int next(byte[] message, long now) {
+        if (count == size) {
+            return 0;
+        }
+        int length;
+        synchronized (buffer) {
+            long readPosition = buffer.getReadPosition();
+            if (sentPosition < readPosition) {
+                // Unsent data was dropped by the overflow policy.
+                sentPosition = readPosition;
+            }
+            int offset = (int)(sentPosition - readPosition);
+            if (offset >= buffer.size()) {
+                return 0;
+            }
+            length = DcsBiosArduinoController.encodeExportData(buffer, offset, message);
+            sentPosition += length - 3;
+        }
+        int slot = (first + count) % MAX_SIZE;
+        ends[slot] = sentPosition;
+        sentTimes[slot] = now;
+        count++;
+        return length;
+    }
+
+    /**
+     * The controller loaded the oldest message in flight, its data is removed from the buffer.
+     */
+    void acknowledged() {
+        if (ignoredResponses > 0) {
+            ignoredResponses--;
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        ackedPosition = ends[first];
+        first = (first + 1) % MAX_SIZE;
+        count--;
+        synchronized (buffer) {
+            long acked = ackedPosition - buffer.getReadPosition();
+            if (acked > 0) {
+                buffer.skip((int)Math.min(acked, buffer.size()));
+            }
+        }
+    }
+
+    /**
+     * The controller failed to load the oldest message in flight.  Responses to the
+     * other messages in flight are ignored and everything from the rejected message
+     * on will be sent again.
+     */
+    void rejected() {
+        if (ignoredResponses > 0) {
+            ignoredResponses--;
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        retransmitCount++;
+        ignoredResponses = count - 1;
+        rewind();
+    }
+
+    /**
+     * Checks if the oldest message in flight has gone unanswered for too long, in
+     * which case the window is rewound and everything in flight will be sent again.
+     *
+     * @param now Current System.nanoTime().
+     * @return True if the window timed out.
+     */
+    boolean checkTimeout(long now) {
+        if (count > 0 && now - sentTimes[first] > ackTimeoutNanos) {
+            timeoutCount++;
+            ignoredResponses = 0;
+            rewind();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all messages in flight, unacknowledged data will be sent again.
+     */
+    void reset() {
+        ignoredResponses = 0;
+        rewind();
+    }
+
+    private void rewind() {
+        count = 0;
+        sentPosition = ackedPosition;
+    }
+}
@@ -0,0 +1,171 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects export stream data from the receive thread into frame aligned batches
+ * for a writer thread.  Data is only handed to the writer once the frame it belongs
+ * to is complete, or once an unfinished frame reaches the maximum write size.
+ * Frames which complete while the writer is busy are merged into its next batch.
+ */
+class FrameCoalescer {
+
+    private byte[] pending;
+    private byte[] writing;
+    private int pendingLength = 0;
+    private int readyLength = 0;
+    private boolean frameEnded = false;
+    private int maxWriteSize;
+
+    private int frameSize = 0;
+    private int lastFrameSize = 0;
+    private long frameCount = 0;
+    private long frameByteCount = 0;
+    private long droppedByteCount = 0;
+
+    /**
+     * Creates a new coalescer.
+     *
+     * @param capacity Maximum number of bytes waiting for the writer.
+     * @param maxWriteSize Size at which an unfinished frame is handed to the writer anyway.
+     */
+    FrameCoalescer(int capacity, int maxWriteSize) {
+        pending = new byte[capacity];
+        writing = new byte[capacity];
+        setMaxWriteSize(maxWriteSize);
+    }
+
+    synchronized void setMaxWriteSize(int maxWriteSize) {
+        if (maxWriteSize <= 0 || maxWriteSize > pending.length) {
+            throw new IllegalArgumentException(String.format("Maximum write size must be between 1 and %d.", pending.length));
+        }
+        this.maxWriteSize = maxWriteSize;
+    }
+
+    /**
+     * Marks the end of a frame.  The parser reports the end of a frame before the
+     * stream data containing it is appended, so the next append completes the frame.
+     */
+    synchronized void frameCompleted() {
+        frameEnded = true;
+    }
+
+    /**
+     * Appends stream data.  If the writer has fallen so far behind there is no room,
+     * complete frames it has not taken yet are dropped first.
+     *
+     * @param data Array containing the stream data.
+     * @param offset Offset into data of the stream data.
+     * @param length Number of bytes to append.
+     * @return True if the data completed a frame.
+     */
+    synchronized boolean append(byte[] data, int offset, int length) {
+        if (length > pending.length - pendingLength) {
+            System.arraycopy(pending, readyLength, pending, 0, pendingLength - readyLength);
+            droppedByteCount += readyLength;
+            pendingLength -= readyLength;
+            readyLength = 0;
+        }
+        if (length > pending.length - pendingLength) {
+            droppedByteCount += length;
+        }
+        else {
+            System.arraycopy(data, offset, pending, pendingLength, length);
+            pendingLength += length;
+        }
+        frameSize += length;
+
+        if (frameEnded) {
+            frameEnded = false;
+            frameCount++;
+            frameByteCount += frameSize;
+            lastFrameSize = frameSize;
+            frameSize = 0;
+            ready();
+            return true;
+        }
+        if (pendingLength - readyLength >= maxWriteSize) {
+            ready();
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the data waiting for the writer with a single frame which supersedes
+     * it, such as a keyframe.  Should be called right after an append which completed
+     * a frame, so the new frame starts on a frame boundary.
+     *
+     * @param data Array containing the frame.
+     * @param offset Offset into data of the frame.
+     * @param length Length of the frame.
+     */
+    synchronized void replaceReady(byte[] data, int offset, int length) {
+        int partial = pendingLength - readyLength;
+        if (length > pending.length - partial) {
+            droppedByteCount += length;
+            return;
+        }
+        System.arraycopy(pending, readyLength, pending, length, partial);
+        System.arraycopy(data, offset, pending, 0, length);
+        pendingLength = length + partial;
+        readyLength = length;
+        notifyAll();
+    }
+
+    private void ready() {
+        readyLength = pendingLength;
+        notifyAll();
+    }
+
+    /**
+     * Waits for a batch of data to write.  The batch is in the write buffer until the
+     * next call to take.  Only called from the writer thread.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     * @return Number of bytes to write, zero if the timeout expired.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    synchronized int take(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (readyLength == 0 && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        int length = readyLength;
+        if (length > 0) {
+            byte[] batch = pending;
+            pending = writing;
+            writing = batch;
+            System.arraycopy(batch, length, pending, 0, pendingLength - length);
+            pendingLength -= length;
+            readyLength = 0;
+        }
+        return length;
+    }
+
+    /**
+     * Buffer holding the batch returned by the last call to take.
+     *
+     * @return Write buffer.
+     */
+    byte[] getWriteBuffer() {
+        return writing;
+    }
+
+    synchronized int getLastFrameSize() {
+        return lastFrameSize;
+    }
+
+    synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    synchronized long getFrameByteCount() {
+        return frameByteCount;
+    }
+
+    synchronized long getDroppedByteCount() {
+        return droppedByteCount;
+    }
+}
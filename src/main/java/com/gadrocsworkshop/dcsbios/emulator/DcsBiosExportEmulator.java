@@ -0,0 +1,475 @@
+package com.gadrocsworkshop.dcsbios.emulator;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Emulates the export side of DCS-BIOS for testing without DCS.  Synthetic aircraft
+ * state is exported as a DCS-BIOS stream to a multicast group or unicast address at
+ * a configurable frame rate.  Each frame changes a configurable number of random
+ * values in the exported address space.  Commands received on the command port for
+ * controls registered with addControl are applied to the exported state, so a
+ * receiver sees its own commands reflected back in the following frames.
+ */
+public class DcsBiosExportEmulator {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosExportEmulator.class.getName());
+
+    private static final int ADDRESS_SPACE = 0x10000;
+
+    /**
+     * Location of a control's value in the exported state.
+     */
+    private static final class Control {
+        private final int address;
+        private final int mask;
+        private final int shift;
+
+        Control(int address, int mask, int shift) {
+            this.address = address;
+            this.mask = mask;
+            this.shift = shift;
+        }
+    }
+
+    private final InetSocketAddress target;
+    private final Map<String, Control> controls = new ConcurrentHashMap<>();
+
+    // Exported state, one value per word address.  Guarded by itself.
+    private final char[] values = new char[ADDRESS_SPACE / 2];
+    private final BitSet dirty = new BitSet(ADDRESS_SPACE / 2);
+
+    private int commandPort = 7778;
+    private int startAddress = 0x1000;
+    private int addressSpaceSize = 0x0800;
+    private int maxPacketSize = 2048;
+    private long seed = 0;
+    private volatile double frameRate = 30;
+    private volatile int changesPerFrame = 10;
+    private volatile int fullRefreshInterval = 0;
+
+    private volatile boolean running = false;
+    // Whether start has been called without a matching stop, the export loop may already have failed.
+    private boolean started = false;
+    private DatagramSocket exportSocket;
+    private DatagramSocket commandSocket;
+    private Thread exportThread;
+    private Thread commandThread;
+
+    private volatile long frameCount = 0;
+    private volatile long packetCount = 0;
+    private volatile long commandCount = 0;
+
+    /**
+     * Creates a new emulator which exports to the default DCS-BIOS multicast group and port.
+     */
+    public DcsBiosExportEmulator() {
+        this("239.255.50.10", 5010);
+    }
+
+    /**
+     * Creates a new emulator.
+     *
+     * @param host Multicast group or unicast host to export to.
+     * @param port Port to export to.
+     */
+    public DcsBiosExportEmulator(String host, int port) {
+        this.target = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Sets the port commands are received on.  Takes effect on the next start.
+     *
+     * @param commandPort Port to receive commands on, zero to not receive commands.
+     */
+    public synchronized void setCommandPort(int commandPort) {
+        this.commandPort = commandPort;
+    }
+
+    /**
+     * Sets the range of addresses which receive random changes and are sent in a full refresh.
+     * Takes effect on the next start.
+     *
+     * @param startAddress First address of the exported state, must be even.
+     * @param size Size in bytes of the exported state.
+     */
+    public synchronized void setAddressSpace(int startAddress, int size) {
+        if ((startAddress & 1) != 0 || size <= 0 || (size & 1) != 0 || startAddress + size > DcsBiosStreamWriter.UPDATE_COUNTER_ADDRESS) {
+            throw new IllegalArgumentException(String.format("Invalid address space 0x%04x size %d.", startAddress, size));
+        }
+        this.startAddress = startAddress;
+        this.addressSpaceSize = size;
+    }
+
+    /**
+     * Sets the number of frames exported per second.
+     *
+     * @param frameRate Frames per second.
+     */
+    public void setFrameRate(double frameRate) {
+        if (!(frameRate > 0)) {
+            throw new IllegalArgumentException("Frame rate must be positive.");
+        }
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * Sets the number of random values changed in each frame.
+     *
+     * @param changesPerFrame Number of values to change, zero to only export reflected commands.
+     */
+    public void setChangesPerFrame(int changesPerFrame) {
+        this.changesPerFrame = changesPerFrame;
+    }
+
+    /**
+     * Sets how often the whole address space is exported regardless of changes.  The first
+     * frame after start is always a full refresh.
+     *
+     * @param frames Number of frames between full refreshes, zero for none.
+     */
+    public void setFullRefreshInterval(int frames) {
+        this.fullRefreshInterval = frames;
+    }
+
+    /**
+     * Sets the largest datagram sent.  Frames larger than this are split over several datagrams.
+     * Takes effect on the next start.
+     *
+     * @param maxPacketSize Maximum datagram size in bytes.
+     */
+    public synchronized void setMaxPacketSize(int maxPacketSize) {
+        if (maxPacketSize <= 0) {
+            throw new IllegalArgumentException("Packet size must be positive.");
+        }
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * Sets the seed for random changes so runs can be repeated.  Takes effect on the next start.
+     *
+     * @param seed Random seed.
+     */
+    public synchronized void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Registers a control so commands for it are reflected into the exported state.
+     * SET_STATE commands set the value, INC, DEC and VARIABLE_STEP commands adjust it
+     * within the range of the mask and TOGGLE flips it between zero and one.
+     *
+     * @param name Control name used in commands.
+     * @param address Address of the control's value.
+     * @param mask Bits of the value used by the control.
+     * @param shift Number of bits the control's value is shifted left within the word.
+     */
+    public void addControl(String name, int address, int mask, int shift) {
+        controls.put(name, new Control(address, mask, shift));
+    }
+
+    /**
+     * Sets a value in the exported state.  The value is sent in the next frame.
+     *
+     * @param address Address of the value.
+     * @param value New 16 bit value.
+     */
+    public void setValue(int address, int value) {
+        synchronized (values) {
+            int index = address >> 1;
+            if (values[index] != (char)value) {
+                values[index] = (char)value;
+                dirty.set(index);
+            }
+        }
+    }
+
+    /**
+     * Reads a value from the exported state.
+     *
+     * @param address Address of the value.
+     * @return Current 16 bit value.
+     */
+    public int getValue(int address) {
+        synchronized (values) {
+            return values[address >> 1];
+        }
+    }
+
+    /**
+     * Number of frames exported since start.
+     *
+     * @return Frame count.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Number of datagrams sent since start.
+     *
+     * @return Packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Number of commands received since start.
+     *
+     * @return Command count.
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Checks to see if the emulator is exporting.
+     *
+     * @return True if the emulator is running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return exportThread != null && exportThread.isAlive();
+    }
+
+    /**
+     * Opens the sockets and starts exporting.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        try {
+            MulticastSocket socket = new MulticastSocket();
+            if (target.getAddress().isMulticastAddress()) {
+                socket.setTimeToLive(1);
+            }
+            exportSocket = socket;
+            if (commandPort > 0) {
+                commandSocket = new DatagramSocket(commandPort);
+            }
+        } catch (IOException e) {
+            closeSockets();
+            throw new UncheckedIOException("Error opening DCS-BIOS emulator sockets.", e);
+        }
+
+        started = true;
+        running = true;
+        frameCount = 0;
+        packetCount = 0;
+        commandCount = 0;
+
+        // Worst case every other word is dirty, costing a block header per value.
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(new byte[DcsBiosStreamWriter.SYNC_SIZE + 3 * ADDRESS_SPACE]);
+        Random random = new Random(seed);
+        DatagramSocket export = exportSocket;
+        int start = startAddress;
+        int size = addressSpaceSize;
+        int packetSize = maxPacketSize;
+        exportThread = new Thread(() -> runExport(export, writer, random, start, size, packetSize), "DCS-BIOS Export Emulator");
+        exportThread.start();
+
+        if (commandSocket != null) {
+            DatagramSocket commands = commandSocket;
+            commandThread = new Thread(() -> runCommands(commands), "DCS-BIOS Emulator Commands");
+            commandThread.start();
+        }
+    }
+
+    /**
+     * Stops exporting and closes the sockets, including after the export loop has
+     * stopped on an error.
+     */
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        running = false;
+        LockSupport.unpark(exportThread);
+        closeSockets();
+        try {
+            exportThread.join();
+            if (commandThread != null) {
+                commandThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commandThread = null;
+    }
+
+    /**
+     * Export loop which builds and sends frames at the configured rate.
+     */
+    private void runExport(DatagramSocket socket, DcsBiosStreamWriter writer, Random random, int start, int size, int packetSize) {
+        LOGGER.fine("Entering export loop.");
+        DatagramPacket packet = new DatagramPacket(writer.getBuffer(), 0, target);
+        long next = System.nanoTime();
+        int frameNumber = 0;
+        try {
+            while (running) {
+                int refresh = fullRefreshInterval;
+                boolean full = frameNumber == 0 || (refresh > 0 && frameNumber % refresh == 0);
+                buildFrame(writer, random, start, size, full, frameNumber);
+                frameNumber++;
+
+                for (int offset = 0; offset < writer.getLength(); offset += packetSize) {
+                    packet.setData(writer.getBuffer(), offset, Math.min(packetSize, writer.getLength() - offset));
+                    socket.send(packet);
+                    packetCount++;
+                }
+                frameCount++;
+
+                long period = (long)(1000000000L / frameRate);
+                next += period;
+                long wait = next - System.nanoTime();
+                if (wait < -period) {
+                    // Too far behind to catch up, start a new schedule instead of bursting.
+                    next = System.nanoTime();
+                }
+                while (running && (wait = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOGGER.log(Level.SEVERE, "Error sending DCS-BIOS export data. Stopping emulator.", e);
+                running = false;
+            }
+        }
+        LOGGER.fine("Exiting export loop.");
+    }
+
+    /**
+     * Applies random changes and encodes all changed values into the writer.
+     */
+    private void buildFrame(DcsBiosStreamWriter writer, Random random, int start, int size, boolean full, int frameNumber) {
+        int first = start >> 1;
+        int words = size >> 1;
+        writer.reset();
+        writer.writeSync();
+        synchronized (values) {
+            for (int i = changesPerFrame; i > 0; i--) {
+                int index = first + random.nextInt(words);
+                char value;
+                do {
+                    value = (char)random.nextInt(0x10000);
+                } while (value == 0x5555);
+                values[index] = value;
+                dirty.set(index);
+            }
+            if (full) {
+                dirty.set(first, first + words);
+            }
+
+            int index = dirty.nextSetBit(0);
+            while (index >= 0) {
+                int end = dirty.nextClearBit(index);
+                writer.writeBlock(index << 1, values, index, end - index);
+                index = dirty.nextSetBit(end);
+            }
+            dirty.clear();
+        }
+        writer.writeEndOfFrame(frameNumber);
+    }
+
+    /**
+     * Command loop which applies received commands to the exported state.
+     */
+    private void runCommands(DatagramSocket socket) {
+        LOGGER.fine("Entering command loop.");
+        byte[] buffer = new byte[0x10000];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        try {
+            while (running) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                String data = new String(buffer, 0, packet.getLength(), StandardCharsets.US_ASCII);
+                for (String line : data.split("\n")) {
+                    if (!line.trim().isEmpty()) {
+                        applyCommand(line.trim());
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            if (running) {
+                LOGGER.log(Level.SEVERE, "Error receiving DCS-BIOS commands.", e);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error receiving DCS-BIOS commands.", e);
+        }
+        LOGGER.fine("Exiting command loop.");
+    }
+
+    private void applyCommand(String command) {
+        commandCount++;
+        int space = command.indexOf(' ');
+        Control control = space > 0 ? controls.get(command.substring(0, space)) : null;
+        if (control == null) {
+            LOGGER.finer(String.format("Ignoring command for unknown control: %s", command));
+            return;
+        }
+
+        String argument = command.substring(space + 1).trim();
+        int max = control.mask >>> control.shift;
+        synchronized (values) {
+            int word = values[control.address >> 1];
+            int current = (word & control.mask) >>> control.shift;
+            int value;
+            try {
+                switch (argument) {
+                    case "INC":
+                        value = current + 1;
+                        break;
+                    case "DEC":
+                        value = current - 1;
+                        break;
+                    case "TOGGLE":
+                        value = current == 0 ? 1 : 0;
+                        break;
+                    default:
+                        if (argument.startsWith("+") || argument.startsWith("-")) {
+                            value = current + Integer.parseInt(argument.startsWith("+") ? argument.substring(1) : argument);
+                        }
+                        else {
+                            value = Integer.parseInt(argument);
+                        }
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.warning(String.format("Ignoring invalid command: %s", command));
+                return;
+            }
+            value = Math.max(0, Math.min(max, value));
+            setValue(control.address, (word & ~control.mask) | ((value << control.shift) & control.mask));
+        }
+    }
+
+    private void closeSockets() {
+        if (exportSocket != null) {
+            exportSocket.close();
+            exportSocket = null;
+        }
+        if (commandSocket != null) {
+            commandSocket.close();
+            commandSocket = null;
+        }
+    }
+}
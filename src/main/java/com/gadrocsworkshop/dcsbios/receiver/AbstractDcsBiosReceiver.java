@@ -0,0 +1,236 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for receivers which feed a DcsBiosParser.  Takes care of listener
+ * registration and stream listener notification so implementations only need to
+ * deliver data and send commands.
+ */
+public abstract class AbstractDcsBiosReceiver implements DcsBiosReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(AbstractDcsBiosReceiver.class.getName());
+
+    private final DcsBiosParser parser;
+
+    private volatile DcsBiosStreamListener[] streamListeners = new DcsBiosStreamListener[0];
+
+    /**
+     * Creates a new receiver with its own parser.
+     */
+    protected AbstractDcsBiosReceiver() {
+        this(new DcsBiosParser());
+    }
+
+    /**
+     * Creates a new receiver which feeds the given parser.
+     *
+     * @param parser Parser to process received data.
+     */
+    protected AbstractDcsBiosReceiver(DcsBiosParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Parser which processes data for this receiver.
+     *
+     * @return Parser for this receiver.
+     */
+    public DcsBiosParser getParser() {
+        return parser;
+    }
+
+    @Override
+    public void sendCommand(String command) throws IOException {
+        sendCommand(command.getBytes());
+    }
+
+    @Override
+    public void sendCommand(byte[] command) throws IOException {
+        if (command != null) {
+            sendCommand(command, 0, command.length);
+        }
+    }
+
+    @Override
+    public abstract void sendCommand(byte[] buffer, int offset, int length) throws IOException;
+
+    @Override
+    public void addDataListener(DcsBiosDataListener listener) {
+        parser.addDataListener(listener);
+    }
+
+    @Override
+    public void removeDataListener(DcsBiosDataListener listener) {
+        parser.removeDataListener(listener);
+    }
+
+    /**
+     * Registers a data listener which is only notified of writes to a single
+     * address.  Use removeDataListener to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param address Address the listener is interested in.
+     */
+    public void addDataListener(DcsBiosDataListener listener, int address) {
+        parser.addDataListener(listener, address);
+    }
+
+    /**
+     * Registers a data listener which is only notified of writes to addresses
+     * inside a range.  Use removeDataListener to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param startAddress First address the listener is interested in.
+     * @param endAddress Last address (inclusive) the listener is interested in.
+     */
+    public void addDataListener(DcsBiosDataListener listener, int startAddress, int endAddress) {
+        parser.addDataListener(listener, startAddress, endAddress);
+    }
+
+    /**
+     * Registers a data listener which is notified of writes to a single address
+     * only when one of the bits in mask has changed since the last notification.
+     * Use removeDataListener to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param address Address the listener is interested in.
+     * @param mask Bits of the value the listener is interested in.
+     */
+    public void addMaskedDataListener(DcsBiosDataListener listener, int address, int mask) {
+        parser.addMaskedDataListener(listener, address, mask);
+    }
+
+    /**
+     * Registers a block listener to this DCS-BIOS receiver.  Block listeners are
+     * notified once for each write block read from the DCS-BIOS stream.
+     *
+     * @param listener Listener which will get notified
+     */
+    public void addBlockListener(DcsBiosBlockListener listener) {
+        parser.addBlockListener(listener);
+    }
+
+    /**
+     * Removes a block listener from this DCS-BIOS receiver.
+     *
+     * @param listener Listener which will no longer be notified of new data.
+     */
+    public void removeBlockListener(DcsBiosBlockListener listener) {
+        parser.removeBlockListener(listener);
+    }
+
+    @Override
+    public void addSyncListener(DcsBiosSyncListener listener) {
+        parser.addSyncListener(listener);
+    }
+
+    @Override
+    public void removeSyncListener(DcsBiosSyncListener listener) {
+        parser.removeSyncListener(listener);
+    }
+
+    /**
+     * Registers a frame change listener to this DCS-BIOS receiver.  Frame change
+     * listeners are notified at the end of a frame with the addresses which
+     * changed during the frame.  They are only notified while in notify changes
+     * only mode.
+     *
+     * @param listener Listener to get frame change events.
+     */
+    public void addFrameChangeListener(DcsBiosFrameChangeListener listener) {
+        parser.addFrameChangeListener(listener);
+    }
+
+    /**
+     * Removes a frame change listener from this DCS-BIOS receiver.
+     *
+     * @param listener Listener which will no longer be notified of frame change events.
+     */
+    public void removeFrameChangeListener(DcsBiosFrameChangeListener listener) {
+        parser.removeFrameChangeListener(listener);
+    }
+
+    /**
+     * Sets notify changes only mode.  In this mode data listeners are only notified
+     * when a value differs from the last value delivered for that address.
+     *
+     * @param notifyChangesOnly True to only notify data listeners of changed values.
+     */
+    public void setNotifyChangesOnly(boolean notifyChangesOnly) {
+        parser.setNotifyChangesOnly(notifyChangesOnly);
+    }
+
+    /**
+     * Traffic metrics for this receiver and its parser.
+     *
+     * @return Metrics for this receiver.
+     */
+    public DcsBiosMetrics getMetrics() {
+        return parser.getMetrics();
+    }
+
+    /**
+     * Export memory image of the data received.  The image is published at the
+     * end of each complete frame and can be read from any thread.
+     *
+     * @return Export memory image for this receiver.
+     */
+    public DcsBiosExportImage getExportImage() {
+        return parser.getExportImage();
+    }
+
+    @Override
+    public synchronized void addStreamListener(DcsBiosStreamListener listener) {
+        streamListeners = ListenerArrays.add(streamListeners, listener);
+    }
+
+    @Override
+    public synchronized void removeStreamListener(DcsBiosStreamListener listener) {
+        streamListeners = ListenerArrays.remove(streamListeners, listener);
+        parser.getMetrics().listenerRemoved(listener);
+    }
+
+    /**
+     * Checks if any stream listeners are registered.  Implementations can use this to
+     * avoid copying data into a byte array when nobody needs it.
+     *
+     * @return True if at least one stream listener is registered.
+     */
+    protected boolean hasStreamListeners() {
+        return streamListeners.length > 0;
+    }
+
+    /**
+     * Helper method which notifies all stream listeners.
+     *
+     * @param data Buffer containing the raw stream data.
+     * @param offset Offset into the buffer where the data starts.
+     * @param length Number of bytes of stream data.
+     */
+    protected void notifyStreamListeners(byte[] data, int offset, int length) {
+        DcsBiosMetrics metrics = parser.getMetrics();
+        boolean timing = metrics.isListenerTimingEnabled();
+        for(DcsBiosStreamListener listener : streamListeners) {
+            long start = timing ? System.nanoTime() : 0;
+            try {
+                listener.dcsBiosStreamDataReceived(data, offset, length);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS packet handler %s.", listener.getClass().getName()), ex);
+            }
+            if (timing) {
+                metrics.listenerInvoked(listener, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Records a packet received from the network in the parser's metrics.  Must
+     * only be called from the thread receiving packets.
+     */
+    protected void packetReceived() {
+        parser.getMetrics().packetReceived();
+    }
+}
@@ -0,0 +1,57 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Set of export address ranges a consumer is interested in, such as the panels on
+ * one bus.  Ranges can be added at any time; readers always see a consistent set.
+ */
+public final class DcsBiosAddressFilter {
+
+    // One bit per data word, replaced rather than modified so the parser thread never needs a lock.
+    private volatile long[] words = new long[DcsBiosExportImage.SIZE / 128];
+    private volatile boolean empty = true;
+
+    /**
+     * Adds a range of addresses to the filter.
+     *
+     * @param startAddress First address in the range.
+     * @param endAddress Last address (inclusive) in the range.
+     */
+    public synchronized void addRange(int startAddress, int endAddress) {
+        if (startAddress < 0 || endAddress > 0xffff || startAddress > endAddress) {
+            throw new IllegalArgumentException(String.format("Invalid address range 0x%04x-0x%04x.", startAddress, endAddress));
+        }
+        long[] result = words.clone();
+        for (int word = startAddress >>> 1; word <= endAddress >>> 1; word++) {
+            result[word >>> 6] |= 1L << word;
+        }
+        words = result;
+        empty = false;
+    }
+
+    /**
+     * Checks if an address is inside one of the ranges.
+     *
+     * @param address Address to check.
+     * @return True if the address is in the filter.
+     */
+    public boolean contains(int address) {
+        return address >= 0 && address < DcsBiosExportImage.SIZE && (words[address >>> 7] & (1L << (address >>> 1))) != 0;
+    }
+
+    /**
+     * Checks if any ranges have been added.
+     *
+     * @return True if the filter does not contain any addresses.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Current word bitmap, bit n of element n / 64 is set when the word at address
+     * 2n is in the filter.  Must not be modified.
+     */
+    long[] getWords() {
+        return words;
+    }
+}
@@ -0,0 +1,362 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wraps data and sync listeners so they are called on their own executor instead of
+ * the receive thread.  Data written during a frame is queued and handed to the
+ * listeners in order once the frame sync arrives, followed by the sync call, so
+ * the wrapped listeners keep the usual consistency guarantees on their own thread.
+ *
+ * Each async listener has its own bounded queue of frames.  When the queue is full
+ * new frames are dropped.  In conflating mode there is no queue; frames which arrive
+ * while the listener is busy are merged so the listener receives the latest value
+ * of every address which changed, followed by a single sync call.
+ *
+ * By default each async listener gets a dedicated executor which uses virtual
+ * threads on JDKs which support them and a single daemon thread otherwise.
+ */
+public class DcsBiosAsyncListener implements DcsBiosDataListener, DcsBiosSyncListener {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosAsyncListener.class.getName());
+
+    /**
+     * Words written during one frame stored as address, value pairs.
+     */
+    private static final class Frame {
+        int[] words = new int[512];
+        int count = 0;
+        long timestamp;
+
+        void add(int address, int value) {
+            if (count + 2 > words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            words[count++] = address;
+            words[count++] = value;
+        }
+    }
+
+    /**
+     * Latest value of every address written over one or more frames.
+     */
+    private static final class ConflatedFrame {
+        final char[] values = new char[DcsBiosExportImage.SIZE];
+        final DcsBiosDirtyBitmap dirty = new DcsBiosDirtyBitmap();
+        int frames = 0;
+        long timestamp;
+    }
+
+    private final DcsBiosDataListener dataListener;
+    private final DcsBiosSyncListener syncListener;
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final int capacity;
+    private final boolean conflate;
+
+    // Only touched by the receive thread.
+    private Frame current = new Frame();
+
+    // Guarded by this.
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final ArrayDeque<Frame> pool = new ArrayDeque<>();
+    private ConflatedFrame pendingConflated;
+    private ConflatedFrame drainConflated;
+    private long committedFrames = 0;
+    private long deliveredFrames = 0;
+    private long droppedFrames = 0;
+    private long conflatedFrames = 0;
+
+    private volatile long lastLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drain;
+
+    /**
+     * Creates a new async listener with a dedicated executor.
+     *
+     * @param dataListener Data listener to call asynchronously, may be null.
+     * @param syncListener Sync listener to call asynchronously, may be null.
+     * @param capacity Maximum number of frames waiting to be delivered.
+     * @param conflate True to merge frames which arrive while the listener is busy.
+     */
+    public DcsBiosAsyncListener(DcsBiosDataListener dataListener, DcsBiosSyncListener syncListener, int capacity, boolean conflate) {
+        this(dataListener, syncListener, newExecutor(), true, capacity, conflate);
+    }
+
+    /**
+     * Creates a new async listener which runs on the given executor.  Delivery to the
+     * wrapped listeners is always serialized, even if the executor runs tasks concurrently.
+     *
+     * @param dataListener Data listener to call asynchronously, may be null.
+     * @param syncListener Sync listener to call asynchronously, may be null.
+     * @param executor Executor to deliver data on.
+     * @param capacity Maximum number of frames waiting to be delivered.
+     * @param conflate True to merge frames which arrive while the listener is busy.
+     */
+    public DcsBiosAsyncListener(DcsBiosDataListener dataListener, DcsBiosSyncListener syncListener, Executor executor, int capacity, boolean conflate) {
+        this(dataListener, syncListener, executor, false, capacity, conflate);
+    }
+
+    private DcsBiosAsyncListener(DcsBiosDataListener dataListener, DcsBiosSyncListener syncListener, Executor executor,
+                                 boolean ownsExecutor, int capacity, boolean conflate) {
+        if (dataListener == null && syncListener == null) {
+            throw new NullPointerException("Can't add null listener.");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.dataListener = dataListener;
+        this.syncListener = syncListener;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.capacity = capacity;
+        this.conflate = conflate;
+        if (conflate) {
+            pendingConflated = new ConflatedFrame();
+            drainConflated = new ConflatedFrame();
+        }
+    }
+
+    /**
+     * Creates an executor for delivering data.  Uses a virtual thread per task executor
+     * where the JDK provides one, otherwise a single daemon thread.
+     *
+     * @return New executor.
+     */
+    public static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DCS-BIOS Async Listener");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Registers this async listener with a receiver.
+     *
+     * @param receiver Receiver to listen to.
+     */
+    public void register(DcsBiosReceiver receiver) {
+        if (dataListener != null) {
+            receiver.addDataListener(this);
+        }
+        receiver.addSyncListener(this);
+    }
+
+    /**
+     * Removes this async listener from a receiver.
+     *
+     * @param receiver Receiver to stop listening to.
+     */
+    public void unregister(DcsBiosReceiver receiver) {
+        receiver.removeDataListener(this);
+        receiver.removeSyncListener(this);
+    }
+
+    /**
+     * Shuts down the executor if it was created by this async listener.  Frames which
+     * have not been delivered yet are discarded.
+     */
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService)executor).shutdownNow();
+        }
+    }
+
+    /**
+     * Number of frames received but not yet delivered to the wrapped listeners.
+     *
+     * @return Frame lag of this listener.
+     */
+    public synchronized long getFrameLag() {
+        return committedFrames - deliveredFrames - droppedFrames - conflatedFrames;
+    }
+
+    /**
+     * Number of frames dropped because the queue was full.
+     *
+     * @return Dropped frame count.
+     */
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Number of frames which were merged into a later frame in conflating mode.
+     *
+     * @return Conflated frame count.
+     */
+    public synchronized long getConflatedFrames() {
+        return conflatedFrames;
+    }
+
+    /**
+     * Time between the most recently delivered frame arriving and it being delivered.
+     *
+     * @return Latency in nanoseconds.
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Largest time between a frame arriving and it being delivered.
+     *
+     * @return Latency in nanoseconds.
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    @Override
+    public void dcsBiosDataWritten(int address, int data) {
+        if (dataListener != null) {
+            current.add(address, data);
+        }
+    }
+
+    @Override
+    public void dcsBiosFrameSyncReceived() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            committedFrames++;
+            if (conflate) {
+                if (pendingConflated.frames == 0) {
+                    pendingConflated.timestamp = now;
+                }
+                else {
+                    conflatedFrames++;
+                }
+                pendingConflated.frames++;
+                for (int i = 0; i < current.count; i += 2) {
+                    int address = current.words[i];
+                    if (address < DcsBiosExportImage.SIZE) {
+                        pendingConflated.values[address] = (char)current.words[i + 1];
+                        pendingConflated.dirty.set(address);
+                    }
+                }
+                current.count = 0;
+            }
+            else if (queue.size() < capacity) {
+                current.timestamp = now;
+                queue.add(current);
+                current = pool.isEmpty() ? new Frame() : pool.poll();
+                current.count = 0;
+            }
+            else {
+                droppedFrames++;
+                current.count = 0;
+            }
+        }
+
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Delivers queued frames until the queue is empty.  Only one drain runs at a time.
+     */
+    private void drain() {
+        while (true) {
+            if (conflate) {
+                if (!drainConflatedFrame()) {
+                    return;
+                }
+            }
+            else if (!drainFrame()) {
+                return;
+            }
+        }
+    }
+
+    private boolean drainFrame() {
+        Frame frame;
+        synchronized (this) {
+            frame = queue.poll();
+            if (frame == null) {
+                scheduled.set(false);
+                return false;
+            }
+        }
+
+        for (int i = 0; i < frame.count; i += 2) {
+            notifyDataListener(frame.words[i], frame.words[i + 1]);
+        }
+        notifySyncListener();
+        recordDelivery(frame.timestamp);
+
+        synchronized (this) {
+            deliveredFrames++;
+            pool.add(frame);
+        }
+        return true;
+    }
+
+    private boolean drainConflatedFrame() {
+        ConflatedFrame frame;
+        synchronized (this) {
+            if (pendingConflated.frames == 0) {
+                scheduled.set(false);
+                return false;
+            }
+            frame = pendingConflated;
+            pendingConflated = drainConflated;
+            drainConflated = frame;
+        }
+
+        for (int address = frame.dirty.nextDirtyAddress(0); address >= 0; address = frame.dirty.nextDirtyAddress(address + 1)) {
+            notifyDataListener(address, frame.values[address]);
+        }
+        notifySyncListener();
+        recordDelivery(frame.timestamp);
+
+        frame.dirty.clear();
+        frame.frames = 0;
+        synchronized (this) {
+            deliveredFrames++;
+        }
+        return true;
+    }
+
+    private void recordDelivery(long timestamp) {
+        long latency = System.nanoTime() - timestamp;
+        lastLatencyNanos = latency;
+        if (latency > maxLatencyNanos) {
+            maxLatencyNanos = latency;
+        }
+    }
+
+    private void notifyDataListener(int address, int value) {
+        try {
+            dataListener.dcsBiosDataWritten(address, value);
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS data handler %s.", dataListener.getClass().getName()), ex);
+        }
+    }
+
+    private void notifySyncListener() {
+        if (syncListener != null) {
+            try {
+                syncListener.dcsBiosFrameSyncReceived();
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS sync handler %s.", syncListener.getClass().getName()), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Interface for objects which listen to whole write blocks from the DCS-BIOS protocol.
+ * A write block is a run of consecutive data words starting at an address.  All
+ * DcsBiosBlockListener calls will be from the same thread, but will not be the same
+ * thread that created the object.  Block listeners receive every write even when
+ * the parser is in notify changes only mode.
+ */
+public interface DcsBiosBlockListener {
+
+    /**
+     * Called when a write block has been read from the DCS-BIOS data stream.  The
+     * values array is reused by the parser and is only valid during this call.
+     *
+     * @param startAddress Address of the first data word in the block.
+     * @param values Array containing the unsigned 16 bit data words.
+     * @param offset Offset into values of the first data word.
+     * @param count Number of data words in the block.
+     */
+    void dcsBiosBlockWritten(int startAddress, int[] values, int offset, int count);
+}
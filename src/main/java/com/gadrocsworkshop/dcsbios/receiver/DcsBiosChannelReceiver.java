@@ -0,0 +1,287 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receiver which listens for DCS-BIOS UDP packets using a non-blocking DatagramChannel.
+ * Packets are received into a direct buffer and fed straight to the parser.  The
+ * channel is opened on start and closed on stop, so the receiver can be stopped and
+ * restarted any number of times without waiting for a socket timeout.
+ */
+public class DcsBiosChannelReceiver extends AbstractDcsBiosReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosChannelReceiver.class.getName());
+
+    private static final int MAX_PACKET_SIZE = 0x10000;
+
+    private final InetAddress groupAddress;
+    private final int port;
+
+    private NetworkInterface networkInterface;
+    private int receiveBufferSize = 0;
+    private volatile int dcsPort = 7778;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    private byte[] streamBuffer;
+    private final ByteBuffer commandBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+    private volatile boolean running = false;
+    private volatile DatagramChannel channel;
+    private volatile InetAddress dcsAddress = null;
+    private volatile InetSocketAddress commandAddress = null;
+    private Selector selector;
+    private Thread thread;
+
+    /**
+     * Creates a new receiver with the default DCS-BIOS group and port addresses.
+     *
+     * @throws IOException Thrown if the default group address can not be resolved.
+     */
+    public DcsBiosChannelReceiver() throws IOException {
+        this("239.255.50.10", 5010);
+    }
+
+    /**
+     * Creates a new receiver which listens only for packets sent to this computer
+     * on the designated port.
+     *
+     * @param port Port to listen on for DCS-BIOS packets.
+     */
+    public DcsBiosChannelReceiver(int port) {
+        this.groupAddress = null;
+        this.port = port;
+    }
+
+    /**
+     * Creates a new receiver.
+     *
+     * @param groupAddress Multicast group address we should listen on.
+     *                     If null or empty will only listen for packets sent directly to this computer.
+     * @param port Port to listen on for DCS-BIOS packets.
+     * @throws IOException Thrown if the group address can not be resolved.
+     */
+    public DcsBiosChannelReceiver(String groupAddress, int port) throws IOException {
+        if (groupAddress == null || groupAddress.trim().isEmpty()) {
+            this.groupAddress = null;
+        }
+        else {
+            this.groupAddress = InetAddress.getByName(groupAddress);
+        }
+        this.port = port;
+    }
+
+    /**
+     * Sets the network interface used to join the multicast group.  Takes effect on the next start.
+     *
+     * @param networkInterface Interface to join the group on, null to let the operating system choose.
+     */
+    public synchronized void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    /**
+     * Sets the SO_RCVBUF size of the channel.  Takes effect on the next start.
+     *
+     * @param receiveBufferSize Size in bytes of the socket receive buffer, zero to use the system default.
+     */
+    public synchronized void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Address of the DCS-BIOS server we are receiving packets from.
+     *
+     * @return InetAddress object containing address of the DCS-BIOS server. Null if we have not received any packets yet.
+     */
+    public InetAddress getDcsAddress() {
+        return dcsAddress;
+    }
+
+    /**
+     * Port which commands are sent to DCS-BIOS on.
+     *
+     * @return Port number used to send DCS-BIOS commands to.
+     */
+    public int getDcsPort() {
+        return dcsPort;
+    }
+
+    /**
+     * Sets port number which commands will be sent to DCS-BIOS on.
+     *
+     * @param dcsPort Port number used to send DCS-BIOS commands to.
+     */
+    public void setDcsPort(int dcsPort) {
+        this.dcsPort = dcsPort;
+        InetAddress address = dcsAddress;
+        commandAddress = address != null ? new InetSocketAddress(address, dcsPort) : null;
+    }
+
+    /**
+     * Checks to see if the receiver is running and processing data.
+     *
+     * @return True if the receiver is running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public void start() {
+        // A thread which is still stopping closes the channel when it exits.
+        awaitStopped();
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            try {
+                channel = DcsBiosChannels.open(groupAddress, port, networkInterface, receiveBufferSize);
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                closeChannel();
+                throw new UncheckedIOException("Error opening DCS-BIOS channel.", e);
+            }
+
+            running = true;
+            thread = new Thread(this::run, "DCS-BIOS Channel Receiver");
+            thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            selector.wakeup();
+        }
+        awaitStopped();
+    }
+
+    @Override
+    public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        trySendCommand(buffer, offset, length);
+    }
+
+    @Override
+    public boolean trySendCommand(byte[] buffer, int offset, int length) throws IOException {
+        DatagramChannel c = channel;
+        InetSocketAddress target = commandAddress;
+        if (running && target != null && c != null) {
+            synchronized (commandBuffer) {
+                commandBuffer.clear();
+                commandBuffer.put(buffer, offset, length);
+                commandBuffer.flip();
+                c.send(commandBuffer, target);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run loop for receiving packets.
+     */
+    private void run() {
+        LOGGER.fine("Entering packet reading loop.");
+        try {
+            while (running) {
+                selector.select();
+                selector.selectedKeys().clear();
+                if (running) {
+                    readPackets();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error receiving packet from DCS Bios. Shutting down listener.", e);
+            running = false;
+        }
+        LOGGER.fine("Exiting packet reading loop.");
+        closeChannel();
+    }
+
+    /**
+     * Reads and processes all packets waiting on the channel.
+     */
+    private void readPackets() throws IOException {
+        while (running) {
+            buffer.clear();
+            SocketAddress source = channel.receive(buffer);
+            if (source == null) {
+                return;
+            }
+            buffer.flip();
+            packetReceived();
+            updateDcsAddress(source);
+
+            if (hasStreamListeners()) {
+                // Stream listeners need an array, parse that copy rather than copying again.
+                if (streamBuffer == null) {
+                    streamBuffer = new byte[MAX_PACKET_SIZE];
+                }
+                int length = buffer.remaining();
+                buffer.get(streamBuffer, 0, length);
+                getParser().processData(streamBuffer, 0, length);
+                notifyStreamListeners(streamBuffer, 0, length);
+            }
+            else {
+                getParser().processData(buffer);
+            }
+        }
+    }
+
+    private void updateDcsAddress(SocketAddress source) {
+        if (source instanceof InetSocketAddress) {
+            InetAddress address = ((InetSocketAddress)source).getAddress();
+            if (!address.equals(dcsAddress)) {
+                dcsAddress = address;
+                commandAddress = new InetSocketAddress(address, dcsPort);
+            }
+        }
+    }
+
+    /**
+     * Waits for a stopped receive thread to exit.  Called without holding the lock so
+     * listeners on the receive thread can still call synchronized methods.
+     */
+    private void awaitStopped() {
+        Thread t;
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            t = thread;
+        }
+        if (t != null && Thread.currentThread() != t) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing DCS-BIOS channel.", e);
+        }
+    }
+}
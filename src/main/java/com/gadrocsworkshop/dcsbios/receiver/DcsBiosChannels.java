@@ -0,0 +1,68 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Logger;
+
+/**
+ * Helpers for opening non-blocking DatagramChannels for DCS-BIOS streams.
+ */
+final class DcsBiosChannels {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosChannels.class.getName());
+
+    private DcsBiosChannels() {
+    }
+
+    /**
+     * Opens a non-blocking channel bound to a port and optionally joined to a multicast group.
+     *
+     * @param groupAddress Multicast group to join, null to only receive packets sent to this computer.
+     * @param port Port to bind to.
+     * @param networkInterface Interface to join the group on, null to use the interface the operating system routes the group to.
+     * @param receiveBufferSize SO_RCVBUF size, zero to use the system default.
+     * @return Configured channel.
+     * @throws IOException Thrown if the channel can not be opened or configured.
+     */
+    static DatagramChannel open(InetAddress groupAddress, int port, NetworkInterface networkInterface, int receiveBufferSize) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(new InetSocketAddress(port));
+            if (groupAddress != null) {
+                NetworkInterface joinInterface = networkInterface != null ? networkInterface : findDefaultInterface(groupAddress, port);
+                channel.join(groupAddress, joinInterface);
+                LOGGER.fine(String.format("DatagramChannel joined to group address on %s.", joinInterface.getName()));
+            }
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Finds the interface the operating system would use for the group, which is the
+     * interface a MulticastSocket joins on when no interface is given.  The route is
+     * looked up by connecting an unbound datagram socket, nothing is sent.
+     */
+    private static NetworkInterface findDefaultInterface(InetAddress groupAddress, int port) throws IOException {
+        NetworkInterface result = null;
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(groupAddress, port);
+            InetAddress local = probe.getLocalAddress();
+            if (local != null && !local.isAnyLocalAddress()) {
+                result = NetworkInterface.getByInetAddress(local);
+            }
+        }
+        if (result == null) {
+            throw new SocketException(String.format("No route to multicast group %s, set a network interface.", groupAddress.getHostAddress()));
+        }
+        return result;
+    }
+}
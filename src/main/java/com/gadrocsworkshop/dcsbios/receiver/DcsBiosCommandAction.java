@@ -0,0 +1,49 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Actions which can be sent to a DCS-BIOS input control.
+ */
+public enum DcsBiosCommandAction {
+
+    /**
+     * Sets the control to an absolute state or position given by the argument.
+     */
+    SET_STATE(null),
+
+    /**
+     * Moves the control by a signed amount given by the argument.
+     */
+    VARIABLE_STEP(null),
+
+    /**
+     * Moves the control to its next state.
+     */
+    INC("INC"),
+
+    /**
+     * Moves the control to its previous state.
+     */
+    DEC("DEC"),
+
+    /**
+     * Toggles a two state control.
+     */
+    TOGGLE("TOGGLE");
+
+    private final byte[] keyword;
+
+    DcsBiosCommandAction(String keyword) {
+        this.keyword = keyword != null ? keyword.getBytes(StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * Keyword sent for this action.
+     *
+     * @return Encoded keyword, null if the action sends its numeric argument.
+     */
+    byte[] getKeyword() {
+        return keyword;
+    }
+}
@@ -0,0 +1,444 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends commands to DCS-BIOS from a background thread.  Commands are queued by one
+ * or more DcsBiosCommandSources and, after waiting a short coalescing window, packed
+ * into as few newline separated datagrams as possible.  Sources are served round
+ * robin one command at a time so a busy source can not starve the others.
+ * <p>
+ * Controls such as rotary encoders and potentiometers can be given a conflation
+ * window.  Commands for those controls are held for the window and merged: only
+ * the latest SET_STATE value is sent, INC and DEC are reduced to their net count
+ * and VARIABLE_STEP arguments are summed.
+ * <p>
+ * Futures returned for queued commands complete once the datagram containing them
+ * has been sent, so they do not complete before the sender has been started.  They
+ * complete exceptionally if the datagram could not be sent, including when the
+ * receiver has not yet heard from DCS-BIOS.
+ */
+public class DcsBiosCommandSender {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosCommandSender.class.getName());
+
+    /**
+     * Futures of the commands packed into one datagram.
+     */
+    static final class Batch {
+        private final CompletableFuture<?>[] futures;
+        private int count = 0;
+
+        Batch(int capacity) {
+            futures = new CompletableFuture<?>[capacity];
+        }
+
+        void add(CompletableFuture<?> future) {
+            if (future != null) {
+                futures[count++] = future;
+            }
+        }
+
+        void complete(IOException error) {
+            for (int i = 0; i < count; i++) {
+                if (error == null) {
+                    futures[i].complete(null);
+                }
+                else {
+                    futures[i].completeExceptionally(error);
+                }
+                futures[i] = null;
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Conflation window configured for a control.
+     */
+    static final class ConflationWindow {
+        private final DcsBiosControl control;
+        private final long nanos;
+
+        ConflationWindow(DcsBiosControl control, long nanos) {
+            this.control = control;
+            this.nanos = nanos;
+        }
+
+        DcsBiosControl getControl() {
+            return control;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+    }
+
+    private final DcsBiosReceiver receiver;
+    private final DcsBiosCommandSource defaultSource;
+
+    private volatile DcsBiosCommandSource[] sources = new DcsBiosCommandSource[0];
+    private volatile ConflationWindow[] conflationWindows = new ConflationWindow[0];
+    private volatile long windowNanos = TimeUnit.MILLISECONDS.toNanos(2);
+    private volatile int maxDatagramSize = 1024;
+    private int queueCapacity = 256;
+
+    private volatile boolean running = false;
+    private volatile boolean pending = false;
+    private volatile Thread thread;
+    private int nextSource = 0;
+
+    private volatile long datagramCount = 0;
+    private volatile long commandCount = 0;
+
+    /**
+     * Creates a new command sender.
+     *
+     * @param receiver Receiver used to send datagrams to DCS-BIOS.
+     */
+    public DcsBiosCommandSender(DcsBiosReceiver receiver) {
+        this.receiver = receiver;
+        this.defaultSource = createSource("default");
+    }
+
+    /**
+     * Creates a new source of commands.  Each source has its own queue and is served
+     * fairly with the other sources.
+     *
+     * @param name Name of the source used for diagnostics.
+     * @return New command source.
+     */
+    public synchronized DcsBiosCommandSource createSource(String name) {
+        DcsBiosCommandSource source = new DcsBiosCommandSource(this, name, queueCapacity);
+        sources = ListenerArrays.add(sources, source);
+        return source;
+    }
+
+    /**
+     * Removes a command source.  Commands still queued on the source are not sent,
+     * their futures complete exceptionally, and the source accepts no more commands.
+     *
+     * @param source Source to remove.
+     */
+    public void removeSource(DcsBiosCommandSource source) {
+        synchronized (this) {
+            DcsBiosCommandSource[] current = sources;
+            sources = ListenerArrays.remove(current, source);
+            if (sources == current) {
+                return;
+            }
+        }
+        source.removed();
+    }
+
+    /**
+     * Source used by the send and post convenience methods on this sender.
+     *
+     * @return Default command source.
+     */
+    public DcsBiosCommandSource getDefaultSource() {
+        return defaultSource;
+    }
+
+    /**
+     * Queues a command on the default source.
+     *
+     * @param control Control to send the command to.
+     * @param action Action to send.
+     * @param argument Argument for SET_STATE and VARIABLE_STEP, ignored for other actions.
+     * @return Future which completes when the datagram containing the command has been
+     *         sent, never before the sender is started.
+     */
+    public CompletableFuture<Void> send(DcsBiosControl control, DcsBiosCommandAction action, int argument) {
+        return defaultSource.send(control, action, argument);
+    }
+
+    /**
+     * Queues a command on the default source without tracking completion.
+     *
+     * @param control Control to send the command to.
+     * @param action Action to send.
+     * @param argument Argument for SET_STATE and VARIABLE_STEP, ignored for other actions.
+     * @return True if the command was queued, false if the queue is full.
+     */
+    public boolean post(DcsBiosControl control, DcsBiosCommandAction action, int argument) {
+        return defaultSource.post(control, action, argument);
+    }
+
+    /**
+     * Sets how long the sender waits after the first queued command for more
+     * commands to pack into the same datagram.
+     *
+     * @param window Coalescing window, zero to send as soon as possible.
+     * @param unit Unit of window.
+     */
+    public void setCoalescingWindow(long window, TimeUnit unit) {
+        this.windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Sets the conflation window for a control.  Commands for the control are held
+     * for the window after the first one and merged with any that follow.
+     *
+     * @param control Control to conflate.
+     * @param window Conflation window, zero to send every command.
+     * @param unit Unit of window.
+     */
+    public synchronized void setConflationWindow(DcsBiosControl control, long window, TimeUnit unit) {
+        ConflationWindow[] current = conflationWindows;
+        ConflationWindow existing = findConflationWindow(control);
+        if (existing != null) {
+            current = ListenerArrays.remove(current, existing);
+        }
+        if (window > 0) {
+            current = ListenerArrays.add(current, new ConflationWindow(control, unit.toNanos(window)));
+        }
+        conflationWindows = current;
+    }
+
+    /**
+     * Number of commands which were not sent because conflation merged them into
+     * another command.
+     *
+     * @return Suppressed command count across all sources.
+     */
+    public long getSuppressedCount() {
+        long total = 0;
+        for (DcsBiosCommandSource source : sources) {
+            total += source.getSuppressedCount();
+        }
+        return total;
+    }
+
+    /**
+     * Sets the largest datagram the sender will build.  Takes effect on the next start.
+     *
+     * @param maxDatagramSize Maximum datagram size in bytes.
+     */
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        if (maxDatagramSize < DcsBiosControl.MAX_COMMAND_LENGTH) {
+            throw new IllegalArgumentException(String.format("Datagram size must be at least %d bytes.", DcsBiosControl.MAX_COMMAND_LENGTH));
+        }
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    /**
+     * Sets the number of commands each source created after this call can queue.
+     *
+     * @param queueCapacity Maximum number of queued commands per source.
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Number of datagrams sent.
+     *
+     * @return Datagram count.
+     */
+    public long getDatagramCount() {
+        return datagramCount;
+    }
+
+    /**
+     * Number of commands sent.
+     *
+     * @return Command count.
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Starts the background sender thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "DCS-BIOS Command Sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background sender thread after sending any queued commands.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Called by sources when a command has been queued.
+     */
+    void commandQueued() {
+        if (!pending) {
+            pending = true;
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Finds the conflation window for a control.
+     *
+     * @return Conflation window, or null if the control is not conflated.
+     */
+    ConflationWindow findConflationWindow(DcsBiosControl control) {
+        for (ConflationWindow window : conflationWindows) {
+            if (window.control.equals(control)) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the conflation window for an encoded control name.
+     *
+     * @return Conflation window, or null if the control is not conflated.
+     */
+    ConflationWindow findConflationWindow(byte[] buffer, int offset, int length) {
+        for (ConflationWindow window : conflationWindows) {
+            byte[] name = window.control.getNameBytes();
+            if (name.length == length && regionMatches(name, buffer, offset)) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionMatches(byte[] name, byte[] buffer, int offset) {
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void run() {
+        byte[] datagram = new byte[maxDatagramSize];
+        Batch batch = new Batch(datagram.length / 2);
+
+        LOGGER.fine("Entering command sending loop.");
+        while (true) {
+            long now = System.nanoTime();
+            long nextRelease = releaseConflated(now, !running);
+            if (!pending) {
+                if (nextRelease != Long.MAX_VALUE) {
+                    LockSupport.parkNanos(this, nextRelease - now);
+                }
+                else if (running) {
+                    LockSupport.park(this);
+                }
+                else {
+                    break;
+                }
+                continue;
+            }
+
+            long window = windowNanos;
+            if (window > 0 && running) {
+                long deadline = System.nanoTime() + window;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0 && running) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+
+            pending = false;
+            sendQueued(datagram, batch);
+        }
+        LOGGER.fine("Exiting command sending loop.");
+    }
+
+    /**
+     * Releases conflated commands whose window has closed.
+     *
+     * @return Earliest deadline of the commands still held, Long.MAX_VALUE if none.
+     */
+    private long releaseConflated(long now, boolean force) {
+        long next = Long.MAX_VALUE;
+        for (DcsBiosCommandSource source : sources) {
+            long deadline = source.releaseConflated(now, force);
+            if (deadline != Long.MAX_VALUE && (next == Long.MAX_VALUE || deadline - next < 0)) {
+                next = deadline;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Packs all queued commands into datagrams and sends them.
+     */
+    private void sendQueued(byte[] datagram, Batch batch) {
+        DcsBiosCommandSource[] current = sources;
+        int position = 0;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < current.length; i++) {
+                DcsBiosCommandSource source = current[(nextSource + i) % current.length];
+                int next = source.take(datagram, position, datagram.length, batch);
+                if (next == position && source.size() > 0) {
+                    // Datagram is full, send it and retry this source.
+                    position = send(datagram, position, batch);
+                    next = source.take(datagram, position, datagram.length, batch);
+                }
+                if (next != position) {
+                    progress = true;
+                    commandCount++;
+                }
+                position = next;
+            }
+        }
+        send(datagram, position, batch);
+
+        // Rotate which source goes first so no source is always ahead of the others.
+        nextSource = current.length > 0 ? (nextSource + 1) % current.length : 0;
+    }
+
+    private int send(byte[] datagram, int length, Batch batch) {
+        if (length == 0) {
+            return 0;
+        }
+        IOException error = null;
+        try {
+            if (receiver.trySendCommand(datagram, 0, length)) {
+                datagramCount++;
+            }
+            else {
+                LOGGER.fine("DCS-BIOS is not connected, dropping commands.");
+                error = new IOException("DCS-BIOS is not connected, command was not sent.");
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending command to DCS-BIOS.", e);
+            error = e;
+        }
+        batch.complete(error);
+        return 0;
+    }
+}
@@ -0,0 +1,481 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queue of commands from one source, such as a panel or a bus controller, waiting
+ * to be sent by a DcsBiosCommandSender.  Commands from one source are sent in the
+ * order they were queued, except commands for controls with a conflation window
+ * which are held back and merged for the length of the window.  All methods are
+ * thread safe.
+ */
+public class DcsBiosCommandSource {
+
+    /**
+     * Commands for one conflated control waiting for their window to close.
+     */
+    private static final class PendingCommand {
+        private final DcsBiosControl control;
+        private boolean pending;
+        private DcsBiosCommandAction action;
+        private long value;
+        private int count;
+        private long deadline;
+        private CompletableFuture<Void> future;
+
+        PendingCommand(DcsBiosControl control) {
+            this.control = control;
+        }
+    }
+
+    // Returned internally when an untracked command was queued.
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final DcsBiosCommandSender sender;
+    private final String name;
+
+    private final byte[] commands;
+    private final int[] lengths;
+    private final CompletableFuture<?>[] futures;
+
+    private final Map<DcsBiosControl, PendingCommand> conflated = new HashMap<>();
+    private final List<PendingCommand> pendingCommands = new ArrayList<>();
+
+    private int head = 0;
+    private int count = 0;
+    private boolean removed = false;
+    private long rejectedCount = 0;
+    private long suppressedCount = 0;
+
+    DcsBiosCommandSource(DcsBiosCommandSender sender, String name, int capacity) {
+        this.sender = sender;
+        this.name = name;
+        this.commands = new byte[capacity * DcsBiosControl.MAX_COMMAND_LENGTH];
+        this.lengths = new int[capacity];
+        this.futures = new CompletableFuture<?>[capacity];
+    }
+
+    /**
+     * Name of this source.
+     *
+     * @return Source name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Queues a command without tracking completion.  Does not allocate once the
+     * control has been used.
+     *
+     * @param control Control to send the command to.
+     * @param action Action to send.
+     * @param argument Argument for SET_STATE and VARIABLE_STEP, ignored for other actions.
+     * @return True if the command was queued, false if the queue is full or the
+     *         source has been removed.
+     */
+    public boolean post(DcsBiosControl control, DcsBiosCommandAction action, int argument) {
+        boolean queued;
+        synchronized (this) {
+            queued = !removed && queue(sender.findConflationWindow(control), control, action, argument, false) != null;
+        }
+        if (queued) {
+            sender.commandQueued();
+        }
+        return queued;
+    }
+
+    /**
+     * Queues a command.  Commands merged by conflation share one future.
+     *
+     * @param control Control to send the command to.
+     * @param action Action to send.
+     * @param argument Argument for SET_STATE and VARIABLE_STEP, ignored for other actions.
+     * @return Future which completes when the datagram containing the command has been
+     *         sent, never before the sender is started.
+     */
+    public CompletableFuture<Void> send(DcsBiosControl control, DcsBiosCommandAction action, int argument) {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            if (removed) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(removedException());
+                return future;
+            }
+            future = queue(sender.findConflationWindow(control), control, action, argument, true);
+        }
+        if (future == null) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Command queue is full."));
+            return future;
+        }
+        sender.commandQueued();
+        return future;
+    }
+
+    /**
+     * Queues an already encoded command.  A trailing newline is added if missing.
+     * Commands in the form "NAME ARGUMENT" for controls with a conflation window
+     * are conflated like typed commands.  Does not allocate once the control has
+     * been used.
+     *
+     * @param buffer Buffer containing the command.
+     * @param offset Offset into the buffer where the command starts.
+     * @param length Number of bytes in the command.
+     * @return True if the command was queued, false if the queue is full or the
+     *         source has been removed.
+     */
+    public boolean post(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return true;
+        }
+        int textLength = buffer[offset + length - 1] == '\n' ? length - 1 : length;
+        if (textLength + 1 > DcsBiosControl.MAX_COMMAND_LENGTH) {
+            throw new IllegalArgumentException(String.format("Command of %d bytes is too long.", length));
+        }
+
+        boolean queued;
+        synchronized (this) {
+            queued = !removed && queueRaw(buffer, offset, textLength);
+        }
+        if (queued) {
+            sender.commandQueued();
+        }
+        return queued;
+    }
+
+    /**
+     * Number of commands waiting to be sent, not counting commands held for conflation.
+     *
+     * @return Queue depth.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Number of commands rejected because the queue was full.
+     *
+     * @return Rejected command count.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Number of commands which were not sent because conflation merged them
+     * into another command.
+     *
+     * @return Suppressed command count.
+     */
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Called by the sender when this source is removed.  Commands still queued or
+     * held for conflation will never be sent, so their futures fail.
+     */
+    synchronized void removed() {
+        removed = true;
+        IllegalStateException error = removedException();
+        for (; count > 0; count--) {
+            CompletableFuture<?> future = futures[head];
+            if (future != null) {
+                future.completeExceptionally(error);
+                futures[head] = null;
+            }
+            head = (head + 1) % lengths.length;
+        }
+        for (PendingCommand command : pendingCommands) {
+            if (command.future != null) {
+                command.future.completeExceptionally(error);
+                command.future = null;
+            }
+            command.pending = false;
+        }
+        pendingCommands.clear();
+    }
+
+    private IllegalStateException removedException() {
+        return new IllegalStateException(String.format("Command source '%s' has been removed.", name));
+    }
+
+    private boolean queueRaw(byte[] buffer, int offset, int length) {
+        int space = offset;
+        int end = offset + length;
+        while (space < end && buffer[space] != ' ') {
+            space++;
+        }
+
+        if (space < end) {
+            DcsBiosCommandSender.ConflationWindow window = sender.findConflationWindow(buffer, offset, space - offset);
+            if (window != null) {
+                DcsBiosCommandAction action = parseAction(buffer, space + 1, end);
+                if (action != null && action != DcsBiosCommandAction.TOGGLE) {
+                    int argument = parseArgument(buffer, space + 1, end);
+                    return queue(window, window.getControl(), action, argument, false) != null;
+                }
+                // Keep commands for the control in order.
+                if (!release(conflated.get(window.getControl()))) {
+                    rejectedCount++;
+                    return false;
+                }
+            }
+        }
+
+        int slot = reserve(1);
+        if (slot < 0) {
+            rejectedCount++;
+            return false;
+        }
+        int start = slot * DcsBiosControl.MAX_COMMAND_LENGTH;
+        System.arraycopy(buffer, offset, commands, start, length);
+        commands[start + length] = '\n';
+        commit(slot, length + 1, null);
+        return true;
+    }
+
+    private CompletableFuture<Void> queue(DcsBiosCommandSender.ConflationWindow window, DcsBiosControl control,
+                                          DcsBiosCommandAction action, int argument, boolean track) {
+        if (window == null || action == DcsBiosCommandAction.TOGGLE) {
+            if (window != null && !release(conflated.get(control))) {
+                rejectedCount++;
+                return null;
+            }
+            int slot = reserve(1);
+            if (slot < 0) {
+                rejectedCount++;
+                return null;
+            }
+            CompletableFuture<Void> future = track ? new CompletableFuture<>() : null;
+            commit(slot, control.encode(action, argument, commands, slot * DcsBiosControl.MAX_COMMAND_LENGTH), future);
+            return future != null ? future : COMPLETED;
+        }
+
+        PendingCommand command = conflated.get(control);
+        if (command == null) {
+            command = new PendingCommand(control);
+            conflated.put(control, command);
+        }
+
+        DcsBiosCommandAction kind = action == DcsBiosCommandAction.DEC ? DcsBiosCommandAction.INC : action;
+        if (command.pending && command.action != kind) {
+            // Switching between absolute and relative commands, send what is pending first.
+            if (!release(command)) {
+                rejectedCount++;
+                return null;
+            }
+        }
+        if (!command.pending) {
+            command.pending = true;
+            command.action = kind;
+            command.value = 0;
+            command.count = 0;
+            command.deadline = System.nanoTime() + window.getNanos();
+            pendingCommands.add(command);
+        }
+
+        switch (action) {
+            case SET_STATE:
+                command.value = argument;
+                break;
+            case VARIABLE_STEP:
+                command.value += argument;
+                break;
+            case INC:
+                command.value++;
+                break;
+            case DEC:
+                command.value--;
+                break;
+        }
+        command.count++;
+
+        if (track) {
+            if (command.future == null) {
+                command.future = new CompletableFuture<>();
+            }
+            return command.future;
+        }
+        return COMPLETED;
+    }
+
+    /**
+     * Moves conflated commands whose window has closed onto the queue.
+     *
+     * @param now Current time from System.nanoTime().
+     * @param force True to release all conflated commands regardless of their window.
+     * @return Earliest deadline of the commands still held, Long.MAX_VALUE if none.
+     */
+    synchronized long releaseConflated(long now, boolean force) {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < pendingCommands.size(); i++) {
+            PendingCommand command = pendingCommands.get(i);
+            if (force || command.deadline - now <= 0) {
+                if (release(command)) {
+                    i--;
+                    continue;
+                }
+            }
+            if (next == Long.MAX_VALUE || command.deadline - next < 0) {
+                next = command.deadline;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Moves a conflated command onto the queue.  A net INC or DEC count is sent as
+     * that many INC or DEC commands, as many as fit now with the rest left pending.
+     *
+     * @return True if the command was released, false if the queue did not have room
+     *         for all of it.
+     */
+    private boolean release(PendingCommand command) {
+        if (command == null || !command.pending) {
+            return true;
+        }
+
+        DcsBiosCommandAction action = command.action;
+        int repeat = 1;
+        long remaining = 1;
+        int argument = (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, command.value));
+        if (action == DcsBiosCommandAction.INC) {
+            remaining = Math.abs(command.value);
+            repeat = (int)Math.min(remaining, lengths.length - count);
+            action = command.value < 0 ? DcsBiosCommandAction.DEC : DcsBiosCommandAction.INC;
+        }
+        else if (action == DcsBiosCommandAction.VARIABLE_STEP && argument == 0) {
+            repeat = 0;
+            remaining = 0;
+        }
+
+        if (remaining > 0 && (repeat == 0 || reserve(repeat) < 0)) {
+            return false;
+        }
+        boolean complete = repeat == remaining;
+        for (int i = 0; i < repeat; i++) {
+            int slot = reserve(1);
+            int length = command.control.encode(action, argument, commands, slot * DcsBiosControl.MAX_COMMAND_LENGTH);
+            commit(slot, length, complete && i == repeat - 1 ? command.future : null);
+        }
+        if (repeat > 0) {
+            sender.commandQueued();
+        }
+        if (!complete) {
+            // Queue is full, the rest of the steps go once there is room.
+            command.value += action == DcsBiosCommandAction.DEC ? repeat : -repeat;
+            command.count -= repeat;
+            return false;
+        }
+        if (repeat == 0 && command.future != null) {
+            command.future.complete(null);
+        }
+
+        suppressedCount += command.count - repeat;
+        command.pending = false;
+        command.future = null;
+        pendingCommands.remove(command);
+        return true;
+    }
+
+    private static DcsBiosCommandAction parseAction(byte[] buffer, int start, int end) {
+        if (matches(buffer, start, end, DcsBiosCommandAction.INC)) {
+            return DcsBiosCommandAction.INC;
+        }
+        if (matches(buffer, start, end, DcsBiosCommandAction.DEC)) {
+            return DcsBiosCommandAction.DEC;
+        }
+        if (matches(buffer, start, end, DcsBiosCommandAction.TOGGLE)) {
+            return DcsBiosCommandAction.TOGGLE;
+        }
+
+        int position = start;
+        DcsBiosCommandAction action = DcsBiosCommandAction.SET_STATE;
+        if (position < end && (buffer[position] == '+' || buffer[position] == '-')) {
+            action = DcsBiosCommandAction.VARIABLE_STEP;
+            position++;
+        }
+        if (position == end || end - position > 9) {
+            return null;
+        }
+        for (; position < end; position++) {
+            if (buffer[position] < '0' || buffer[position] > '9') {
+                return null;
+            }
+        }
+        return action;
+    }
+
+    private static boolean matches(byte[] buffer, int start, int end, DcsBiosCommandAction action) {
+        byte[] keyword = action.getKeyword();
+        if (end - start != keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; i++) {
+            if (buffer[start + i] != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseArgument(byte[] buffer, int start, int end) {
+        boolean negative = buffer[start] == '-';
+        int position = buffer[start] == '+' || negative ? start + 1 : start;
+        int value = 0;
+        for (; position < end; position++) {
+            int digit = buffer[position] - '0';
+            if (digit < 0 || digit > 9) {
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Checks the queue has room for commands.  Caller must hold the lock.
+     *
+     * @return Slot for the next command, or -1 if the queue does not have room.
+     */
+    private int reserve(int needed) {
+        if (count + needed > lengths.length) {
+            return -1;
+        }
+        return (head + count) % lengths.length;
+    }
+
+    private void commit(int slot, int length, CompletableFuture<?> future) {
+        lengths[slot] = length;
+        futures[slot] = future;
+        count++;
+    }
+
+    /**
+     * Moves the oldest command into a datagram.
+     *
+     * @param datagram Datagram buffer.
+     * @param position Position in the datagram to write the command.
+     * @param limit Size of the datagram buffer.
+     * @param batch Batch collecting the futures of the commands in the datagram.
+     * @return New position in the datagram, or position unchanged if there is no command or it does not fit.
+     */
+    synchronized int take(byte[] datagram, int position, int limit, DcsBiosCommandSender.Batch batch) {
+        if (count == 0 || position + lengths[head] > limit) {
+            return position;
+        }
+        int length = lengths[head];
+        System.arraycopy(commands, head * DcsBiosControl.MAX_COMMAND_LENGTH, datagram, position, length);
+        batch.add(futures[head]);
+        futures[head] = null;
+        head = (head + 1) % lengths.length;
+        count--;
+        return position + length;
+    }
+}
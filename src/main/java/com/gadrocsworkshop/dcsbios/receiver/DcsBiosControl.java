@@ -0,0 +1,122 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * DCS-BIOS input control identified by its control name.  The name is encoded
+ * once so commands for the control can be written without allocating.
+ */
+public final class DcsBiosControl {
+
+    /**
+     * Largest number of bytes a single encoded command can take.
+     */
+    public static final int MAX_COMMAND_LENGTH = 128;
+
+    // Space for the separator, a signed 32 bit argument and the newline.
+    private static final int MAX_ARGUMENT_LENGTH = 13;
+
+    private final String name;
+    private final byte[] nameBytes;
+
+    /**
+     * Creates a new control.
+     *
+     * @param name Control name as listed in the aircraft's control reference.
+     */
+    public DcsBiosControl(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Control name must not be empty.");
+        }
+        this.name = name;
+        this.nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (nameBytes.length + MAX_ARGUMENT_LENGTH > MAX_COMMAND_LENGTH) {
+            throw new IllegalArgumentException(String.format("Control name '%s' is too long.", name));
+        }
+    }
+
+    /**
+     * Control name.
+     *
+     * @return Name of the control.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Encoded control name.
+     *
+     * @return ASCII bytes of the control name, must not be modified.
+     */
+    byte[] getNameBytes() {
+        return nameBytes;
+    }
+
+    /**
+     * Writes a newline terminated command for this control.
+     *
+     * @param action Action to send.
+     * @param argument Argument for SET_STATE and VARIABLE_STEP, ignored for other actions.
+     * @param destination Array to write the command into.
+     * @param offset Offset into destination to start writing.
+     * @return Number of bytes written, at most MAX_COMMAND_LENGTH.
+     */
+    public int encode(DcsBiosCommandAction action, int argument, byte[] destination, int offset) {
+        int position = offset;
+        System.arraycopy(nameBytes, 0, destination, position, nameBytes.length);
+        position += nameBytes.length;
+        destination[position++] = ' ';
+
+        byte[] keyword = action.getKeyword();
+        if (keyword != null) {
+            System.arraycopy(keyword, 0, destination, position, keyword.length);
+            position += keyword.length;
+        }
+        else {
+            if (action == DcsBiosCommandAction.VARIABLE_STEP && argument >= 0) {
+                destination[position++] = '+';
+            }
+            position = writeInt(argument, destination, position);
+        }
+
+        destination[position++] = '\n';
+        return position - offset;
+    }
+
+    private static int writeInt(int value, byte[] destination, int position) {
+        long remaining = value;
+        if (remaining < 0) {
+            destination[position++] = '-';
+            remaining = -remaining;
+        }
+        int start = position;
+        do {
+            destination[position++] = (byte)('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+
+        // Digits were written least significant first.
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte digit = destination[i];
+            destination[i] = destination[j];
+            destination[j] = digit;
+        }
+        return position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof DcsBiosControl && name.equals(((DcsBiosControl)o).name));
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,234 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.Arrays;
+
+/**
+ * Re-encodes the DCS-BIOS export stream so each frame only contains the data words
+ * which changed since they were last sent.  Changed words are merged into as few
+ * write blocks as possible and every frame still starts with a sync marker and ends
+ * with the update counter, so the result is a valid export stream for bandwidth
+ * limited consumers such as serial bus controllers.
+ *
+ * Values are read from the export image at the end of each frame, so data from
+ * frames which were cut short is never sent.  To recover from data lost downstream
+ * every known address is also resent over a rolling full refresh.
+ *
+ * An address filter can limit the encoder to the addresses a consumer uses.
+ *
+ * Register the encoder as both a block and sync listener on the receiver whose
+ * export image it was created with.
+ */
+public class DcsBiosDeltaEncoder implements DcsBiosBlockListener, DcsBiosSyncListener {
+
+    private static final int WORDS = DcsBiosExportImage.SIZE / 2;
+    private static final int UPDATE_COUNTER_WORD = DcsBiosStreamWriter.UPDATE_COUNTER_ADDRESS / 2;
+
+    // A gap of one unchanged word costs less to resend than a new block header.
+    private static final int MAX_MERGE_GAP = 1;
+
+    private final DcsBiosExportImage image;
+    private final DcsBiosStreamListener target;
+    private final DcsBiosStreamWriter writer;
+
+    private final char[] sent = new char[WORDS];
+    private final long[] known = new long[WORDS / 64];
+    private final long[] touched = new long[WORDS / 64];
+    private final long[] changed = new long[WORDS / 64];
+
+    private volatile DcsBiosAddressFilter addressFilter;
+    private volatile int fullRefreshInterval = 60;
+    private volatile boolean fullRefreshRequested = false;
+    private int refreshCursor = 0;
+    private int updateCounter = 0;
+
+    private volatile long frameCount = 0;
+    private volatile long wordCount = 0;
+    private volatile long byteCount = 0;
+
+    /**
+     * Creates a new delta encoder.
+     *
+     * @param image Export image of the receiver this encoder listens to.
+     * @param target Listener which receives the encoded frames.
+     */
+    public DcsBiosDeltaEncoder(DcsBiosExportImage image, DcsBiosStreamListener target) {
+        this.image = image;
+        this.target = target;
+        // Worst case is every other word changed, each in its own block.
+        this.writer = new DcsBiosStreamWriter(new byte[2 * DcsBiosExportImage.SIZE + 16]);
+    }
+
+    /**
+     * Sets how many frames it takes to resend every known address.  The refresh is
+     * spread evenly across frames so no single frame carries the whole image.
+     *
+     * @param frames Number of frames per full refresh, zero to only send changes.
+     */
+    public void setFullRefreshInterval(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("Full refresh interval must not be negative.");
+        }
+        this.fullRefreshInterval = frames;
+    }
+
+    /**
+     * Limits the encoder to addresses inside a filter.  Addresses outside the filter
+     * are never sent, including by the full refresh.
+     *
+     * @param addressFilter Addresses to send, null to send every address.
+     */
+    public void setAddressFilter(DcsBiosAddressFilter addressFilter) {
+        this.addressFilter = addressFilter;
+    }
+
+    /**
+     * Resends every known address in the next frame, for example after the consumer
+     * has been reset.  May be called from any thread.
+     */
+    public void requestFullRefresh() {
+        fullRefreshRequested = true;
+    }
+
+    /**
+     * Number of frames which have been encoded.
+     *
+     * @return Encoded frame count.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Number of data words which have been sent, not counting update counters.
+     *
+     * @return Sent word count.
+     */
+    public long getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Number of bytes of encoded stream sent to the target.
+     *
+     * @return Encoded byte count.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void dcsBiosBlockWritten(int startAddress, int[] values, int offset, int count) {
+        int word = startAddress >>> 1;
+        int end = Math.min(word + count, UPDATE_COUNTER_WORD);
+        for (; word < end; word++) {
+            touched[word >>> 6] |= 1L << word;
+        }
+    }
+
+    @Override
+    public void dcsBiosFrameSyncReceived() {
+        findChanges();
+
+        writer.reset();
+        writer.writeSync();
+        int words = 0;
+        int word = nextSet(changed, 0);
+        while (word >= 0) {
+            int start = word;
+            int end = word + 1;
+            word = nextSet(changed, end);
+            while (word >= 0 && word - end <= MAX_MERGE_GAP && isKnownRange(end, word)) {
+                end = word + 1;
+                word = nextSet(changed, end);
+            }
+            writer.writeBlock(start * 2, sent, start, end - start);
+            words += end - start;
+        }
+        writer.writeEndOfFrame(updateCounter++);
+        Arrays.fill(changed, 0);
+
+        frameCount++;
+        wordCount += words;
+        byteCount += writer.getLength();
+        target.dcsBiosStreamDataReceived(writer.getBuffer(), 0, writer.getLength());
+    }
+
+    /**
+     * Marks words written this frame, and those due for refresh, whose value differs
+     * from what was last sent.
+     */
+    private void findChanges() {
+        DcsBiosAddressFilter filter = addressFilter;
+        long[] allowed = filter != null ? filter.getWords() : null;
+
+        if (fullRefreshRequested) {
+            fullRefreshRequested = false;
+            for (int i = 0; i < known.length; i++) {
+                changed[i] = allowed != null ? known[i] & allowed[i] : known[i];
+            }
+        }
+        else if (fullRefreshInterval > 0) {
+            int slices = (known.length + fullRefreshInterval - 1) / fullRefreshInterval;
+            for (int i = 0; i < slices; i++) {
+                int index = refreshCursor;
+                changed[index] |= allowed != null ? known[index] & allowed[index] : known[index];
+                refreshCursor = (refreshCursor + 1) % known.length;
+            }
+        }
+
+        for (int i = 0; i < touched.length; i++) {
+            long bits = touched[i];
+            if (bits == 0) {
+                continue;
+            }
+            touched[i] = 0;
+            if (allowed != null) {
+                bits &= allowed[i];
+            }
+            long newWords = bits & ~known[i];
+            known[i] |= bits;
+            changed[i] |= newWords;
+            bits &= ~newWords;
+            while (bits != 0) {
+                int word = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (image.readWord(word * 2) != sent[word]) {
+                    changed[i] |= 1L << word;
+                }
+            }
+        }
+
+        for (int i = 0; i < changed.length; i++) {
+            long bits = changed[i];
+            while (bits != 0) {
+                int word = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                sent[word] = (char)image.readWord(word * 2);
+            }
+        }
+    }
+
+    private boolean isKnownRange(int fromWord, int toWord) {
+        for (int word = fromWord; word < toWord; word++) {
+            if ((known[word >>> 6] & (1L << word)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int nextSet(long[] bits, int fromWord) {
+        int index = fromWord >>> 6;
+        if (index >= bits.length) {
+            return -1;
+        }
+        long word = bits[index] & (-1L << fromWord);
+        while (word == 0) {
+            if (++index == bits.length) {
+                return -1;
+            }
+            word = bits[index];
+        }
+        return (index << 6) + Long.numberOfTrailingZeros(word);
+    }
+}
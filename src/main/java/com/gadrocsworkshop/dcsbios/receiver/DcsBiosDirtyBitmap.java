@@ -0,0 +1,99 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Bitmap of export addresses whose value changed during a frame.  The bitmap
+ * is owned by the parser and is only valid during the
+ * DcsBiosFrameChangeListener call it was passed to.
+ */
+public final class DcsBiosDirtyBitmap {
+
+    private final long[] bits = new long[DcsBiosExportImage.SIZE / 64];
+
+    // Range of words in bits which may have bits set.
+    private int firstWord = bits.length;
+    private int lastWord = -1;
+
+    DcsBiosDirtyBitmap() {
+    }
+
+    void set(int address) {
+        int word = address >>> 6;
+        bits[word] |= 1L << address;
+        if (word < firstWord) {
+            firstWord = word;
+        }
+        if (word > lastWord) {
+            lastWord = word;
+        }
+    }
+
+    void clear() {
+        for (int i = firstWord; i <= lastWord; i++) {
+            bits[i] = 0;
+        }
+        firstWord = bits.length;
+        lastWord = -1;
+    }
+
+    /**
+     * Checks if an address changed during the frame.
+     *
+     * @param address Address to check.
+     * @return True if a changed value was written to the address.
+     */
+    public boolean isDirty(int address) {
+        return address >= 0 && address < DcsBiosExportImage.SIZE && (bits[address >>> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * Finds the next address which changed during the frame.
+     *
+     * @param fromAddress Address to start searching from (inclusive).
+     * @return Next changed address at or after fromAddress, -1 if there are none.
+     */
+    public int nextDirtyAddress(int fromAddress) {
+        if (fromAddress < 0) {
+            fromAddress = 0;
+        }
+        int word = fromAddress >>> 6;
+        if (word < firstWord) {
+            word = firstWord;
+            fromAddress = word << 6;
+        }
+        if (word > lastWord) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << fromAddress);
+        while (true) {
+            if (current != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if (++word > lastWord) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+
+    /**
+     * Number of addresses which changed during the frame.
+     *
+     * @return Number of changed addresses.
+     */
+    public int size() {
+        int count = 0;
+        for (int i = firstWord; i <= lastWord; i++) {
+            count += Long.bitCount(bits[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Checks if no addresses changed during the frame.
+     *
+     * @return True if no addresses changed.
+     */
+    public boolean isEmpty() {
+        return nextDirtyAddress(0) < 0;
+    }
+}
@@ -0,0 +1,211 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Memory image of the DCS-BIOS export address space.  The parser writes incoming
+ * data into a working image and publishes it at the end of every complete frame.
+ * Readers on any thread only ever see published frames and never block the
+ * parser; reads are optimistic and simply retry if a frame was published while
+ * they were copying.
+ *
+ * Frames which are interrupted by a sync marker are discarded and the working
+ * image is rolled back to the last published frame.
+ *
+ * The image also tracks which addresses have ever been written so consumers can
+ * tell real data from addresses DCS-BIOS has never exported.
+ */
+public final class DcsBiosExportImage {
+
+    /**
+     * Size in bytes of the DCS-BIOS export address space.
+     */
+    public static final int SIZE = 0x10000;
+
+    private final byte[] working = new byte[SIZE];
+    private final byte[] published = new byte[SIZE];
+    // One bit per data word written at least once, bit n of element n / 64 is the word at address 2n.
+    private final long[] workingWritten = new long[SIZE / 128];
+    private final long[] publishedWritten = new long[SIZE / 128];
+    private final StampedLock lock = new StampedLock();
+
+    private volatile long frame = 0;
+
+    // Range of the working image modified since the last publish.  Only touched by the parser thread.
+    private int dirtyStart = SIZE;
+    private int dirtyEnd = 0;
+
+    DcsBiosExportImage() {
+    }
+
+    /**
+     * Writes a data word into the working image.
+     *
+     * @param address Address of the data word.
+     * @param value Value of the data word.
+     */
+    void write(int address, int value) {
+        if (address < 0 || address > SIZE - 2) {
+            return;
+        }
+        working[address] = (byte)value;
+        working[address + 1] = (byte)(value >> 8);
+        workingWritten[address >>> 7] |= 1L << (address >>> 1);
+        if (address < dirtyStart) {
+            dirtyStart = address;
+        }
+        if (address + 2 > dirtyEnd) {
+            dirtyEnd = address + 2;
+        }
+    }
+
+    /**
+     * Checks if data has been written to the working image since the last publish.
+     *
+     * @return True if the working image contains unpublished data.
+     */
+    boolean isDirty() {
+        return dirtyEnd > dirtyStart;
+    }
+
+    /**
+     * Publishes the working image as the next consistent frame.
+     */
+    void publish() {
+        long stamp = lock.writeLock();
+        try {
+            if (isDirty()) {
+                System.arraycopy(working, dirtyStart, published, dirtyStart, dirtyEnd - dirtyStart);
+                copyWritten(workingWritten, publishedWritten);
+            }
+            frame++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        dirtyStart = SIZE;
+        dirtyEnd = 0;
+    }
+
+    /**
+     * Discards all writes since the last publish, restoring the working image to the last published frame.
+     */
+    void discard() {
+        if (isDirty()) {
+            // Only the parser thread modifies the published image so it is safe to read without validation.
+            System.arraycopy(published, dirtyStart, working, dirtyStart, dirtyEnd - dirtyStart);
+            copyWritten(publishedWritten, workingWritten);
+            dirtyStart = SIZE;
+            dirtyEnd = 0;
+        }
+    }
+
+    /**
+     * Copies the written bits covering the dirty range.
+     */
+    private void copyWritten(long[] source, long[] destination) {
+        int first = dirtyStart >>> 7;
+        System.arraycopy(source, first, destination, first, ((dirtyEnd - 1) >>> 7) - first + 1);
+    }
+
+    /**
+     * Number of frames which have been published.  Increases by one for every
+     * published frame and can be used as the version of the image.
+     *
+     * @return Number of the most recently published frame, zero if no frame has been published.
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * Reads a single data word from the most recently published frame.
+     *
+     * @param address Address of the data word.
+     * @return Unsigned 16 bit value of the data word.
+     */
+    public int readWord(int address) {
+        if (address < 0 || address > SIZE - 2) {
+            throw new IndexOutOfBoundsException(String.format("Invalid address 0x%x.", address));
+        }
+        long stamp;
+        int value;
+        do {
+            stamp = lock.tryOptimisticRead();
+            value = (published[address] & 0xff) | (published[address + 1] & 0xff) << 8;
+        } while (!lock.validate(stamp));
+        return value;
+    }
+
+    /**
+     * Copies a range of the most recently published frame.  All bytes copied are
+     * from the same frame.
+     *
+     * @param address First address to copy.
+     * @param destination Array to copy data into.
+     * @param offset Offset into destination to start copying to.
+     * @param length Number of bytes to copy.
+     * @return Frame number of the data copied.
+     */
+    public long read(int address, byte[] destination, int offset, int length) {
+        if (address < 0 || length < 0 || address + length > SIZE) {
+            throw new IndexOutOfBoundsException(String.format("Invalid address range 0x%x+%d.", address, length));
+        }
+        long stamp;
+        long result;
+        do {
+            stamp = lock.tryOptimisticRead();
+            System.arraycopy(published, address, destination, offset, length);
+            result = frame;
+        } while (!lock.validate(stamp));
+        return result;
+    }
+
+    /**
+     * Checks if an address has been written in any published frame.
+     *
+     * @param address Address to check.
+     * @return True if DCS-BIOS has exported a value for the address.
+     */
+    public boolean isWritten(int address) {
+        if (address < 0 || address >= SIZE) {
+            return false;
+        }
+        long stamp;
+        boolean result;
+        do {
+            stamp = lock.tryOptimisticRead();
+            result = (publishedWritten[address >>> 7] & (1L << (address >>> 1))) != 0;
+        } while (!lock.validate(stamp));
+        return result;
+    }
+
+    /**
+     * Copies the entire most recently published frame along with the bitmap of
+     * words which have been written, both from the same frame.
+     *
+     * @param destination Array of at least SIZE bytes to copy the image into.
+     * @param written Array of at least SIZE / 128 elements to copy the written word bitmap into.
+     * @return Frame number of the data copied.
+     */
+    long copyTo(byte[] destination, long[] written) {
+        long stamp;
+        long result;
+        do {
+            stamp = lock.tryOptimisticRead();
+            System.arraycopy(published, 0, destination, 0, SIZE);
+            System.arraycopy(publishedWritten, 0, written, 0, publishedWritten.length);
+            result = frame;
+        } while (!lock.validate(stamp));
+        return result;
+    }
+
+    /**
+     * Copies the entire most recently published frame.
+     *
+     * @param destination Array of at least SIZE bytes to copy the image into.
+     * @return Frame number of the data copied.
+     */
+    public long copyTo(byte[] destination) {
+        return read(0, destination, 0, SIZE);
+    }
+}
@@ -0,0 +1,94 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decodes integer output fields from the DCS-BIOS data stream.  Fields are
+ * declared with the address, mask and shift from the aircraft's control
+ * reference and are compiled into one dispatch plan per address, so all fields
+ * sharing a data word are evaluated together.  Each field listener is only
+ * notified when its own masked value changes.
+ */
+public class DcsBiosFieldDispatcher implements DcsBiosDataListener {
+
+    private final AbstractDcsBiosReceiver receiver;
+    private final DcsBiosParser parser;
+
+    private final AtomicReferenceArray<IntFieldPlan> plans = new AtomicReferenceArray<>(DcsBiosExportImage.SIZE);
+
+    /**
+     * Creates a new field dispatcher which receives data from a receiver.
+     *
+     * @param receiver Receiver to read fields from.
+     */
+    public DcsBiosFieldDispatcher(AbstractDcsBiosReceiver receiver) {
+        this.receiver = receiver;
+        this.parser = null;
+    }
+
+    /**
+     * Creates a new field dispatcher which receives data from a parser.
+     *
+     * @param parser Parser to read fields from.
+     */
+    public DcsBiosFieldDispatcher(DcsBiosParser parser) {
+        this.receiver = null;
+        this.parser = parser;
+    }
+
+    /**
+     * Declares an integer output field.  The listener is notified with the
+     * value (data &amp; mask) &gt;&gt;&gt; shift whenever that value changes.
+     *
+     * @param address Address of the data word containing the field.
+     * @param mask Mask of the bits in the data word which hold the field.
+     * @param shift Number of bits to shift the masked value right.
+     * @param listener Listener to notify when the field changes.
+     */
+    public synchronized void addIntField(int address, int mask, int shift, IntFieldListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Can't add null listener.");
+        }
+        if (address < 0 || address >= DcsBiosExportImage.SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid address 0x%x.", address));
+        }
+
+        IntFieldPlan plan = plans.get(address);
+        if (plan == null) {
+            plans.set(address, new IntFieldPlan().add(mask, shift, listener));
+            if (receiver != null) {
+                receiver.addDataListener(this, address);
+            }
+            else {
+                parser.addDataListener(this, address);
+            }
+        }
+        else {
+            plans.set(address, plan.add(mask, shift, listener));
+        }
+    }
+
+    /**
+     * Removes all fields declared for a listener.
+     *
+     * @param listener Listener which will no longer be notified.
+     */
+    public synchronized void removeIntField(IntFieldListener listener) {
+        for (int address = 0; address < plans.length(); address++) {
+            IntFieldPlan plan = plans.get(address);
+            if (plan != null) {
+                plan = plan.remove(listener);
+                // Addresses with no fields left keep their subscription but an empty plan is never dispatched.
+                plans.set(address, plan.size() > 0 ? plan : null);
+            }
+        }
+    }
+
+    @Override
+    public void dcsBiosDataWritten(int address, int data) {
+        IntFieldPlan plan = plans.get(address);
+        if (plan != null) {
+            plan.dispatch(data);
+        }
+    }
+}
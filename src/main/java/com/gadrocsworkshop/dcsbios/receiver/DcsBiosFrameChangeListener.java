@@ -0,0 +1,18 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Interface for objects which want to know which addresses changed during a
+ * frame.  Frame change listeners are only notified while the parser is in
+ * notify changes only mode and are called at the end of each frame after all
+ * DcsBiosSyncListeners.
+ */
+public interface DcsBiosFrameChangeListener {
+
+    /**
+     * Called at the end of a frame with the addresses whose value changed
+     * since the previous frame.
+     *
+     * @param dirtyAddresses Bitmap of changed addresses, only valid during this call.
+     */
+    void dcsBiosFrameChanged(DcsBiosDirtyBitmap dirtyAddresses);
+}
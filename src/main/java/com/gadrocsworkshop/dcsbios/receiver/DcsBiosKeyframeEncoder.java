@@ -0,0 +1,125 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Encodes the latest state of the export image as a keyframe: one complete
+ * DCS-BIOS frame containing every address DCS-BIOS has ever exported, with
+ * consecutive addresses merged into single write blocks.  Sending a keyframe to a
+ * consumer which has just connected or reset brings it fully up to date without
+ * waiting for DCS-BIOS to resend each value.
+ *
+ * Keyframes can be encoded from any thread.
+ */
+public class DcsBiosKeyframeEncoder {
+
+    /**
+     * Largest possible keyframe, every other word written and each in its own block.
+     */
+    public static final int MAX_KEYFRAME_SIZE = 2 * DcsBiosExportImage.SIZE + 16;
+
+    private static final int WORDS = DcsBiosExportImage.SIZE / 2;
+    private static final int UPDATE_COUNTER_WORD = DcsBiosStreamWriter.UPDATE_COUNTER_ADDRESS / 2;
+
+    private final DcsBiosExportImage image;
+    private final byte[] values = new byte[DcsBiosExportImage.SIZE];
+    private final long[] written = new long[WORDS / 64];
+    private final DcsBiosStreamWriter writer = new DcsBiosStreamWriter(new byte[MAX_KEYFRAME_SIZE]);
+
+    private volatile DcsBiosAddressFilter addressFilter;
+    private long frame = 0;
+
+    /**
+     * Creates a new keyframe encoder.
+     *
+     * @param image Export image to encode keyframes from.
+     */
+    public DcsBiosKeyframeEncoder(DcsBiosExportImage image) {
+        this.image = image;
+    }
+
+    /**
+     * Limits keyframes to addresses inside a filter.
+     *
+     * @param addressFilter Addresses to include, null to include every address.
+     */
+    public void setAddressFilter(DcsBiosAddressFilter addressFilter) {
+        this.addressFilter = addressFilter;
+    }
+
+    /**
+     * Encodes a keyframe from the most recently published frame.
+     *
+     * @return Length of the keyframe in the buffer.
+     */
+    public synchronized int encode() {
+        frame = image.copyTo(values, written);
+        DcsBiosAddressFilter filter = addressFilter;
+        if (filter != null) {
+            long[] allowed = filter.getWords();
+            for (int i = 0; i < written.length; i++) {
+                written[i] &= allowed[i];
+            }
+        }
+        // The update counter is written by the keyframe itself.
+        written[UPDATE_COUNTER_WORD >>> 6] &= ~(1L << UPDATE_COUNTER_WORD);
+
+        writer.reset();
+        writer.writeSync();
+        int word = nextSet(written, 0);
+        while (word >= 0) {
+            int end = nextClear(written, word);
+            writer.writeBlock(word * 2, values, word * 2, (end - word) * 2);
+            word = nextSet(written, end);
+        }
+        writer.writeEndOfFrame((int)frame);
+        return writer.getLength();
+    }
+
+    /**
+     * Buffer containing the most recently encoded keyframe.  Only valid until the
+     * next call to encode.
+     *
+     * @return Keyframe buffer.
+     */
+    public byte[] getBuffer() {
+        return writer.getBuffer();
+    }
+
+    /**
+     * Export image frame the most recently encoded keyframe was taken from.
+     *
+     * @return Frame number.
+     */
+    public synchronized long getFrame() {
+        return frame;
+    }
+
+    private static int nextSet(long[] bits, int fromWord) {
+        int index = fromWord >>> 6;
+        if (index >= bits.length) {
+            return -1;
+        }
+        long word = bits[index] & (-1L << fromWord);
+        while (word == 0) {
+            if (++index == bits.length) {
+                return -1;
+            }
+            word = bits[index];
+        }
+        return (index << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    private static int nextClear(long[] bits, int fromWord) {
+        int index = fromWord >>> 6;
+        if (index >= bits.length) {
+            return WORDS;
+        }
+        long word = ~bits[index] & (-1L << fromWord);
+        while (word == 0) {
+            if (++index == bits.length) {
+                return WORDS;
+            }
+            word = ~bits[index];
+        }
+        return (index << 6) + Long.numberOfTrailingZeros(word);
+    }
+}
@@ -0,0 +1,129 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of how long a listener takes to handle notifications.  Invocation times
+ * are counted in power of two buckets: bucket n counts invocations which took at
+ * least 2^n and less than 2^(n+1) nanoseconds, with bucket 0 also counting anything
+ * faster and the last bucket anything slower.
+ */
+public final class DcsBiosListenerTiming {
+
+    /**
+     * Number of histogram buckets.
+     */
+    public static final int BUCKETS = 40;
+
+    private final String listenerName;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    DcsBiosListenerTiming(Object listener) {
+        this.listenerName = String.format("%s@%x", listener.getClass().getName(), System.identityHashCode(listener));
+    }
+
+    /**
+     * Records one invocation.
+     *
+     * @param nanos Time the invocation took in nanoseconds.
+     */
+    void record(long nanos) {
+        int bucket = nanos <= 1 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Retry until our time is stored or a larger one is.
+        }
+    }
+
+    /**
+     * Name identifying the listener, made of its class name and identity hash code.
+     *
+     * @return Listener name.
+     */
+    public String getListenerName() {
+        return listenerName;
+    }
+
+    /**
+     * Number of recorded invocations.
+     *
+     * @return Invocation count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Total time spent in the listener.
+     *
+     * @return Total time in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Longest single invocation.
+     *
+     * @return Maximum time in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Average invocation time.
+     *
+     * @return Mean time in nanoseconds, zero if there have been no invocations.
+     */
+    public long getMeanNanos() {
+        long invocations = count.get();
+        return invocations > 0 ? totalNanos.get() / invocations : 0;
+    }
+
+    /**
+     * Invocation counts of each histogram bucket.
+     *
+     * @return Copy of the bucket counts.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Estimates a percentile of the invocation time from the histogram.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound in nanoseconds of the bucket containing the percentile, zero if there have been no invocations.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(1L << (i + 1), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+}
@@ -0,0 +1,208 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Counters describing the traffic handled by a parser and the receiver feeding it.
+ * Each counter is only ever updated by one thread, the receiving thread for packets
+ * and the parsing thread for everything else, so updates are lazy writes with no
+ * locks or atomic instructions.  Counters can be read from any thread.
+ * <p>
+ * Per-listener invocation timing is off by default as it reads the clock twice
+ * for every notification.
+ */
+public final class DcsBiosMetrics {
+
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> PACKETS = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "packetCount");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> LAST_PACKET = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "lastPacketTime");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> BYTES = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "byteCount");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> WORDS = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "wordCount");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> FRAMES = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "frameCount");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> RESYNCS = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "resyncCount");
+    private static final AtomicLongFieldUpdater<DcsBiosMetrics> TRUNCATED = AtomicLongFieldUpdater.newUpdater(DcsBiosMetrics.class, "truncatedFrameCount");
+
+    private volatile long packetCount = 0;
+    private volatile long lastPacketTime = 0;
+    private volatile long byteCount = 0;
+    private volatile long wordCount = 0;
+    private volatile long frameCount = 0;
+    private volatile long resyncCount = 0;
+    private volatile long truncatedFrameCount = 0;
+
+    private volatile boolean listenerTimingEnabled = false;
+    private final Map<Object, DcsBiosListenerTiming> listenerTimings = new ConcurrentHashMap<>();
+
+    /**
+     * Records a packet arriving from the network.  Called from the receiving thread.
+     */
+    void packetReceived() {
+        // Time is stored first so a reader which sees the packet also sees its time.
+        LAST_PACKET.lazySet(this, System.nanoTime());
+        PACKETS.lazySet(this, packetCount + 1);
+    }
+
+    /**
+     * Records stream data processed by the parser.  Called from the parsing thread.
+     *
+     * @param bytes Number of bytes processed.
+     * @param words Number of data words decoded from them.
+     */
+    void dataProcessed(int bytes, long words) {
+        BYTES.lazySet(this, byteCount + bytes);
+        if (words > 0) {
+            WORDS.lazySet(this, wordCount + words);
+        }
+    }
+
+    /**
+     * Records a frame ended by the update counter.  Called from the parsing thread.
+     */
+    void frameCompleted() {
+        FRAMES.lazySet(this, frameCount + 1);
+    }
+
+    /**
+     * Records a sync marker found in the middle of a write block.  Called from the parsing thread.
+     */
+    void resync() {
+        RESYNCS.lazySet(this, resyncCount + 1);
+    }
+
+    /**
+     * Records a frame which was followed by a sync marker before its update counter.
+     * Called from the parsing thread.
+     */
+    void frameTruncated() {
+        TRUNCATED.lazySet(this, truncatedFrameCount + 1);
+    }
+
+    /**
+     * Records the time a listener took to handle a notification.
+     *
+     * @param listener Listener which was notified.
+     * @param nanos Time taken in nanoseconds.
+     */
+    void listenerInvoked(Object listener, long nanos) {
+        DcsBiosListenerTiming timing = listenerTimings.get(listener);
+        if (timing == null) {
+            timing = listenerTimings.computeIfAbsent(listener, DcsBiosListenerTiming::new);
+        }
+        timing.record(nanos);
+    }
+
+    /**
+     * Discards the timing of a listener which has been removed, so the metrics do
+     * not keep it or anything it references reachable.
+     *
+     * @param listener Listener which was removed.
+     */
+    void listenerRemoved(Object listener) {
+        listenerTimings.remove(listener);
+    }
+
+    /**
+     * Checks if listener invocation times are being recorded.
+     *
+     * @return True if listener timing is enabled.
+     */
+    public boolean isListenerTimingEnabled() {
+        return listenerTimingEnabled;
+    }
+
+    /**
+     * Enables or disables recording of listener invocation times.
+     *
+     * @param listenerTimingEnabled True to time every listener notification.
+     */
+    public void setListenerTimingEnabled(boolean listenerTimingEnabled) {
+        this.listenerTimingEnabled = listenerTimingEnabled;
+    }
+
+    /**
+     * Invocation time histograms of every listener notified while timing was enabled.
+     *
+     * @return Histograms keyed by listener name.
+     */
+    public Map<String, DcsBiosListenerTiming> getListenerTimings() {
+        Map<String, DcsBiosListenerTiming> timings = new TreeMap<>();
+        for (DcsBiosListenerTiming timing : listenerTimings.values()) {
+            timings.put(timing.getListenerName(), timing);
+        }
+        return timings;
+    }
+
+    /**
+     * Discards all listener invocation histograms.
+     */
+    public void clearListenerTimings() {
+        listenerTimings.clear();
+    }
+
+    /**
+     * Number of packets received from the network.
+     *
+     * @return Packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Number of stream bytes processed by the parser.
+     *
+     * @return Byte count.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Number of data words decoded by the parser, including update counters.
+     *
+     * @return Word count.
+     */
+    public long getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Number of complete frames decoded by the parser.
+     *
+     * @return Frame count.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Number of sync markers found in the middle of a write block, which means
+     * stream data was lost.
+     *
+     * @return Resync count.
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    /**
+     * Number of frames which were followed by the next frame's sync marker before
+     * their update counter was received.
+     *
+     * @return Truncated frame count.
+     */
+    public long getTruncatedFrameCount() {
+        return truncatedFrameCount;
+    }
+
+    /**
+     * Time since the last packet was received.
+     *
+     * @return Nanoseconds since the last packet, -1 if no packet has been received.
+     */
+    public long getNanosSinceLastPacket() {
+        return packetCount > 0 ? System.nanoTime() - lastPacketTime : -1;
+    }
+}
@@ -0,0 +1,16 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Interface for objects which are notified each time a DcsBiosMetricsReporter
+ * samples its metrics, for example to forward them to a monitoring system.
+ * Calls are made from the reporter's sampling thread.
+ */
+public interface DcsBiosMetricsListener {
+
+    /**
+     * Called after the reporter has taken a new sample.
+     *
+     * @param metrics Reporter's metrics, including the rates from the sample just taken.
+     */
+    void dcsBiosMetricsSampled(DcsBiosMetricsMXBean metrics);
+}
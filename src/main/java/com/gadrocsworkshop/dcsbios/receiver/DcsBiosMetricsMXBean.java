@@ -0,0 +1,62 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing DCS-BIOS receiver and parser metrics.  Rates are
+ * averages over the last sampling period of the DcsBiosMetricsReporter.
+ */
+public interface DcsBiosMetricsMXBean {
+
+    long getPacketCount();
+
+    long getByteCount();
+
+    long getWordCount();
+
+    long getFrameCount();
+
+    long getResyncCount();
+
+    long getTruncatedFrameCount();
+
+    double getPacketsPerSecond();
+
+    double getBytesPerSecond();
+
+    double getWordsPerSecond();
+
+    double getFramesPerSecond();
+
+    /**
+     * Time since the last packet was received.
+     *
+     * @return Milliseconds since the last packet, -1 if no packet has been received.
+     */
+    long getMillisSinceLastPacket();
+
+    boolean isListenerTimingEnabled();
+
+    void setListenerTimingEnabled(boolean enabled);
+
+    /**
+     * Mean listener invocation times.
+     *
+     * @return Mean time in nanoseconds keyed by listener name.
+     */
+    Map<String, Long> getListenerMeanNanos();
+
+    /**
+     * 99th percentile listener invocation times, estimated from the histogram.
+     *
+     * @return Time in nanoseconds keyed by listener name.
+     */
+    Map<String, Long> getListenerP99Nanos();
+
+    /**
+     * Longest listener invocation times.
+     *
+     * @return Maximum time in nanoseconds keyed by listener name.
+     */
+    Map<String, Long> getListenerMaxNanos();
+}
@@ -0,0 +1,299 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples DcsBiosMetrics to calculate rates, exposes them as an MXBean and passes
+ * each sample to registered metrics listeners.  When the reporter has not been
+ * started, rates are recalculated on demand when at least a second has passed since
+ * the previous sample.
+ */
+public class DcsBiosMetricsReporter implements DcsBiosMetricsMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosMetricsReporter.class.getName());
+
+    private static final long ON_DEMAND_PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    private final DcsBiosMetrics metrics;
+
+    private volatile DcsBiosMetricsListener[] listeners = new DcsBiosMetricsListener[0];
+
+    // Counter values at the last sample.  Guarded by this.
+    private long sampleTime;
+    private long samplePackets;
+    private long sampleBytes;
+    private long sampleWords;
+    private long sampleFrames;
+
+    private volatile double packetsPerSecond;
+    private volatile double bytesPerSecond;
+    private volatile double wordsPerSecond;
+    private volatile double framesPerSecond;
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private ObjectName objectName;
+
+    /**
+     * Creates a new reporter.
+     *
+     * @param metrics Metrics to report, usually from AbstractDcsBiosReceiver.getMetrics().
+     */
+    public DcsBiosMetricsReporter(DcsBiosMetrics metrics) {
+        this.metrics = metrics;
+        this.sampleTime = System.nanoTime();
+    }
+
+    /**
+     * Registers a listener which is notified after each sample.
+     *
+     * @param listener Listener to notify.
+     */
+    public synchronized void addMetricsListener(DcsBiosMetricsListener listener) {
+        listeners = ListenerArrays.add(listeners, listener);
+    }
+
+    /**
+     * Removes a metrics listener.
+     *
+     * @param listener Listener which will no longer be notified.
+     */
+    public synchronized void removeMetricsListener(DcsBiosMetricsListener listener) {
+        listeners = ListenerArrays.remove(listeners, listener);
+    }
+
+    /**
+     * Starts sampling the metrics on a background thread.
+     *
+     * @param period Time between samples.
+     * @param unit Unit of period.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (running) {
+            return;
+        }
+        long nanos = unit.toNanos(period);
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("Sampling period must be positive.");
+        }
+        running = true;
+        thread = new Thread(() -> run(nanos), "DCS-BIOS Metrics Reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sampling.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Registers this reporter with the platform MBean server under
+     * com.gadrocsworkshop.dcsbios:type=Metrics,name=[name].
+     *
+     * @param name Name distinguishing this receiver from others in the same JVM.
+     * @throws JMException Thrown if the MBean can not be registered.
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName newName = new ObjectName("com.gadrocsworkshop.dcsbios:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+    }
+
+    /**
+     * Removes this reporter from the platform MBean server.
+     *
+     * @throws JMException Thrown if the MBean can not be unregistered.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Takes a sample now, updating the rates and notifying metrics listeners.
+     */
+    public void sample() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            long packets = metrics.getPacketCount();
+            long bytes = metrics.getByteCount();
+            long words = metrics.getWordCount();
+            long frames = metrics.getFrameCount();
+
+            double seconds = (now - sampleTime) / 1e9;
+            if (seconds > 0) {
+                packetsPerSecond = (packets - samplePackets) / seconds;
+                bytesPerSecond = (bytes - sampleBytes) / seconds;
+                wordsPerSecond = (words - sampleWords) / seconds;
+                framesPerSecond = (frames - sampleFrames) / seconds;
+            }
+
+            sampleTime = now;
+            samplePackets = packets;
+            sampleBytes = bytes;
+            sampleWords = words;
+            sampleFrames = frames;
+        }
+
+        for (DcsBiosMetricsListener listener : listeners) {
+            try {
+                listener.dcsBiosMetricsSampled(this);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS metrics listener %s.", listener.getClass().getName()), ex);
+            }
+        }
+    }
+
+    private void run(long period) {
+        long next = System.nanoTime() + period;
+        while (running) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            next += period;
+            sample();
+        }
+    }
+
+    private void sampleIfStale() {
+        if (!running) {
+            boolean stale;
+            synchronized (this) {
+                stale = System.nanoTime() - sampleTime >= ON_DEMAND_PERIOD;
+            }
+            if (stale) {
+                sample();
+            }
+        }
+    }
+
+    @Override
+    public long getPacketCount() {
+        return metrics.getPacketCount();
+    }
+
+    @Override
+    public long getByteCount() {
+        return metrics.getByteCount();
+    }
+
+    @Override
+    public long getWordCount() {
+        return metrics.getWordCount();
+    }
+
+    @Override
+    public long getFrameCount() {
+        return metrics.getFrameCount();
+    }
+
+    @Override
+    public long getResyncCount() {
+        return metrics.getResyncCount();
+    }
+
+    @Override
+    public long getTruncatedFrameCount() {
+        return metrics.getTruncatedFrameCount();
+    }
+
+    @Override
+    public double getPacketsPerSecond() {
+        sampleIfStale();
+        return packetsPerSecond;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        sampleIfStale();
+        return bytesPerSecond;
+    }
+
+    @Override
+    public double getWordsPerSecond() {
+        sampleIfStale();
+        return wordsPerSecond;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        sampleIfStale();
+        return framesPerSecond;
+    }
+
+    @Override
+    public long getMillisSinceLastPacket() {
+        long nanos = metrics.getNanosSinceLastPacket();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public boolean isListenerTimingEnabled() {
+        return metrics.isListenerTimingEnabled();
+    }
+
+    @Override
+    public void setListenerTimingEnabled(boolean enabled) {
+        metrics.setListenerTimingEnabled(enabled);
+    }
+
+    @Override
+    public Map<String, Long> getListenerMeanNanos() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, DcsBiosListenerTiming> entry : metrics.getListenerTimings().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMeanNanos());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerP99Nanos() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, DcsBiosListenerTiming> entry : metrics.getListenerTimings().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getPercentileNanos(99));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerMaxNanos() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, DcsBiosListenerTiming> entry : metrics.getListenerTimings().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMaxNanos());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,342 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receiver which hosts many DCS-BIOS streams on a small, fixed number of threads.
+ * Each stream listens on its own port and optional multicast group and has its own
+ * parser and listeners.  Streams are spread across one or more selector loops so the
+ * thread count stays the same no matter how many streams are added.
+ */
+public class DcsBiosMultiStreamReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosMultiStreamReceiver.class.getName());
+
+    private static final int MAX_PACKET_SIZE = 0x10000;
+
+    private final int threadCount;
+    private final List<DcsBiosStream> streams = new ArrayList<>();
+
+    private NetworkInterface networkInterface;
+    private int receiveBufferSize = 0;
+
+    private StreamLoop[] loops;
+    private StreamLoop[] stoppingLoops;
+    private int nextLoop = 0;
+
+    /**
+     * Creates a new receiver which hosts all streams on a single thread.
+     */
+    public DcsBiosMultiStreamReceiver() {
+        this(1);
+    }
+
+    /**
+     * Creates a new receiver.
+     *
+     * @param threadCount Number of selector threads to spread streams across.
+     */
+    public DcsBiosMultiStreamReceiver(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets the network interface used to join multicast groups.  Takes effect for streams opened after this call.
+     *
+     * @param networkInterface Interface to join groups on, null to let the operating system choose.
+     */
+    public synchronized void setNetworkInterface(NetworkInterface networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    /**
+     * Sets the SO_RCVBUF size of stream channels.  Takes effect for streams opened after this call.
+     *
+     * @param receiveBufferSize Size in bytes of the socket receive buffer, zero to use the system default.
+     */
+    public synchronized void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Adds a stream to this receiver.  If the receiver is running the stream starts
+     * receiving immediately.
+     *
+     * @param groupAddress Multicast group address the stream should listen on.
+     *                     If null or empty will only listen for packets sent directly to this computer.
+     * @param port Port to listen on for DCS-BIOS packets.
+     * @return Stream which can be used to register listeners and send commands.
+     * @throws IOException Thrown if the group address can not be resolved or the stream can not be opened.
+     */
+    public synchronized DcsBiosStream addStream(String groupAddress, int port) throws IOException {
+        InetAddress group = null;
+        if (groupAddress != null && !groupAddress.trim().isEmpty()) {
+            group = InetAddress.getByName(groupAddress);
+        }
+        DcsBiosStream stream = new DcsBiosStream(group, port);
+        if (loops != null) {
+            openStream(stream);
+        }
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Removes a stream from this receiver and closes its channel.
+     *
+     * @param stream Stream to remove.
+     */
+    public synchronized void removeStream(DcsBiosStream stream) {
+        if (streams.remove(stream)) {
+            closeStream(stream);
+        }
+    }
+
+    /**
+     * Streams hosted by this receiver.
+     *
+     * @return Unmodifiable list of streams.
+     */
+    public synchronized List<DcsBiosStream> getStreams() {
+        return Collections.unmodifiableList(new ArrayList<>(streams));
+    }
+
+    /**
+     * Checks to see if the receiver is running.
+     *
+     * @return True if the receiver is running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return loops != null;
+    }
+
+    /**
+     * Starts the selector threads and opens all streams.
+     */
+    public void start() {
+        // Loops which are still stopping must not read streams alongside the new ones.
+        awaitStopped();
+        synchronized (this) {
+            if (loops != null) {
+                return;
+            }
+            loops = new StreamLoop[threadCount];
+            try {
+                for (int i = 0; i < threadCount; i++) {
+                    loops[i] = new StreamLoop(i);
+                }
+                for (DcsBiosStream stream : streams) {
+                    openStream(stream);
+                }
+            } catch (IOException e) {
+                stop();
+                throw new UncheckedIOException("Error opening DCS-BIOS streams.", e);
+            }
+            for (StreamLoop loop : loops) {
+                loop.thread.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the selector threads and closes all streams.
+     */
+    public void stop() {
+        List<DatagramChannel> channels = new ArrayList<>();
+        synchronized (this) {
+            if (loops == null) {
+                return;
+            }
+            for (StreamLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+            // Detached now so a restart opens new channels, closed once the loops have exited.
+            for (DcsBiosStream stream : streams) {
+                DatagramChannel channel = stream.getChannel();
+                if (channel != null) {
+                    channels.add(channel);
+                    stream.setChannel(null);
+                }
+            }
+            stoppingLoops = loops;
+            loops = null;
+        }
+        awaitStopped();
+        for (DatagramChannel channel : channels) {
+            closeChannel(channel);
+        }
+    }
+
+    /**
+     * Waits for loops told to stop to exit.  Loop threads are joined without holding
+     * the lock, as listeners running on them may call back into this receiver.
+     */
+    private void awaitStopped() {
+        StreamLoop[] stopping;
+        synchronized (this) {
+            stopping = stoppingLoops;
+        }
+        if (stopping == null) {
+            return;
+        }
+        for (StreamLoop loop : stopping) {
+            if (loop != null) {
+                loop.await();
+            }
+        }
+        synchronized (this) {
+            if (stoppingLoops == stopping) {
+                stoppingLoops = null;
+            }
+        }
+    }
+
+    private void openStream(DcsBiosStream stream) throws IOException {
+        DatagramChannel channel = DcsBiosChannels.open(stream.getGroupAddress(), stream.getPort(), networkInterface, receiveBufferSize);
+        stream.setChannel(channel);
+        loops[nextLoop].register(stream);
+        nextLoop = (nextLoop + 1) % loops.length;
+    }
+
+    private void closeStream(DcsBiosStream stream) {
+        DatagramChannel channel = stream.getChannel();
+        if (channel != null) {
+            closeChannel(channel);
+            stream.setChannel(null);
+        }
+    }
+
+    private static void closeChannel(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing DCS-BIOS stream channel.", e);
+        }
+    }
+
+    /**
+     * Selector loop serving a share of the streams.
+     */
+    private static final class StreamLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<DcsBiosStream> pending = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        private final byte[] streamBuffer = new byte[MAX_PACKET_SIZE];
+
+        private volatile boolean running = true;
+
+        StreamLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "DCS-BIOS Stream Receiver " + index);
+        }
+
+        /**
+         * Queues a stream to be registered by the loop thread.  Registering from another
+         * thread would block while the loop is waiting in select.
+         */
+        void register(DcsBiosStream stream) {
+            pending.add(stream);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Waits for a loop which has been shut down to exit.
+         */
+        void await() {
+            if (!thread.isAlive()) {
+                // Never started, or start failed part way, the loop will not close it.
+                closeSelector();
+            }
+            else if (Thread.currentThread() != thread) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            LOGGER.fine("Entering stream reading loop.");
+            try {
+                while (running) {
+                    selector.select();
+                    registerPending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (running && key.isValid()) {
+                            readStream(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error in DCS-BIOS stream selector. Shutting down loop.", e);
+            }
+            LOGGER.fine("Exiting stream reading loop.");
+            closeSelector();
+        }
+
+        private void closeSelector() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing DCS-BIOS stream selector.", e);
+            }
+        }
+
+        private void registerPending() throws IOException {
+            DcsBiosStream stream;
+            while ((stream = pending.poll()) != null) {
+                DatagramChannel channel = stream.getChannel();
+                if (channel != null && channel.isOpen()) {
+                    channel.register(selector, SelectionKey.OP_READ, stream);
+                }
+            }
+        }
+
+        private void readStream(SelectionKey key) {
+            DcsBiosStream stream = (DcsBiosStream)key.attachment();
+            try {
+                stream.readPackets(buffer, streamBuffer);
+            } catch (ClosedChannelException e) {
+                // Stream removed or receiver stopped by a listener while reading.
+                key.cancel();
+            } catch (IOException | RuntimeException e) {
+                // One broken stream should not take down the others sharing this loop.
+                LOGGER.log(Level.WARNING, String.format("Error receiving DCS-BIOS packet on port %d.", stream.getPort()), e);
+                key.cancel();
+            }
+        }
+    }
+}
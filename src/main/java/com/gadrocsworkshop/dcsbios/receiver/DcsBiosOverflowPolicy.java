@@ -0,0 +1,22 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Behavior of a bounded packet queue when a packet arrives and the queue is full.
+ */
+public enum DcsBiosOverflowPolicy {
+
+    /**
+     * Wait for the consumer to free up space.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued packet to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new packet.
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,228 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of preallocated packet slots handed from a single producer to a
+ * single consumer.  The producer always owns one empty slot to fill and swaps it
+ * for another when publishing, so packets are never copied and no memory is
+ * allocated after construction.
+ */
+class DcsBiosPacketRing {
+
+    /**
+     * Preallocated packet buffer.
+     */
+    static final class Slot {
+        final byte[] data;
+        final DatagramPacket packet;
+        int length;
+        // Only filled in by producers which use it, such as DcsBiosStreamRecorder.
+        long timestamp;
+
+        Slot(int size) {
+            data = new byte[size];
+            packet = new DatagramPacket(data, size);
+        }
+    }
+
+    private final Slot[] queue;
+    private final Slot[] free;
+    private final DcsBiosOverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head = 0;
+    private int count = 0;
+    private int freeCount = 0;
+    private int maxCount = 0;
+    private long droppedCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new packet ring.
+     *
+     * @param capacity Maximum number of packets which can be queued.
+     * @param slotSize Size in bytes of each packet slot.
+     * @param policy Behavior when a packet is published to a full queue.
+     */
+    DcsBiosPacketRing(int capacity, int slotSize, DcsBiosOverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.queue = new Slot[capacity];
+        this.policy = policy;
+
+        // One slot for the producer to fill and one for the consumer to process in addition to the queue.
+        this.free = new Slot[capacity + 2];
+        for (int i = 0; i < free.length; i++) {
+            free[freeCount++] = new Slot(slotSize);
+        }
+    }
+
+    /**
+     * Gets the first empty slot for the producer to fill.
+     *
+     * @return Empty slot.
+     */
+    Slot acquire() {
+        lock.lock();
+        try {
+            return free[--freeCount];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Publishes a filled slot to the consumer.
+     *
+     * @param slot Slot which has been filled by the producer.
+     * @return Empty slot for the producer to fill next.
+     * @throws InterruptedException Thrown if interrupted while waiting for space with the BLOCK policy.
+     */
+    Slot publish(Slot slot) throws InterruptedException {
+        lock.lock();
+        try {
+            if (policy == DcsBiosOverflowPolicy.BLOCK) {
+                while (count == queue.length && !closed) {
+                    notFull.await();
+                }
+            }
+            if (closed) {
+                return slot;
+            }
+
+            Slot next;
+            if (count < queue.length) {
+                next = free[--freeCount];
+            }
+            else if (policy == DcsBiosOverflowPolicy.DROP_OLDEST) {
+                next = queue[head];
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                count--;
+                droppedCount++;
+            }
+            else {
+                droppedCount++;
+                return slot;
+            }
+
+            queue[(head + count) % queue.length] = slot;
+            count++;
+            if (count > maxCount) {
+                maxCount = count;
+            }
+            notEmpty.signal();
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest filled slot.  The slot must be released once processed.
+     *
+     * @param timeout Maximum time to wait for a slot.
+     * @param unit Unit of timeout.
+     * @return Filled slot, or null if the timeout expired or the ring was closed and is empty.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    Slot take(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (closed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Slot slot = queue[head];
+            queue[head] = null;
+            head = (head + 1) % queue.length;
+            count--;
+            notFull.signal();
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a processed slot to the ring.
+     *
+     * @param slot Slot returned from take.
+     */
+    void release(Slot slot) {
+        lock.lock();
+        try {
+            free[freeCount++] = slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the ring.  Blocked producers are released, further packets are
+     * discarded and the consumer receives null once the queue is drained.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of packets currently queued.
+     *
+     * @return Queue depth.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Largest number of packets which have been queued at once.
+     *
+     * @return Maximum queue depth.
+     */
+    int getMaxSize() {
+        lock.lock();
+        try {
+            return maxCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of packets discarded because the queue was full.
+     *
+     * @return Dropped packet count.
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
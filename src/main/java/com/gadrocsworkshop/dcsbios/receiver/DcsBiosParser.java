@@ -1,7 +1,8 @@
 package com.gadrocsworkshop.dcsbios.receiver;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +19,9 @@ public class DcsBiosParser {
         WAIT_FOR_SYNC, ADDRESS_LOW, ADDRESS_HIGH, COUNT_LOW, COUNT_HIGH, DATA_LOW, DATA_HIGH
     }
 
+    private static final byte SYNC_BYTE = 0x55;
+    private static final int MAX_BLOCK_VALUES = 0x8000;
+
     private byte syncByteCount = 0;
     private int address = 0;
     private int remaining = 0;
@@ -25,8 +29,36 @@ public class DcsBiosParser {
 
     private ParserState state = ParserState.WAIT_FOR_SYNC;
 
-    private final LinkedHashSet<DcsBiosDataListener> dataListeners = new LinkedHashSet<>();
-    private final LinkedHashSet<DcsBiosSyncListener> syncListeners = new LinkedHashSet<>();
+    // State when the first byte of a possible sync marker arrived, used to spot lost data.
+    private ParserState syncStartState = ParserState.WAIT_FOR_SYNC;
+    private boolean frameInProgress = false;
+
+    // Words decoded during the current processData call, added to the metrics once per call.
+    private long decodedWords = 0;
+    private final DcsBiosMetrics metrics = new DcsBiosMetrics();
+
+    private final byte[] scratch = new byte[2048];
+
+    private final DcsBiosExportImage exportImage = new DcsBiosExportImage();
+
+    // Last value delivered for each address while in notify changes only mode, -1 if none has been delivered.
+    private volatile boolean notifyChangesOnly = false;
+    private int[] lastValues;
+    private final DcsBiosDirtyBitmap dirtyAddresses = new DcsBiosDirtyBitmap();
+
+    // Values of the write block currently being decoded.
+    private int[] blockValues = new int[256];
+    private int blockAddress = 0;
+    private int blockCount = 0;
+
+    // Listener arrays are copy-on-write so notification never locks or allocates.
+    private volatile DcsBiosDataListener[] dataListeners = new DcsBiosDataListener[0];
+    private volatile DcsBiosSyncListener[] syncListeners = new DcsBiosSyncListener[0];
+    private volatile DcsBiosFrameChangeListener[] frameChangeListeners = new DcsBiosFrameChangeListener[0];
+    private volatile DcsBiosBlockListener[] blockListeners = new DcsBiosBlockListener[0];
+
+    // Listeners subscribed to specific addresses indexed by address.  Created on first subscription.
+    private volatile AtomicReferenceArray<DcsBiosDataListener[]> addressListeners;
 
     /**
      * Registers a data listener to this DCS-BIOS parser.  Data listeners are
@@ -35,10 +67,7 @@ public class DcsBiosParser {
      * @param listener Listener which will get notified
      */
     public synchronized void addDataListener(DcsBiosDataListener listener) {
-        if (listener == null) {
-            throw new NullPointerException("Can't add null listener.");
-        }
-        dataListeners.add(listener);
+        dataListeners = ListenerArrays.add(dataListeners, listener);
     }
 
     /**
@@ -47,7 +76,79 @@ public class DcsBiosParser {
      * @param listener Listener which will no longer be notified of new data.
      */
     public synchronized void removeDataListener(DcsBiosDataListener listener) {
-        dataListeners.remove(listener);
+        dataListeners = ListenerArrays.remove(dataListeners, listener);
+        metrics.listenerRemoved(listener);
+
+        AtomicReferenceArray<DcsBiosDataListener[]> table = addressListeners;
+        if (table != null) {
+            for (int address = 0; address < table.length(); address++) {
+                DcsBiosDataListener[] listeners = table.get(address);
+                if (listeners != null) {
+                    for (DcsBiosDataListener subscribed : listeners) {
+                        if (subscribed.equals(listener) || (subscribed instanceof MaskedDataListener
+                                && ((MaskedDataListener)subscribed).getListener().equals(listener))) {
+                            listeners = ListenerArrays.remove(listeners, subscribed);
+                            metrics.listenerRemoved(subscribed);
+                        }
+                    }
+                    table.set(address, listeners.length > 0 ? listeners : null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a data listener which is only notified of writes to a single
+     * address.  Use removeDataListener to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param address Address the listener is interested in.
+     */
+    public void addDataListener(DcsBiosDataListener listener, int address) {
+        addDataListener(listener, address, address);
+    }
+
+    /**
+     * Registers a data listener which is only notified of writes to addresses
+     * inside a range.  Use removeDataListener to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param startAddress First address the listener is interested in.
+     * @param endAddress Last address (inclusive) the listener is interested in.
+     */
+    public synchronized void addDataListener(DcsBiosDataListener listener, int startAddress, int endAddress) {
+        if (startAddress < 0 || endAddress > 0xffff || startAddress > endAddress) {
+            throw new IllegalArgumentException(String.format("Invalid address range 0x%04x-0x%04x.", startAddress, endAddress));
+        }
+        AtomicReferenceArray<DcsBiosDataListener[]> table = getAddressListeners();
+        for (int address = startAddress; address <= endAddress; address++) {
+            DcsBiosDataListener[] listeners = table.get(address);
+            table.set(address, ListenerArrays.add(listeners != null ? listeners : new DcsBiosDataListener[0], listener));
+        }
+    }
+
+    /**
+     * Registers a data listener which is notified of writes to a single address
+     * only when one of the bits in mask has changed since the last notification.
+     * The first write to the address is always delivered.  Use removeDataListener
+     * to remove all subscriptions for a listener.
+     *
+     * @param listener Listener which will get notified
+     * @param address Address the listener is interested in.
+     * @param mask Bits of the value the listener is interested in.
+     */
+    public void addMaskedDataListener(DcsBiosDataListener listener, int address, int mask) {
+        if (listener == null) {
+            throw new NullPointerException("Can't add null listener.");
+        }
+        addDataListener(new MaskedDataListener(listener, mask), address);
+    }
+
+    private AtomicReferenceArray<DcsBiosDataListener[]> getAddressListeners() {
+        if (addressListeners == null) {
+            addressListeners = new AtomicReferenceArray<>(0x10000);
+        }
+        return addressListeners;
     }
 
     /**
@@ -59,10 +160,7 @@ public class DcsBiosParser {
      * @param listener Listener to get sync events.
      */
     public synchronized void addSyncListener(DcsBiosSyncListener listener) {
-        if (listener == null) {
-            throw new NullPointerException("Can't add null listener.");
-        }
-        syncListeners.add(listener);
+        syncListeners = ListenerArrays.add(syncListeners, listener);
     }
 
     /**
@@ -71,7 +169,77 @@ public class DcsBiosParser {
      * @param listener Listener which will no longer be notified of sync events.
      */
     public synchronized void removeSyncListener(DcsBiosSyncListener listener) {
-        syncListeners.remove(listener);
+        syncListeners = ListenerArrays.remove(syncListeners, listener);
+        metrics.listenerRemoved(listener);
+    }
+
+    /**
+     * Registers a block listener to this DCS-BIOS parser.  Block listeners are
+     * notified once for each write block read from the DCS-BIOS stream.
+     *
+     * @param listener Listener which will get notified
+     */
+    public synchronized void addBlockListener(DcsBiosBlockListener listener) {
+        blockListeners = ListenerArrays.add(blockListeners, listener);
+    }
+
+    /**
+     * Removes a block listener from this DCS-BIOS parser.
+     *
+     * @param listener Listener which will no longer be notified of new data.
+     */
+    public synchronized void removeBlockListener(DcsBiosBlockListener listener) {
+        blockListeners = ListenerArrays.remove(blockListeners, listener);
+        metrics.listenerRemoved(listener);
+    }
+
+    /**
+     * Registers a frame change listener to this DCS-BIOS parser.  Frame change
+     * listeners are notified at the end of a frame with the addresses which
+     * changed during the frame.  They are only notified while in notify changes
+     * only mode.
+     *
+     * @param listener Listener to get frame change events.
+     */
+    public synchronized void addFrameChangeListener(DcsBiosFrameChangeListener listener) {
+        frameChangeListeners = ListenerArrays.add(frameChangeListeners, listener);
+    }
+
+    /**
+     * Removes a frame change listener from this DCS-BIOS parser.
+     *
+     * @param listener Listener which will no longer be notified of frame change events.
+     */
+    public synchronized void removeFrameChangeListener(DcsBiosFrameChangeListener listener) {
+        frameChangeListeners = ListenerArrays.remove(frameChangeListeners, listener);
+        metrics.listenerRemoved(listener);
+    }
+
+    /**
+     * Checks if the parser is in notify changes only mode.
+     *
+     * @return True if data listeners are only notified of changed values.
+     */
+    public boolean isNotifyChangesOnly() {
+        return notifyChangesOnly;
+    }
+
+    /**
+     * Sets notify changes only mode.  In this mode each write is compared against the last
+     * value delivered for that address and data listeners are only notified when the
+     * value has changed.  Frame change listeners receive the set of changed addresses
+     * at the end of each frame.  Enabling the mode forgets all previously delivered
+     * values so the next write to each address is always delivered.
+     *
+     * @param notifyChangesOnly True to only notify data listeners of changed values.
+     */
+    public synchronized void setNotifyChangesOnly(boolean notifyChangesOnly) {
+        if (notifyChangesOnly && !this.notifyChangesOnly) {
+            int[] values = new int[DcsBiosExportImage.SIZE];
+            Arrays.fill(values, -1);
+            lastValues = values;
+        }
+        this.notifyChangesOnly = notifyChangesOnly;
     }
 
     /**
@@ -82,8 +250,114 @@ public class DcsBiosParser {
      * @param length Number of bytes to process.
      */
     public void processData(byte[] buffer, int offset, int length) {
-        for (int i=0; i<length; i++) {
-            processData(buffer[offset+i]);
+        int i = offset;
+        final int end = offset + length;
+
+        while (i < end) {
+            switch (state) {
+                case WAIT_FOR_SYNC:
+                    // Nothing but a sync marker can get us out of this state so skip
+                    // straight to the next candidate sync byte.
+                    while (i < end && buffer[i] != SYNC_BYTE) {
+                        i++;
+                        syncByteCount = 0;
+                    }
+                    break;
+
+                case ADDRESS_LOW:
+                    // Whole write block header is available and can not contain part of a
+                    // sync marker so decode address and count in one step.
+                    if (end - i >= 4 && buffer[i] != SYNC_BYTE && buffer[i+1] != SYNC_BYTE
+                            && buffer[i+2] != SYNC_BYTE && buffer[i+3] != SYNC_BYTE) {
+                        address = (buffer[i] & 0xff) | (buffer[i+1] & 0xff) << 8;
+                        remaining = (buffer[i+2] & 0xff) | (buffer[i+3] & 0xff) << 8;
+                        state = ParserState.DATA_LOW;
+                        syncByteCount = 0;
+                        i += 4;
+                        continue;
+                    }
+                    break;
+
+                case DATA_LOW:
+                    int next = processWords(buffer, i, end);
+                    if (next != i) {
+                        i = next;
+                        continue;
+                    }
+                    break;
+
+                default:
+                    break;
+            }
+
+            // Anything the fast paths can't handle (partial headers or words at the end
+            // of a packet and possible sync markers) goes through the byte state machine.
+            if (i < end) {
+                processByte(buffer[i++]);
+            }
+        }
+
+        metrics.dataProcessed(length, decodedWords);
+        decodedWords = 0;
+    }
+
+    /**
+     * Decodes consecutive data words of the current write block straight out of
+     * the buffer.  Stops at the end of the block, the end of the buffer or at
+     * any word containing a sync byte, which is left for the byte state machine.
+     *
+     * @param buffer Buffer containing the DCS-BIOS stream.
+     * @param i Index of the low byte of the next data word.
+     * @param end Index one past the last byte to process.
+     * @return Index of the first byte which was not processed.
+     */
+    private int processWords(byte[] buffer, int i, int end) {
+        while (end - i >= 2) {
+            byte low = buffer[i];
+            byte high = buffer[i+1];
+            if (low == SYNC_BYTE || high == SYNC_BYTE) {
+                break;
+            }
+
+            i += 2;
+            syncByteCount = 0;
+            value = (low & 0xff) | (high & 0xff) << 8;
+            remaining -= 2;
+            if (remaining == 0) {
+                state = ParserState.ADDRESS_LOW;
+                if (address == 0xfffe) {
+                    frameSync();
+                }
+                else {
+                    dataWritten();
+                    notifyBlockListeners();
+                }
+                break;
+            }
+
+            dataWritten();
+            address += 2;
+        }
+        return i;
+    }
+
+    /**
+     * Process DCS-BIOS stream data from a byte buffer.  Data between the buffer's
+     * position and limit is processed and the position is advanced to the limit.
+     *
+     * @param buffer Buffer containing the DCS-BIOS stream.
+     */
+    public void processData(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            processData(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        }
+        else {
+            while (buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), scratch.length);
+                buffer.get(scratch, 0, length);
+                processData(scratch, 0, length);
+            }
         }
     }
 
@@ -94,6 +368,21 @@ public class DcsBiosParser {
      */
     @SuppressWarnings("WeakerAccess")
     public void processData(byte data) {
+        processByte(data);
+        metrics.dataProcessed(1, decodedWords);
+        decodedWords = 0;
+    }
+
+    /**
+     * Runs the byte state machine for the next byte of the stream.
+     *
+     * @param data Byte to process.
+     */
+    private void processByte(byte data) {
+        if (data == SYNC_BYTE && syncByteCount == 0) {
+            syncStartState = state;
+        }
+
         switch (state) {
             case WAIT_FOR_SYNC:
                 // Sync markers are processed outside loop no mater
@@ -137,14 +426,15 @@ public class DcsBiosParser {
                 if (remaining == 0) {
                     state = ParserState.ADDRESS_LOW;
                     if (address == 0xfffe) {
-                        notifySyncListeners();
+                        frameSync();
                     }
                     else {
-                        notifyDataListeners();
+                        dataWritten();
+                        notifyBlockListeners();
                     }
                 }
                 else {
-                    notifyDataListeners();
+                    dataWritten();
                     address += 2;
                     state = ParserState.DATA_LOW;
                 }
@@ -154,12 +444,23 @@ public class DcsBiosParser {
         // We need to check for sync markers out side state in case we have lost data.
         // Transmitter of stream is responsible for preventing sync marker pattern is
         // present in real data.
-        if (data == 0x55) {
+        if (data == SYNC_BYTE) {
             syncByteCount++;
             // When we have 4 sync bytes in a row start looking for an address.
             if (syncByteCount == 4) {
                 state = ParserState.ADDRESS_LOW;
                 syncByteCount = 0;
+                // A marker which did not start between write blocks means stream data was lost.
+                if (syncStartState != ParserState.ADDRESS_LOW && syncStartState != ParserState.WAIT_FOR_SYNC) {
+                    metrics.resync();
+                }
+                if (frameInProgress) {
+                    metrics.frameTruncated();
+                }
+                frameInProgress = true;
+                // Data written since the last frame sync belongs to a frame which was cut short.
+                notifyBlockListeners();
+                exportImage.discard();
             }
         }
         else {
@@ -167,20 +468,130 @@ public class DcsBiosParser {
         }
     }
 
+    /**
+     * Export memory image maintained by this parser.  The image is published at
+     * the end of each complete frame and can be read from any thread.
+     *
+     * @return Export memory image for this parser.
+     */
+    public DcsBiosExportImage getExportImage() {
+        return exportImage;
+    }
+
+    /**
+     * Traffic metrics for this parser.  Receivers feeding the parser record
+     * received packets in the same metrics.
+     *
+     * @return Metrics for this parser.
+     */
+    public DcsBiosMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Helper method called for each decoded data word.
+     */
+    private void dataWritten() {
+        decodedWords++;
+        exportImage.write(address, value);
+        appendBlockValue();
+        if (notifyChangesOnly && address < DcsBiosExportImage.SIZE) {
+            if (lastValues[address] == value) {
+                return;
+            }
+            lastValues[address] = value;
+            dirtyAddresses.set(address);
+        }
+        notifyDataListeners();
+    }
+
+    /**
+     * Helper method called when the end of frame marker is decoded.
+     */
+    private void frameSync() {
+        decodedWords++;
+        frameInProgress = false;
+        metrics.frameCompleted();
+        exportImage.write(address, value);
+        exportImage.publish();
+        notifySyncListeners();
+        if (notifyChangesOnly) {
+            notifyFrameChangeListeners();
+        }
+        dirtyAddresses.clear();
+    }
+
+    /**
+     * Helper method which adds the current data word to the current write block.
+     */
+    private void appendBlockValue() {
+        if (blockCount == blockValues.length) {
+            if (blockValues.length < MAX_BLOCK_VALUES) {
+                blockValues = Arrays.copyOf(blockValues, blockValues.length * 2);
+            }
+            else {
+                // Only a corrupt block can get this long, hand out what we have and carry on.
+                notifyBlockListeners();
+            }
+        }
+        if (blockCount == 0) {
+            blockAddress = address;
+        }
+        blockValues[blockCount++] = value;
+    }
+
+    /**
+     * Helper method which notifies all block listeners of the current write block.
+     */
+    private void notifyBlockListeners() {
+        if (blockCount == 0) {
+            return;
+        }
+        boolean timing = metrics.isListenerTimingEnabled();
+        for(DcsBiosBlockListener listener : blockListeners) {
+            long start = timing ? System.nanoTime() : 0;
+            try {
+                listener.dcsBiosBlockWritten(blockAddress, blockValues, 0, blockCount);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS block handler %s.", listener.getClass().getName()), ex);
+            }
+            if (timing) {
+                metrics.listenerInvoked(listener, System.nanoTime() - start);
+            }
+        }
+        blockCount = 0;
+    }
+
     /**
      * Helper method which notifies all data listeners.
      */
     private void notifyDataListeners() {
-        Set<DcsBiosDataListener> s;
-        synchronized (this) {
-            s = new LinkedHashSet<>(dataListeners);
+        notifyDataListeners(dataListeners);
+
+        AtomicReferenceArray<DcsBiosDataListener[]> table = addressListeners;
+        if (table != null && address <= 0xffff) {
+            DcsBiosDataListener[] listeners = table.get(address);
+            if (listeners != null) {
+                notifyDataListeners(listeners);
+            }
         }
-        for(DcsBiosDataListener listener : s) {
+    }
+
+    /**
+     * Helper method which notifies a set of data listeners.
+     */
+    private void notifyDataListeners(DcsBiosDataListener[] listeners) {
+        boolean timing = metrics.isListenerTimingEnabled();
+        for(DcsBiosDataListener listener : listeners) {
+            long start = timing ? System.nanoTime() : 0;
             try {
                 listener.dcsBiosDataWritten(address, value);
             } catch (Exception ex) {
                 LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS data handler %s.", listener.getClass().getName()), ex);
             }
+            if (timing) {
+                metrics.listenerInvoked(listener, System.nanoTime() - start);
+            }
         }
     }
 
@@ -188,16 +599,35 @@ public class DcsBiosParser {
      * Helper method which notifies all sync listeners.
      */
     private void notifySyncListeners() {
-        Set<DcsBiosSyncListener> s;
-        synchronized (this) {
-            s = new LinkedHashSet<>(syncListeners);
-        }
-        for(DcsBiosSyncListener listener : s) {
+        boolean timing = metrics.isListenerTimingEnabled();
+        for(DcsBiosSyncListener listener : syncListeners) {
+            long start = timing ? System.nanoTime() : 0;
             try {
                 listener.dcsBiosFrameSyncReceived();
             } catch (Exception ex) {
                 LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS sync handler %s.", listener.getClass().getName()), ex);
             }
+            if (timing) {
+                metrics.listenerInvoked(listener, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Helper method which notifies all frame change listeners.
+     */
+    private void notifyFrameChangeListeners() {
+        boolean timing = metrics.isListenerTimingEnabled();
+        for(DcsBiosFrameChangeListener listener : frameChangeListeners) {
+            long start = timing ? System.nanoTime() : 0;
+            try {
+                listener.dcsBiosFrameChanged(dirtyAddresses);
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS frame change handler %s.", listener.getClass().getName()), ex);
+            }
+            if (timing) {
+                metrics.listenerInvoked(listener, System.nanoTime() - start);
+            }
         }
     }
 }
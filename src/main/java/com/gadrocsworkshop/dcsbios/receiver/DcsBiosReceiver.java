@@ -1,7 +1,13 @@
 package com.gadrocsworkshop.dcsbios.receiver;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+/**
+ * Source of DCS-BIOS export data which also sends commands back to DCS-BIOS.
+ * Subscriptions by address, block listeners, the export image and metrics are
+ * provided by AbstractDcsBiosReceiver on top of a DcsBiosParser.
+ */
 public interface DcsBiosReceiver {
 
     /**
@@ -76,4 +82,33 @@ public interface DcsBiosReceiver {
      * @throws IOException Thrown if an error occurs sending the datagram.
      */
     void sendCommand(byte[] command) throws IOException;
+
+    /**
+     * Sends a command back to the DCS-BIOS.  The bytes may contain several newline
+     * separated commands which are sent in a single datagram.
+     *
+     * @param buffer Buffer containing the command to send to DCS-BIOS
+     * @param offset Offset into the buffer where the command starts.
+     * @param length Number of bytes to send.
+     * @throws IOException Thrown if an error occurs sending the datagram.
+     */
+    default void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        sendCommand(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    /**
+     * Sends a command back to the DCS-BIOS, reporting whether it was sent.  The
+     * sendCommand methods silently drop commands while the receiver is stopped or
+     * has not yet received a packet telling it where DCS-BIOS is.
+     *
+     * @param buffer Buffer containing the command to send to DCS-BIOS
+     * @param offset Offset into the buffer where the command starts.
+     * @param length Number of bytes to send.
+     * @return True if the datagram was sent, false if it was dropped.
+     * @throws IOException Thrown if an error occurs sending the datagram.
+     */
+    default boolean trySendCommand(byte[] buffer, int offset, int length) throws IOException {
+        sendCommand(buffer, offset, length);
+        return true;
+    }
 }
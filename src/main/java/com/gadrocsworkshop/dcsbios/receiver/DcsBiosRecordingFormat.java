@@ -0,0 +1,63 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of DCS-BIOS stream recordings.  All values are little endian.
+ * <p>
+ * A recording starts with a 16 byte header: the magic bytes "DCBR", a two byte
+ * format version, a two byte header size and the eight byte wall clock time the
+ * recording started in milliseconds since the epoch.  The header is followed by
+ * records, each made of a four byte time in microseconds since the previous record
+ * (or the start of the recording for the first one), a two byte data length and
+ * the stream data itself.
+ */
+final class DcsBiosRecordingFormat {
+
+    static final int MAGIC = 'D' | 'C' << 8 | 'B' << 16 | 'R' << 24;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 6;
+    static final int MAX_RECORD_LENGTH = 0xffff;
+    static final long MAX_DELTA_MICROS = 0xffffffffL;
+
+    private DcsBiosRecordingFormat() {
+    }
+
+    /**
+     * Writes a recording header.
+     *
+     * @param buffer Little endian buffer to write the header into.
+     * @param startTime Time the recording started in milliseconds since the epoch.
+     */
+    static void writeHeader(ByteBuffer buffer, long startTime) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short)HEADER_SIZE);
+        buffer.putLong(startTime);
+    }
+
+    /**
+     * Reads and validates a recording header.
+     *
+     * @param buffer Buffer positioned at the start of the recording.
+     * @return Time the recording started in milliseconds since the epoch.
+     * @throws IOException Thrown if the buffer does not contain a supported recording.
+     */
+    static long readHeader(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a DCS-BIOS stream recording.");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported DCS-BIOS recording version %d.", version));
+        }
+        int headerSize = buffer.getShort() & 0xffff;
+        long startTime = buffer.getLong();
+        buffer.position(headerSize);
+        return startTime;
+    }
+}
@@ -0,0 +1,277 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receiver which replays a recording made by DcsBiosStreamRecorder.  The recording is
+ * memory-mapped and replayed in real time, at a multiple of real time or as fast as
+ * possible.  Commands sent to this receiver are discarded.
+ */
+public class DcsBiosReplayReceiver extends AbstractDcsBiosReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosReplayReceiver.class.getName());
+
+    /**
+     * Speed which replays the recording without any delay between packets.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    // Recordings larger than this are mapped a region at a time.
+    private static final long MAX_REGION_SIZE = 1 << 30;
+
+    private final Path file;
+    private final byte[] packet = new byte[DcsBiosRecordingFormat.MAX_RECORD_LENGTH];
+
+    private volatile double speed = 1;
+    private volatile boolean looping = false;
+    private volatile boolean running = false;
+    private volatile long replayedCount = 0;
+
+    private FileChannel channel;
+    private Thread thread;
+
+    /**
+     * Creates a new replay receiver.
+     *
+     * @param file Recording to replay.
+     */
+    public DcsBiosReplayReceiver(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Speed the recording is replayed at.
+     *
+     * @return Multiple of real time, or AS_FAST_AS_POSSIBLE.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sets the speed the recording is replayed at.  Can be changed during replay.
+     *
+     * @param speed Multiple of real time, 1 for real time or AS_FAST_AS_POSSIBLE for no delay.
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("Replay speed must not be negative.");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Sets whether replay starts over from the beginning when the end of the recording is reached.
+     *
+     * @param looping True to loop the recording.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * Number of packets replayed since the receiver was started.
+     *
+     * @return Replayed packet count.
+     */
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * Checks to see if the recording is being replayed.
+     *
+     * @return True if the receiver is running, false otherwise.
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Waits for replay to reach the end of the recording.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     * @return True if replay finished, false if the timeout expired first.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join(Math.max(1, unit.toMillis(timeout)));
+            return !t.isAlive();
+        }
+        return true;
+    }
+
+    @Override
+    public void start() {
+        // A replay which is still stopping closes the recording when it exits.
+        awaitStopped();
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error opening DCS-BIOS recording.", e);
+            }
+
+            running = true;
+            replayedCount = 0;
+            thread = new Thread(this::run, "DCS-BIOS Replay Receiver");
+            thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            LockSupport.unpark(thread);
+        }
+        awaitStopped();
+    }
+
+    @Override
+    public void sendCommand(byte[] buffer, int offset, int length) {
+        trySendCommand(buffer, offset, length);
+    }
+
+    @Override
+    public boolean trySendCommand(byte[] buffer, int offset, int length) {
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer(String.format("Discarding command during replay: %s", new String(buffer, offset, length).trim()));
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a stopped receive thread to exit.  Called without holding the lock so
+     * listeners on the receive thread can still call synchronized methods.
+     */
+    private void awaitStopped() {
+        Thread t;
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            t = thread;
+        }
+        if (t != null && Thread.currentThread() != t) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replay loop.
+     */
+    private void run() {
+        LOGGER.fine("Entering replay loop.");
+        try {
+            do {
+                replay();
+            } while (running && looping);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error reading DCS-BIOS recording. Stopping replay.", e);
+        } finally {
+            running = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing DCS-BIOS recording.", e);
+            }
+        }
+        LOGGER.fine("Exiting replay loop.");
+    }
+
+    /**
+     * Replays the recording once from the beginning.
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        MappedByteBuffer region = map(0, size);
+        DcsBiosRecordingFormat.readHeader(region);
+        long regionStart = 0;
+
+        // Packets are scheduled relative to a base which moves whenever the speed changes.
+        double currentSpeed = speed;
+        long baseNanos = System.nanoTime();
+        long baseRecordNanos = 0;
+        long recordNanos = 0;
+
+        while (running) {
+            if (region.remaining() < DcsBiosRecordingFormat.RECORD_HEADER_SIZE) {
+                regionStart += region.position();
+                if (size - regionStart < DcsBiosRecordingFormat.RECORD_HEADER_SIZE) {
+                    break;
+                }
+                region = map(regionStart, size);
+            }
+            region.mark();
+            long delta = region.getInt() & 0xffffffffL;
+            int length = region.getShort() & 0xffff;
+            if (region.remaining() < length) {
+                if (regionStart + region.position() + length > size) {
+                    LOGGER.warning("DCS-BIOS recording ends with a partial packet.");
+                    break;
+                }
+                region.reset();
+                regionStart += region.position();
+                region = map(regionStart, size);
+                continue;
+            }
+            region.get(packet, 0, length);
+            recordNanos += TimeUnit.MICROSECONDS.toNanos(delta);
+
+            double requestedSpeed = speed;
+            if (requestedSpeed != currentSpeed) {
+                currentSpeed = requestedSpeed;
+                baseNanos = System.nanoTime();
+                baseRecordNanos = recordNanos;
+            }
+            if (currentSpeed != AS_FAST_AS_POSSIBLE) {
+                long target = baseNanos + (long)((recordNanos - baseRecordNanos) / currentSpeed);
+                long wait;
+                while (running && (wait = target - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+            if (!running) {
+                break;
+            }
+
+            packetReceived();
+            getParser().processData(packet, 0, length);
+            notifyStreamListeners(packet, 0, length);
+            replayedCount++;
+        }
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAX_REGION_SIZE));
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        return region;
+    }
+}
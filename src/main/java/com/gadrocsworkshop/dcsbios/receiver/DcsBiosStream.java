@@ -0,0 +1,185 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * One DCS-BIOS stream hosted by a DcsBiosMultiStreamReceiver.  Each stream has
+ * its own parser and listeners and sends commands back to the DCS instance its
+ * data came from.  Starting and stopping a stream only enables or disables
+ * processing, the owning multi stream receiver controls the network threads.
+ */
+public class DcsBiosStream extends AbstractDcsBiosReceiver {
+
+    private static final int MAX_COMMAND_SIZE = 0x10000;
+
+    private final InetAddress groupAddress;
+    private final int port;
+
+    private volatile boolean enabled = true;
+    private volatile int dcsPort = 7778;
+    private volatile DatagramChannel channel;
+    private volatile InetAddress dcsAddress = null;
+    private volatile InetSocketAddress commandAddress = null;
+    private final ByteBuffer commandBuffer = ByteBuffer.allocateDirect(MAX_COMMAND_SIZE);
+
+    DcsBiosStream(InetAddress groupAddress, int port) {
+        this.groupAddress = groupAddress;
+        this.port = port;
+    }
+
+    /**
+     * Multicast group address this stream listens on.
+     *
+     * @return Group address, null if the stream only receives packets sent to this computer.
+     */
+    public InetAddress getGroupAddress() {
+        return groupAddress;
+    }
+
+    /**
+     * Port this stream listens on.
+     *
+     * @return Port number.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Address of the DCS-BIOS server this stream is receiving packets from.
+     *
+     * @return InetAddress object containing address of the DCS-BIOS server. Null if we have not received any packets yet.
+     */
+    public InetAddress getDcsAddress() {
+        return dcsAddress;
+    }
+
+    /**
+     * Port which commands are sent to DCS-BIOS on.
+     *
+     * @return Port number used to send DCS-BIOS commands to.
+     */
+    public int getDcsPort() {
+        return dcsPort;
+    }
+
+    /**
+     * Sets port number which commands will be sent to DCS-BIOS on.
+     *
+     * @param dcsPort Port number used to send DCS-BIOS commands to.
+     */
+    public void setDcsPort(int dcsPort) {
+        this.dcsPort = dcsPort;
+        InetAddress address = dcsAddress;
+        commandAddress = address != null ? new InetSocketAddress(address, dcsPort) : null;
+    }
+
+    /**
+     * Checks if packets received on this stream are being processed.
+     *
+     * @return True if the stream is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables processing of packets received on this stream.
+     */
+    @Override
+    public void start() {
+        enabled = true;
+    }
+
+    /**
+     * Disables processing of packets received on this stream.  Packets are still read
+     * from the network and discarded.
+     */
+    @Override
+    public void stop() {
+        enabled = false;
+    }
+
+    @Override
+    public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        trySendCommand(buffer, offset, length);
+    }
+
+    @Override
+    public boolean trySendCommand(byte[] buffer, int offset, int length) throws IOException {
+        DatagramChannel c = channel;
+        InetSocketAddress target = commandAddress;
+        if (target != null && c != null && c.isOpen()) {
+            synchronized (commandBuffer) {
+                commandBuffer.clear();
+                commandBuffer.put(buffer, offset, length);
+                commandBuffer.flip();
+                c.send(commandBuffer, target);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    void setChannel(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Reads and processes all packets waiting on the channel.
+     *
+     * @param buffer Buffer to receive packets into.
+     * @param streamBuffer Array to copy packets into for stream listeners, at least as large as buffer.
+     * @throws IOException Thrown if there is an error receiving from the channel.
+     */
+    void readPackets(ByteBuffer buffer, byte[] streamBuffer) throws IOException {
+        // The stream can be removed, closing and clearing the channel, at any time.
+        DatagramChannel c = channel;
+        if (c == null) {
+            return;
+        }
+        while (true) {
+            buffer.clear();
+            SocketAddress source = c.receive(buffer);
+            if (source == null) {
+                return;
+            }
+            if (!enabled) {
+                continue;
+            }
+            buffer.flip();
+            packetReceived();
+            updateDcsAddress(source);
+
+            if (hasStreamListeners()) {
+                // Stream listeners need an array, parse that copy rather than copying again.
+                int length = buffer.remaining();
+                buffer.get(streamBuffer, 0, length);
+                getParser().processData(streamBuffer, 0, length);
+                notifyStreamListeners(streamBuffer, 0, length);
+            }
+            else {
+                getParser().processData(buffer);
+            }
+        }
+    }
+
+    private void updateDcsAddress(SocketAddress source) {
+        if (source instanceof InetSocketAddress) {
+            InetAddress address = ((InetSocketAddress)source).getAddress();
+            if (!address.equals(dcsAddress)) {
+                dcsAddress = address;
+                commandAddress = new InetSocketAddress(address, dcsPort);
+            }
+        }
+    }
+}
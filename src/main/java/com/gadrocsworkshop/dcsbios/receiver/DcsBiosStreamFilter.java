@@ -0,0 +1,107 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Rebuilds the DCS-BIOS export stream keeping only the writes to addresses inside
+ * an address filter.  Write blocks are clipped to the filter's ranges and each
+ * frame is passed on with its sync marker and update counter, so consumers which
+ * only drive a few panels get a valid stream a fraction of the size.
+ *
+ * Register the filter as both a block and sync listener on a receiver.
+ */
+public class DcsBiosStreamFilter implements DcsBiosBlockListener, DcsBiosSyncListener {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int END_OF_FRAME_SIZE = DcsBiosStreamWriter.BLOCK_HEADER_SIZE + 2;
+
+    private final DcsBiosAddressFilter filter;
+    private final DcsBiosStreamListener target;
+    private final DcsBiosStreamWriter writer = new DcsBiosStreamWriter(new byte[BUFFER_SIZE]);
+
+    private int updateCounter = 0;
+    private volatile long frameCount = 0;
+    private volatile long byteCount = 0;
+
+    /**
+     * Creates a new stream filter.
+     *
+     * @param filter Addresses to keep.
+     * @param target Listener which receives the filtered stream.
+     */
+    public DcsBiosStreamFilter(DcsBiosAddressFilter filter, DcsBiosStreamListener target) {
+        this.filter = filter;
+        this.target = target;
+        writer.writeSync();
+    }
+
+    /**
+     * Number of frames which have been passed on.
+     *
+     * @return Filtered frame count.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Number of bytes of filtered stream sent to the target.
+     *
+     * @return Filtered byte count.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void dcsBiosBlockWritten(int startAddress, int[] values, int offset, int count) {
+        long[] words = filter.getWords();
+        int first = startAddress >>> 1;
+        int i = 0;
+        while (i < count) {
+            while (i < count && !isSet(words, first + i)) {
+                i++;
+            }
+            int start = i;
+            while (i < count && isSet(words, first + i)) {
+                i++;
+            }
+            if (i > start) {
+                write((first + start) * 2, values, offset + start, i - start);
+            }
+        }
+    }
+
+    @Override
+    public void dcsBiosFrameSyncReceived() {
+        writer.writeEndOfFrame(updateCounter++);
+        frameCount++;
+        flush();
+        writer.writeSync();
+    }
+
+    private void write(int address, int[] values, int offset, int count) {
+        int maxCount = (writer.getBuffer().length - DcsBiosStreamWriter.BLOCK_HEADER_SIZE - END_OF_FRAME_SIZE) / 2;
+        while (count > 0) {
+            int length = Math.min(count, maxCount);
+            if (writer.remaining() < DcsBiosStreamWriter.BLOCK_HEADER_SIZE + length * 2 + END_OF_FRAME_SIZE) {
+                // Frame is too big to buffer, pass on what we have and carry on with the rest.
+                flush();
+            }
+            writer.writeBlock(address, values, offset, length);
+            address += length * 2;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    private void flush() {
+        if (writer.getLength() > 0) {
+            byteCount += writer.getLength();
+            target.dcsBiosStreamDataReceived(writer.getBuffer(), 0, writer.getLength());
+            writer.reset();
+        }
+    }
+
+    private static boolean isSet(long[] words, int word) {
+        return word < words.length * 64 && (words[word >>> 6] & (1L << word)) != 0;
+    }
+}
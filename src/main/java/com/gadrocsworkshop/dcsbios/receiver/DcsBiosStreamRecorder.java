@@ -0,0 +1,184 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stream listener which records the raw DCS-BIOS stream to a file for later replay
+ * with DcsBiosReplayReceiver.  Received data is copied into preallocated slots and
+ * written by a background thread, so the receive thread never waits on the disk.
+ * If the writer falls behind and every slot is full, new data is dropped and counted.
+ */
+public class DcsBiosStreamRecorder implements DcsBiosStreamListener, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DcsBiosStreamRecorder.class.getName());
+
+    private static final int SLOT_SIZE = 2048;
+    private static final int WRITE_BUFFER_SIZE = 0x10000;
+
+    private final FileChannel channel;
+    private final DcsBiosPacketRing ring;
+    private final Thread thread;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private DcsBiosPacketRing.Slot slot;
+    private long lastTimestamp;
+    private volatile boolean closed = false;
+    private volatile long recordedCount = 0;
+    private volatile IOException writeError;
+
+    /**
+     * Creates a new recorder with room to buffer 1024 packets.
+     *
+     * @param file File to record to, replaced if it already exists.
+     * @throws IOException Thrown if the file can not be created.
+     */
+    public DcsBiosStreamRecorder(Path file) throws IOException {
+        this(file, 1024);
+    }
+
+    /**
+     * Creates a new recorder.
+     *
+     * @param file File to record to, replaced if it already exists.
+     * @param capacity Number of packets which can wait to be written.
+     * @throws IOException Thrown if the file can not be created.
+     */
+    public DcsBiosStreamRecorder(Path file, int capacity) throws IOException {
+        this.ring = new DcsBiosPacketRing(capacity, SLOT_SIZE, DcsBiosOverflowPolicy.DROP_NEWEST);
+        this.slot = ring.acquire();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        lastTimestamp = System.nanoTime();
+        DcsBiosRecordingFormat.writeHeader(writeBuffer, System.currentTimeMillis());
+
+        thread = new Thread(this::run, "DCS-BIOS Stream Recorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void dcsBiosStreamDataReceived(byte[] data, int offset, int length) {
+        if (closed) {
+            return;
+        }
+        long timestamp = System.nanoTime();
+        while (length > 0) {
+            int chunk = Math.min(length, slot.data.length);
+            System.arraycopy(data, offset, slot.data, 0, chunk);
+            slot.length = chunk;
+            slot.timestamp = timestamp;
+            try {
+                slot = ring.publish(slot);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Number of packets written to the file.
+     *
+     * @return Recorded packet count.
+     */
+    public long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * Number of packets dropped because the writer could not keep up.
+     *
+     * @return Dropped packet count.
+     */
+    public long getDroppedCount() {
+        return ring.getDroppedCount();
+    }
+
+    /**
+     * Writes any buffered packets and closes the file.  Packets received after
+     * close are ignored.
+     *
+     * @throws IOException Thrown if the recording could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ring.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * Writer loop which moves packets from the ring to the file.
+     */
+    private void run() {
+        try {
+            while (true) {
+                DcsBiosPacketRing.Slot filled = ring.take(100, TimeUnit.MILLISECONDS);
+                if (filled == null) {
+                    flush();
+                    if (closed && ring.size() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    write(filled);
+                } finally {
+                    ring.release(filled);
+                }
+                if (ring.size() == 0) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error writing DCS-BIOS recording. Recording stopped.", e);
+            writeError = e;
+            closed = true;
+            ring.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(DcsBiosPacketRing.Slot filled) throws IOException {
+        if (writeBuffer.remaining() < DcsBiosRecordingFormat.RECORD_HEADER_SIZE + filled.length) {
+            flush();
+        }
+        long delta = TimeUnit.NANOSECONDS.toMicros(filled.timestamp - lastTimestamp);
+        lastTimestamp = filled.timestamp;
+        writeBuffer.putInt((int)Math.max(0, Math.min(delta, DcsBiosRecordingFormat.MAX_DELTA_MICROS)));
+        writeBuffer.putShort((short)filled.length);
+        writeBuffer.put(filled.data, 0, filled.length);
+        recordedCount++;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+}
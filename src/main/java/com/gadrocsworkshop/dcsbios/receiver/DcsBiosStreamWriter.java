@@ -0,0 +1,175 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.nio.BufferOverflowException;
+
+/**
+ * Encodes DCS-BIOS export stream data: frame sync markers, blocks of 16 bit values
+ * written to consecutive addresses and the end of frame update counter.  Data is
+ * written into a caller supplied array so encoding does not allocate.
+ */
+public class DcsBiosStreamWriter {
+
+    /**
+     * Address DCS-BIOS writes its update counter to at the end of every frame.
+     */
+    public static final int UPDATE_COUNTER_ADDRESS = 0xfffe;
+
+    /**
+     * Number of bytes used by a block before its values.
+     */
+    public static final int BLOCK_HEADER_SIZE = 4;
+
+    /**
+     * Number of bytes used by a frame sync marker.
+     */
+    public static final int SYNC_SIZE = 4;
+
+    private final byte[] buffer;
+    private int position = 0;
+
+    /**
+     * Creates a new stream writer.
+     *
+     * @param buffer Array to encode the stream into.
+     */
+    public DcsBiosStreamWriter(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Array the stream is encoded into.
+     *
+     * @return Stream buffer.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Number of bytes encoded since the writer was created or last reset.
+     *
+     * @return Encoded length.
+     */
+    public int getLength() {
+        return position;
+    }
+
+    /**
+     * Number of bytes which can still be encoded.
+     *
+     * @return Remaining space in the buffer.
+     */
+    public int remaining() {
+        return buffer.length - position;
+    }
+
+    /**
+     * Discards everything encoded so far.
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * Writes the frame sync marker which starts every frame.
+     */
+    public void writeSync() {
+        ensureRemaining(SYNC_SIZE);
+        for (int i = 0; i < SYNC_SIZE; i++) {
+            buffer[position++] = 0x55;
+        }
+    }
+
+    /**
+     * Writes a block of values to consecutive addresses.
+     *
+     * @param address Address of the first value, must be even.
+     * @param values Array containing the 16 bit values.
+     * @param offset Index of the first value to write.
+     * @param count Number of values to write.
+     */
+    public void writeBlock(int address, int[] values, int offset, int count) {
+        ensureRemaining(BLOCK_HEADER_SIZE + count * 2);
+        writeHeader(address, count);
+        for (int i = 0; i < count; i++) {
+            int value = values[offset + i];
+            buffer[position++] = (byte)value;
+            buffer[position++] = (byte)(value >> 8);
+        }
+    }
+
+    /**
+     * Writes a block of values to consecutive addresses.
+     *
+     * @param address Address of the first value, must be even.
+     * @param values Array containing the 16 bit values.
+     * @param offset Index of the first value to write.
+     * @param count Number of values to write.
+     */
+    public void writeBlock(int address, char[] values, int offset, int count) {
+        ensureRemaining(BLOCK_HEADER_SIZE + count * 2);
+        writeHeader(address, count);
+        for (int i = 0; i < count; i++) {
+            char value = values[offset + i];
+            buffer[position++] = (byte)value;
+            buffer[position++] = (byte)(value >> 8);
+        }
+    }
+
+    /**
+     * Writes a block of raw little endian data to consecutive addresses.
+     *
+     * @param address Address of the first value, must be even.
+     * @param data Array containing the data, two bytes per value.
+     * @param offset Offset into data of the first byte to write.
+     * @param length Number of bytes to write, must be even.
+     */
+    public void writeBlock(int address, byte[] data, int offset, int length) {
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException(String.format("Block length %d is not a whole number of words.", length));
+        }
+        ensureRemaining(BLOCK_HEADER_SIZE + length);
+        writeHeader(address, length / 2);
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes a single value.
+     *
+     * @param address Address of the value, must be even.
+     * @param value 16 bit value.
+     */
+    public void writeValue(int address, int value) {
+        ensureRemaining(BLOCK_HEADER_SIZE + 2);
+        writeHeader(address, 1);
+        buffer[position++] = (byte)value;
+        buffer[position++] = (byte)(value >> 8);
+    }
+
+    /**
+     * Writes the update counter which ends every frame.
+     *
+     * @param counter Frame counter, only the low 16 bits are sent.
+     */
+    public void writeEndOfFrame(int counter) {
+        writeValue(UPDATE_COUNTER_ADDRESS, counter);
+    }
+
+    private void writeHeader(int address, int count) {
+        if ((address & 1) != 0) {
+            throw new IllegalArgumentException(String.format("Address 0x%04x is not word aligned.", address));
+        }
+        int length = count * 2;
+        buffer[position++] = (byte)address;
+        buffer[position++] = (byte)(address >> 8);
+        buffer[position++] = (byte)length;
+        buffer[position++] = (byte)(length >> 8);
+    }
+
+    private void ensureRemaining(int length) {
+        if (remaining() < length) {
+            throw new BufferOverflowException();
+        }
+    }
+}
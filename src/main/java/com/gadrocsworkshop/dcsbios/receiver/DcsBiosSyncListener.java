@@ -4,7 +4,8 @@ package com.gadrocsworkshop.dcsbios.receiver;
  * Interface for objects which need to process / display data from the DCS-BIOS data
  * stream.  Objects which read from the DcsBiosSyncListener streams can only be
  * validly read inside calls to dcsBiosFrameSyncReceived.  If read outside this method
- * they may be in an inconsistent or partially updated state.
+ * they may be in an inconsistent or partially updated state.  Objects which need
+ * consistent data on other threads can read the parser's DcsBiosExportImage instead.
  *
  * Created by Craig Courtney on 1/30/2015.
  */
@@ -9,11 +9,10 @@ import java.util.logging.Logger;
  *
  * Created by Craig Courtney on 1/30/2015.
  */
-public class DcsBiosUdpReceiver implements DcsBiosReceiver {
+public class DcsBiosUdpReceiver extends AbstractDcsBiosReceiver {
 
     private final static Logger LOGGER = Logger.getLogger(DcsBiosUdpReceiverThread.class.getName());
 
-    private final DcsBiosParser parser;
     private final DcsBiosUdpReceiverThread thread;
 
     /**
@@ -42,8 +41,7 @@ public class DcsBiosUdpReceiver implements DcsBiosReceiver {
      */
     @SuppressWarnings("WeakerAccess")
     public DcsBiosUdpReceiver(String groupAddress, int port) throws IOException {
-        this.parser = new DcsBiosParser();
-        this.thread = new DcsBiosUdpReceiverThread(this.parser, groupAddress, port);
+        this.thread = new DcsBiosUdpReceiverThread(this, groupAddress, port);
     }
 
     /**
@@ -55,6 +53,24 @@ public class DcsBiosUdpReceiver implements DcsBiosReceiver {
         return thread.getDcsAddress();
     }
 
+    /**
+     * Port which commands are sent to DCS-BIOS on.
+     *
+     * @return Port number used to send DCS-BIOS commands to.
+     */
+    public int getDcsPort() {
+        return thread.getDcsPort();
+    }
+
+    /**
+     * Sets port number which commands will be sent to DCS-BIOS on.
+     *
+     * @param dcsPort Port number used to send DCS-BIOS commands to.
+     */
+    public void setDcsPort(int dcsPort) {
+        thread.setDcsPort(dcsPort);
+    }
+
     /**
      * Checks to see if the UDP receiver is running and processing data.
      *
@@ -64,6 +80,45 @@ public class DcsBiosUdpReceiver implements DcsBiosReceiver {
         return thread != null && thread.isAlive();
     }
 
+    /**
+     * Enables pipeline mode.  In pipeline mode the socket thread only copies packets into
+     * a bounded queue and a separate dispatch thread parses them and notifies listeners,
+     * so slow listeners do not hold up receiving.  Must be called before start.
+     *
+     * @param capacity Maximum number of packets waiting to be dispatched.
+     * @param policy Behavior when a packet arrives and the queue is full.
+     */
+    public void enablePipeline(int capacity, DcsBiosOverflowPolicy policy) {
+        thread.enablePipeline(capacity, policy);
+    }
+
+    /**
+     * Number of packets discarded because the pipeline queue was full.
+     *
+     * @return Dropped packet count, zero if pipeline mode is not enabled.
+     */
+    public long getDroppedPacketCount() {
+        return thread.getDroppedPacketCount();
+    }
+
+    /**
+     * Number of packets waiting to be dispatched.
+     *
+     * @return Queue depth, zero if pipeline mode is not enabled.
+     */
+    public int getQueueDepth() {
+        return thread.getQueueDepth();
+    }
+
+    /**
+     * Largest number of packets which have been waiting to be dispatched at once.
+     *
+     * @return Maximum queue depth, zero if pipeline mode is not enabled.
+     */
+    public int getMaxQueueDepth() {
+        return thread.getMaxQueueDepth();
+    }
+
     @Override
     public void start() {
         if (!isRunning()) {
@@ -80,42 +135,12 @@ public class DcsBiosUdpReceiver implements DcsBiosReceiver {
     }
 
     @Override
-    public void sendCommand(String command) throws IOException {
-        thread.sendCommand(command);
-    }
-
-    @Override
-    public void sendCommand(byte[] command) throws IOException {
-        thread.sendCommand(command);
-    }
-
-    @Override
-    public void addDataListener(DcsBiosDataListener listener) {
-        parser.addDataListener(listener);
-    }
-
-    @Override
-    public void removeDataListener(DcsBiosDataListener listener) {
-        parser.removeDataListener(listener);
-    }
-
-    @Override
-    public void addSyncListener(DcsBiosSyncListener listener) {
-        parser.addSyncListener(listener);
-    }
-
-    @Override
-    public void removeSyncListener(DcsBiosSyncListener listener) {
-        parser.removeSyncListener(listener);
-    }
-
-    @Override
-    public void addStreamListener(DcsBiosStreamListener listener) {
-        thread.addStreamListener(listener);
+    public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        thread.sendCommand(buffer, offset, length);
     }
 
     @Override
-    public void removeStreamListener(DcsBiosStreamListener listener) {
-        thread.removeStreamListener(listener);
+    public boolean trySendCommand(byte[] buffer, int offset, int length) throws IOException {
+        return thread.trySendCommand(buffer, offset, length);
     }
 }
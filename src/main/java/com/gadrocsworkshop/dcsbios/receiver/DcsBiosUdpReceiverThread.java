@@ -2,8 +2,7 @@ package com.gadrocsworkshop.dcsbios.receiver;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,25 +15,29 @@ class DcsBiosUdpReceiverThread extends Thread {
 
     private final static Logger LOGGER = Logger.getLogger(DcsBiosUdpReceiverThread.class.getName());
 
-    private int dcsPort = 7778;
+    private static final int PACKET_SIZE = 2048;
+
+    private volatile int dcsPort = 7778;
     private DatagramSocket socket;
-    private boolean running = true;
-    private InetAddress dcsAddress = null;
+    private volatile boolean running = true;
+    private volatile InetAddress dcsAddress = null;
+    private final DatagramPacket sendPacket = new DatagramPacket(new byte[0], 0);
+    private final DcsBiosUdpReceiver receiver;
     private final DcsBiosParser parser;
-
-    private final LinkedHashSet<DcsBiosStreamListener> streamListeners = new LinkedHashSet<>();
+    private DcsBiosPacketRing ring;
 
     /**
      * Creates a new receiver thread.
      *
-     * @param parser Parser to use with this UDP receiver.
+     * @param receiver Receiver which owns this thread and its listeners.
      * @param groupAddress Multicast group address we should listen on.
      *                     If null or empty will only listen for packets sent directly to this computer.
      * @param port Port to listen on for DCS-BIOS packets.
      * @throws IOException Thrown if there are problems creating DatagramSocket
      */
-    public DcsBiosUdpReceiverThread(DcsBiosParser parser, String groupAddress, int port) throws IOException {
-        this.parser = parser;
+    public DcsBiosUdpReceiverThread(DcsBiosUdpReceiver receiver, String groupAddress, int port) throws IOException {
+        this.receiver = receiver;
+        this.parser = receiver.getParser();
 
         if (groupAddress == null || groupAddress.trim().isEmpty()) {
             socket = new DatagramSocket(port);
@@ -50,28 +53,6 @@ class DcsBiosUdpReceiverThread extends Thread {
         socket.setSoTimeout(1000);
     }
 
-    /**
-     * Registers a stream listener to this DCS-BIOS parser.  Stream listeners are
-     * notified incoming raw stream data.
-     *
-     * @param listener Listener to get stream events.
-     */
-    public synchronized void addStreamListener(DcsBiosStreamListener listener) {
-        if (listener == null) {
-            throw new NullPointerException("Can't add null listener.");
-        }
-        streamListeners.add(listener);
-    }
-
-    /**
-     * Removes a stream listener from this DCS-BIOS parser.
-     *
-     * @param listener Listener which will no longer be notified of stream events.
-     */
-    public synchronized void removeStreamListener(DcsBiosStreamListener listener) {
-        streamListeners.remove(listener);
-    }
-
     /**
      * Address of the DCS-BIOS server we are receiving packets from.
      *
@@ -99,11 +80,58 @@ class DcsBiosUdpReceiverThread extends Thread {
         this.dcsPort = dcsPort;
     }
 
+    /**
+     * Enables pipeline mode.  In pipeline mode this thread only receives packets into a
+     * bounded queue and a separate dispatch thread parses them and notifies listeners.
+     * Must be called before the thread is started.
+     *
+     * @param capacity Maximum number of packets waiting to be dispatched.
+     * @param policy Behavior when a packet arrives and the queue is full.
+     */
+    public void enablePipeline(int capacity, DcsBiosOverflowPolicy policy) {
+        if (isAlive()) {
+            throw new IllegalStateException("Pipeline must be enabled before the receiver is started.");
+        }
+        ring = new DcsBiosPacketRing(capacity, PACKET_SIZE, policy);
+    }
+
+    /**
+     * Number of packets discarded because the pipeline queue was full.
+     *
+     * @return Dropped packet count, zero if pipeline mode is not enabled.
+     */
+    public long getDroppedPacketCount() {
+        return ring != null ? ring.getDroppedCount() : 0;
+    }
+
+    /**
+     * Number of packets waiting to be dispatched.
+     *
+     * @return Queue depth, zero if pipeline mode is not enabled.
+     */
+    public int getQueueDepth() {
+        return ring != null ? ring.size() : 0;
+    }
+
+    /**
+     * Largest number of packets which have been waiting to be dispatched at once.
+     *
+     * @return Maximum queue depth, zero if pipeline mode is not enabled.
+     */
+    public int getMaxQueueDepth() {
+        return ring != null ? ring.getMaxSize() : 0;
+    }
+
     /**
      * Run loop for receiving packets.
      */
     public void run() {
-        byte[] buf = new byte[2048];
+        if (ring != null) {
+            runPipeline();
+            return;
+        }
+
+        byte[] buf = new byte[PACKET_SIZE];
         DatagramPacket packet = new DatagramPacket(buf, buf.length);
 
         LOGGER.fine("Entering packet reading loop.");
@@ -111,9 +139,10 @@ class DcsBiosUdpReceiverThread extends Thread {
             try {
                 socket.receive(packet);
                 if (running) {
+                    receiver.packetReceived();
                     dcsAddress = packet.getAddress();
                     parser.processData(buf, packet.getOffset(), packet.getLength());
-                    notifyStreamListeners(buf, packet.getOffset(), packet.getLength());
+                    receiver.notifyStreamListeners(buf, packet.getOffset(), packet.getLength());
                 }
             }
             catch (SocketTimeoutException e) {
@@ -131,6 +160,73 @@ class DcsBiosUdpReceiverThread extends Thread {
         socket.close();
     }
 
+    /**
+     * Run loop for receiving packets into the pipeline queue.
+     */
+    private void runPipeline() {
+        Thread dispatchThread = new Thread(this::runDispatch, getName() + " Dispatch");
+        dispatchThread.start();
+
+        DcsBiosPacketRing.Slot slot = ring.acquire();
+
+        LOGGER.fine("Entering pipelined packet reading loop.");
+        while(running) {
+            try {
+                socket.receive(slot.packet);
+                if (running) {
+                    receiver.packetReceived();
+                    dcsAddress = slot.packet.getAddress();
+                    slot.length = slot.packet.getLength();
+                    slot = ring.publish(slot);
+                }
+            }
+            catch (SocketTimeoutException e) {
+                // Ignore timeout and receive again.  Timeout
+                // is there to facilitate canceling the running thread.
+            }
+            catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Interrupted waiting for dispatch queue. Shutting down listener.", e);
+                running = false;
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error receiving packet from DCS Bios. Shutting down listener.", e);
+                running = false;
+            }
+        }
+
+        LOGGER.fine("Exiting pipelined packet reading loop.");
+        ring.close();
+        socket.close();
+        try {
+            dispatchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run loop for the dispatch thread in pipeline mode.
+     */
+    private void runDispatch() {
+        LOGGER.fine("Entering packet dispatch loop.");
+        try {
+            while (true) {
+                DcsBiosPacketRing.Slot slot = ring.take(1, TimeUnit.SECONDS);
+                if (slot != null) {
+                    parser.processData(slot.data, 0, slot.length);
+                    receiver.notifyStreamListeners(slot.data, 0, slot.length);
+                    ring.release(slot);
+                }
+                else if (!running) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Packet dispatch interrupted.", e);
+        }
+        LOGGER.fine("Exiting packet dispatch loop.");
+    }
+
     /**
      * Sets the internal flag determining if the run loop should continue.  Should be set to true
      * before calling start on this thread.
@@ -158,26 +254,44 @@ class DcsBiosUdpReceiverThread extends Thread {
      * @throws IOException Thrown if an error occurs sending the datagram.
      */
     public void sendCommand(byte[] command) throws IOException {
-        if (running && dcsAddress != null && socket != null && command != null) {
-            DatagramPacket sendPacket = new DatagramPacket(command, command.length, dcsAddress, dcsPort);
-            socket.send(sendPacket);
+        if (command != null) {
+            sendCommand(command, 0, command.length);
         }
     }
 
     /**
-     * Helper method which notifies all packet listeners.
+     * Sends a command back to the DCS-BIOS
+     *
+     * @param buffer Buffer containing the command to send to DCS-BIOS
+     * @param offset Offset into the buffer where the command starts.
+     * @param length Number of bytes to send.
+     * @throws IOException Thrown if an error occurs sending the datagram.
+     */
+    public void sendCommand(byte[] buffer, int offset, int length) throws IOException {
+        trySendCommand(buffer, offset, length);
+    }
+
+    /**
+     * Sends a command back to the DCS-BIOS if the receiver is running and knows
+     * where DCS-BIOS is.
+     *
+     * @param buffer Buffer containing the command to send to DCS-BIOS
+     * @param offset Offset into the buffer where the command starts.
+     * @param length Number of bytes to send.
+     * @return True if the datagram was sent, false if it was dropped.
+     * @throws IOException Thrown if an error occurs sending the datagram.
      */
-    private void notifyStreamListeners(byte[] data, int offset, int length) {
-        Set<DcsBiosStreamListener> s;
-        synchronized (this) {
-            s = new LinkedHashSet<>(streamListeners);
-        }
-        for(DcsBiosStreamListener listener : s) {
-            try {
-                listener.dcsBiosStreamDataReceived(data, offset, length);
-            } catch (Exception ex) {
-                LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS packet handler %s.", listener.getClass().getName()), ex);
+    public boolean trySendCommand(byte[] buffer, int offset, int length) throws IOException {
+        InetAddress address = dcsAddress;
+        if (running && address != null && socket != null && buffer != null) {
+            synchronized (sendPacket) {
+                sendPacket.setData(buffer, offset, length);
+                sendPacket.setAddress(address);
+                sendPacket.setPort(dcsPort);
+                socket.send(sendPacket);
             }
+            return true;
         }
+        return false;
     }
 }
@@ -0,0 +1,16 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Interface for objects which listen to an integer output field declared with
+ * a DcsBiosFieldDispatcher.  All IntFieldListener calls will be from the same
+ * thread, but will not be the same thread that created the object.
+ */
+public interface IntFieldListener {
+
+    /**
+     * Called when the value of the field has changed.
+     *
+     * @param value New value of the field with the mask and shift applied.
+     */
+    void intFieldChanged(int value);
+}
@@ -0,0 +1,89 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatch plan for all integer fields sharing one export address.  Plans are
+ * immutable apart from the last values which are only touched by the thread
+ * delivering data.
+ */
+class IntFieldPlan {
+
+    private static final Logger LOGGER = Logger.getLogger(IntFieldPlan.class.getName());
+
+    private final int[] masks;
+    private final int[] shifts;
+    private final IntFieldListener[] listeners;
+    private final int[] lastValues;
+
+    private int lastData = -1;
+
+    IntFieldPlan() {
+        this(new int[0], new int[0], new IntFieldListener[0], new int[0]);
+    }
+
+    private IntFieldPlan(int[] masks, int[] shifts, IntFieldListener[] listeners, int[] lastValues) {
+        this.masks = masks;
+        this.shifts = shifts;
+        this.listeners = listeners;
+        this.lastValues = lastValues;
+    }
+
+    int size() {
+        return listeners.length;
+    }
+
+    /**
+     * Creates a new plan with an additional field.  Last values of existing fields are carried over.
+     */
+    IntFieldPlan add(int mask, int shift, IntFieldListener listener) {
+        int size = listeners.length;
+        IntFieldPlan plan = new IntFieldPlan(Arrays.copyOf(masks, size + 1), Arrays.copyOf(shifts, size + 1),
+                Arrays.copyOf(listeners, size + 1), Arrays.copyOf(lastValues, size + 1));
+        plan.masks[size] = mask;
+        plan.shifts[size] = shift;
+        plan.listeners[size] = listener;
+        plan.lastValues[size] = -1;
+        return plan;
+    }
+
+    /**
+     * Creates a new plan without any fields for the given listener.  Last values of remaining fields are carried over.
+     */
+    IntFieldPlan remove(IntFieldListener listener) {
+        IntFieldPlan plan = new IntFieldPlan();
+        for (int i = 0; i < listeners.length; i++) {
+            if (!listeners[i].equals(listener)) {
+                plan = plan.add(masks[i], shifts[i], listeners[i]);
+                plan.lastValues[plan.size() - 1] = lastValues[i];
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Evaluates every field against a newly written data word.
+     *
+     * @param data Data word written to the address of this plan.
+     */
+    void dispatch(int data) {
+        if (data == lastData) {
+            return;
+        }
+        lastData = data;
+
+        for (int i = 0; i < listeners.length; i++) {
+            int value = (data & masks[i]) >>> shifts[i];
+            if (value != lastValues[i]) {
+                lastValues[i] = value;
+                try {
+                    listeners[i].intFieldChanged(value);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, String.format("Exception thrown from DCS-BIOS field handler %s.", listeners[i].getClass().getName()), ex);
+                }
+            }
+        }
+    }
+}
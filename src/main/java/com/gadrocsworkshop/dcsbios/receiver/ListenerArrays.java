@@ -0,0 +1,63 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+import java.util.Arrays;
+
+/**
+ * Helpers for maintaining copy-on-write listener arrays.  Listener arrays are
+ * never modified once published so the notification path can iterate over them
+ * without locking or copying.  Callers are responsible for serializing updates.
+ */
+final class ListenerArrays {
+
+    private ListenerArrays() {
+    }
+
+    /**
+     * Returns a copy of the listener array with the listener appended.  If the
+     * listener is already registered the original array is returned.
+     *
+     * @param listeners Current listener array.
+     * @param listener Listener to add.
+     * @param <T> Listener type.
+     * @return Listener array containing the listener.
+     */
+    static <T> T[] add(T[] listeners, T listener) {
+        if (listener == null) {
+            throw new NullPointerException("Can't add null listener.");
+        }
+        if (indexOf(listeners, listener) >= 0) {
+            return listeners;
+        }
+        T[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        return result;
+    }
+
+    /**
+     * Returns a copy of the listener array without the listener.  If the
+     * listener is not registered the original array is returned.
+     *
+     * @param listeners Current listener array.
+     * @param listener Listener to remove.
+     * @param <T> Listener type.
+     * @return Listener array which does not contain the listener.
+     */
+    static <T> T[] remove(T[] listeners, T listener) {
+        int index = indexOf(listeners, listener);
+        if (index < 0) {
+            return listeners;
+        }
+        T[] result = Arrays.copyOf(listeners, listeners.length - 1);
+        System.arraycopy(listeners, index + 1, result, index, listeners.length - index - 1);
+        return result;
+    }
+
+    private static <T> int indexOf(T[] listeners, T listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
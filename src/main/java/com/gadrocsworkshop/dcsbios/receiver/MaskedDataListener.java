@@ -0,0 +1,50 @@
+package com.gadrocsworkshop.dcsbios.receiver;
+
+/**
+ * Data listener wrapper used for address plus mask subscriptions.  Forwards a
+ * write to the wrapped listener only when one of the masked bits differs from
+ * the last value forwarded.
+ */
+class MaskedDataListener implements DcsBiosDataListener {
+
+    private final DcsBiosDataListener listener;
+    private final int mask;
+
+    private boolean initialized = false;
+    private int lastValue;
+
+    MaskedDataListener(DcsBiosDataListener listener, int mask) {
+        this.listener = listener;
+        this.mask = mask;
+    }
+
+    DcsBiosDataListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void dcsBiosDataWritten(int address, int data) {
+        if (!initialized || ((data ^ lastValue) & mask) != 0) {
+            initialized = true;
+            lastValue = data;
+            listener.dcsBiosDataWritten(address, data);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MaskedDataListener)) {
+            return false;
+        }
+        MaskedDataListener that = (MaskedDataListener)o;
+        return mask == that.mask && listener.equals(that.listener);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * listener.hashCode() + mask;
+    }
+}
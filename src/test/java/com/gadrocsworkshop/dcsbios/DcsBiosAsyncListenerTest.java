@@ -0,0 +1,113 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosAsyncListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDataListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosAsyncListenerTest extends TestCase {
+
+    private class SlowListener implements DcsBiosDataListener, DcsBiosSyncListener {
+
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile Thread thread;
+
+        @Override
+        public void dcsBiosDataWritten(int address, int data) {
+            thread = Thread.currentThread();
+            events.add(address + "=" + data);
+        }
+
+        @Override
+        public void dcsBiosFrameSyncReceived() {
+            events.add("sync");
+            try {
+                // Hold up delivery of later frames until the test releases the listener.
+                release.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] createFrame(int value) {
+        return new byte[] {
+                0x55, 0x55, 0x55, 0x55,                                       // Frame Start
+                0x04, 0x00, 0x02, 0x00, (byte)value, (byte)(value >> 8),      // One Integer at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00                // End of frame
+        };
+    }
+
+    private void waitForEvents(SlowListener listener, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (listener.events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitForLag(DcsBiosAsyncListener async, long lag) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (async.getFrameLag() != lag && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    public void testQueued() throws Exception {
+        DcsBiosParser parser = new DcsBiosParser();
+        SlowListener listener = new SlowListener();
+        DcsBiosAsyncListener async = new DcsBiosAsyncListener(listener, listener, 2, false);
+        parser.addDataListener(async);
+        parser.addSyncListener(async);
+
+        byte[] first = createFrame(1);
+        parser.processData(first, 0, first.length);
+        waitForEvents(listener, 2);
+        for (int i = 2; i <= 5; i++) {
+            byte[] frame = createFrame(i);
+            parser.processData(frame, 0, frame.length);
+        }
+
+        // First frame is being delivered, two are queued and the rest are dropped.
+        assertEquals(2, async.getDroppedFrames());
+        assertEquals(3, async.getFrameLag());
+        listener.release.countDown();
+        waitForLag(async, 0);
+        async.close();
+
+        assertEquals("[4=1, sync, 4=2, sync, 4=3, sync]", listener.events.toString());
+        assertNotSame("Listener should be called on another thread.", Thread.currentThread(), listener.thread);
+    }
+
+    public void testConflated() throws Exception {
+        DcsBiosParser parser = new DcsBiosParser();
+        SlowListener listener = new SlowListener();
+        DcsBiosAsyncListener async = new DcsBiosAsyncListener(listener, listener, 1, true);
+        parser.addDataListener(async);
+        parser.addSyncListener(async);
+
+        byte[] first = createFrame(1);
+        parser.processData(first, 0, first.length);
+        waitForEvents(listener, 2);
+        for (int i = 2; i <= 5; i++) {
+            byte[] frame = createFrame(i);
+            parser.processData(frame, 0, frame.length);
+        }
+
+        // First frame is being delivered and the other four are merged into one.
+        assertEquals(2, async.getFrameLag());
+        assertEquals(3, async.getConflatedFrames());
+        listener.release.countDown();
+        waitForLag(async, 0);
+        async.close();
+
+        assertEquals("Only the latest value should be delivered.", "[4=1, sync, 4=5, sync]", listener.events.toString());
+    }
+}
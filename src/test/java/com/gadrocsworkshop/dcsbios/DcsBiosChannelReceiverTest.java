@@ -0,0 +1,59 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosChannelReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
+import junit.framework.TestCase;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosChannelReceiverTest extends TestCase {
+
+    private static final int PORT = 15010;
+
+    private final byte[] frame = {
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start
+            0x04, 0x00, 0x04, 0x00, 0x21, 0x10, 0x42, 0x31, // Two Integers (0x1021, 0x3142) at address 0x0004
+            (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+    };
+
+    private void sendFrame() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.send(new DatagramPacket(frame, frame.length, InetAddress.getLoopbackAddress(), PORT));
+        }
+    }
+
+    public void testReceiveAndRestart() throws Exception {
+        DcsBiosChannelReceiver receiver = new DcsBiosChannelReceiver(PORT);
+        assertFalse("isRunning should return false after initialization.", receiver.isRunning());
+
+        for (int run = 0; run < 3; run++) {
+            final CountDownLatch synced = new CountDownLatch(1);
+            DcsBiosSyncListener listener = new DcsBiosSyncListener() {
+                @Override
+                public void dcsBiosFrameSyncReceived() {
+                    synced.countDown();
+                }
+            };
+            receiver.addSyncListener(listener);
+
+            receiver.start();
+            assertTrue("isRunning should return true after start.", receiver.isRunning());
+            sendFrame();
+            assertTrue("Frame should be received.", synced.await(2, TimeUnit.SECONDS));
+            assertEquals(0x1021, receiver.getExportImage().readWord(0x0004));
+            assertEquals(InetAddress.getLoopbackAddress(), receiver.getDcsAddress());
+
+            long start = System.nanoTime();
+            receiver.stop();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertFalse("isRunning should return false after stop.", receiver.isRunning());
+            assertTrue(String.format("Stop took %d ms.", elapsed), elapsed < 500);
+
+            receiver.removeSyncListener(listener);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.AbstractDcsBiosReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosCommandAction;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosCommandSender;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosCommandSource;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosControl;
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosCommandSenderTest extends TestCase {
+
+    private static class CapturingReceiver extends AbstractDcsBiosReceiver {
+
+        private final List<String> datagrams = new ArrayList<>();
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public synchronized void sendCommand(byte[] buffer, int offset, int length) {
+            datagrams.add(new String(buffer, offset, length, StandardCharsets.US_ASCII));
+        }
+
+        synchronized List<String> getDatagrams() {
+            return new ArrayList<>(datagrams);
+        }
+    }
+
+    public void testEncode() throws Exception {
+        DcsBiosControl control = new DcsBiosControl("UFC_1");
+        byte[] buffer = new byte[DcsBiosControl.MAX_COMMAND_LENGTH];
+
+        int length = control.encode(DcsBiosCommandAction.SET_STATE, 1, buffer, 0);
+        assertEquals("UFC_1 1\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        length = control.encode(DcsBiosCommandAction.SET_STATE, 65535, buffer, 0);
+        assertEquals("UFC_1 65535\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        length = control.encode(DcsBiosCommandAction.VARIABLE_STEP, 3200, buffer, 0);
+        assertEquals("UFC_1 +3200\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        length = control.encode(DcsBiosCommandAction.VARIABLE_STEP, -3200, buffer, 0);
+        assertEquals("UFC_1 -3200\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        length = control.encode(DcsBiosCommandAction.INC, 0, buffer, 0);
+        assertEquals("UFC_1 INC\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        length = control.encode(DcsBiosCommandAction.TOGGLE, 0, buffer, 0);
+        assertEquals("UFC_1 TOGGLE\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    public void testCoalescing() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        sender.setCoalescingWindow(50, TimeUnit.MILLISECONDS);
+
+        DcsBiosCommandSource panel = sender.createSource("panel");
+        DcsBiosControl master = new DcsBiosControl("MASTER_ARM");
+        DcsBiosControl ufc = new DcsBiosControl("UFC_1");
+
+        sender.start();
+        assertTrue(sender.post(master, DcsBiosCommandAction.TOGGLE, 0));
+        assertTrue(sender.post(master, DcsBiosCommandAction.SET_STATE, 1));
+        CompletableFuture<Void> future = panel.send(ufc, DcsBiosCommandAction.SET_STATE, 0);
+        byte[] raw = "UFC_2 1".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(panel.post(raw, 0, raw.length));
+
+        future.get(5, TimeUnit.SECONDS);
+        sender.stop();
+
+        List<String> datagrams = receiver.getDatagrams();
+        assertEquals("Commands should share one datagram", 1, datagrams.size());
+        assertEquals("Sources should be interleaved", "MASTER_ARM TOGGLE\nUFC_1 0\nMASTER_ARM 1\nUFC_2 1\n", datagrams.get(0));
+        assertEquals(4, sender.getCommandCount());
+        assertEquals(1, sender.getDatagramCount());
+    }
+
+    public void testDatagramLimit() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        sender.setMaxDatagramSize(DcsBiosControl.MAX_COMMAND_LENGTH);
+        DcsBiosControl control = new DcsBiosControl("UFC_1");
+
+        for (int i = 0; i < 40; i++) {
+            assertTrue(sender.post(control, DcsBiosCommandAction.SET_STATE, 1));
+        }
+        sender.start();
+        sender.stop();
+
+        List<String> datagrams = receiver.getDatagrams();
+        int commands = 0;
+        for (String datagram : datagrams) {
+            assertTrue(datagram.length() <= DcsBiosControl.MAX_COMMAND_LENGTH);
+            commands += datagram.split("\n").length;
+        }
+        assertEquals("All commands should be flushed on stop", 40, commands);
+        assertEquals(3, datagrams.size());
+    }
+
+    public void testQueueFull() throws Exception {
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(new CapturingReceiver());
+        sender.setQueueCapacity(2);
+        DcsBiosCommandSource source = sender.createSource("small");
+        DcsBiosControl control = new DcsBiosControl("UFC_1");
+
+        assertTrue(source.post(control, DcsBiosCommandAction.INC, 0));
+        assertTrue(source.post(control, DcsBiosCommandAction.INC, 0));
+        assertFalse(source.post(control, DcsBiosCommandAction.INC, 0));
+        assertTrue(source.send(control, DcsBiosCommandAction.INC, 0).isCompletedExceptionally());
+        assertEquals(2, source.getRejectedCount());
+    }
+
+    public void testNotConnected() throws Exception {
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(new CapturingReceiver() {
+            @Override
+            public boolean trySendCommand(byte[] buffer, int offset, int length) {
+                return false;
+            }
+        });
+        sender.start();
+        CompletableFuture<Void> future = sender.send(new DcsBiosControl("UFC_1"), DcsBiosCommandAction.TOGGLE, 0);
+        sender.stop();
+
+        assertTrue("Dropped commands should fail", future.isCompletedExceptionally());
+        assertEquals(0, sender.getDatagramCount());
+    }
+
+    public void testRemoveSource() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        DcsBiosControl volume = new DcsBiosControl("VOLUME");
+        sender.setConflationWindow(volume, 1, TimeUnit.HOURS);
+        DcsBiosCommandSource source = sender.createSource("panel");
+
+        CompletableFuture<Void> queued = source.send(new DcsBiosControl("UFC_1"), DcsBiosCommandAction.TOGGLE, 0);
+        CompletableFuture<Void> conflated = source.send(volume, DcsBiosCommandAction.SET_STATE, 5);
+        sender.removeSource(source);
+
+        assertTrue("Queued commands should fail", queued.isCompletedExceptionally());
+        assertTrue("Conflated commands should fail", conflated.isCompletedExceptionally());
+        assertTrue(source.send(volume, DcsBiosCommandAction.SET_STATE, 6).isCompletedExceptionally());
+        assertFalse(source.post(volume, DcsBiosCommandAction.SET_STATE, 7));
+
+        sender.start();
+        sender.stop();
+        assertTrue(receiver.getDatagrams().isEmpty());
+    }
+
+    public void testConflation() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        DcsBiosControl volume = new DcsBiosControl("VOLUME");
+        DcsBiosControl encoder = new DcsBiosControl("HDG_KNOB");
+        DcsBiosControl dial = new DcsBiosControl("ALT_SET");
+        sender.setConflationWindow(volume, 1, TimeUnit.HOURS);
+        sender.setConflationWindow(encoder, 1, TimeUnit.HOURS);
+        sender.setConflationWindow(dial, 1, TimeUnit.HOURS);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sender.post(volume, DcsBiosCommandAction.SET_STATE, i * 10));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sender.post(encoder, DcsBiosCommandAction.INC, 0));
+        }
+        assertTrue(sender.post(encoder, DcsBiosCommandAction.DEC, 0));
+        assertTrue(sender.post(dial, DcsBiosCommandAction.VARIABLE_STEP, 3200));
+        assertTrue(sender.post(dial, DcsBiosCommandAction.VARIABLE_STEP, -1000));
+        assertTrue(sender.post(dial, DcsBiosCommandAction.VARIABLE_STEP, 100));
+        CompletableFuture<Void> future = sender.send(volume, DcsBiosCommandAction.SET_STATE, 5);
+
+        byte[] raw = "VOLUME 7\n".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(sender.getDefaultSource().post(raw, 0, raw.length));
+
+        sender.start();
+        sender.stop();
+
+        assertTrue("Merged commands should complete", future.isDone());
+        List<String> datagrams = receiver.getDatagrams();
+        assertEquals(1, datagrams.size());
+        assertEquals("VOLUME 7\nHDG_KNOB INC\nHDG_KNOB INC\nHDG_KNOB INC\nHDG_KNOB INC\nALT_SET +2300\n", datagrams.get(0));
+        assertEquals(101 + 2 + 2, sender.getSuppressedCount());
+    }
+
+    public void testConflatedStepsNotLost() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        sender.setQueueCapacity(8);
+        DcsBiosControl encoder = new DcsBiosControl("HDG_KNOB");
+        DcsBiosControl other = new DcsBiosControl("UFC_1");
+        sender.setConflationWindow(encoder, 1, TimeUnit.HOURS);
+
+        assertTrue(sender.post(other, DcsBiosCommandAction.TOGGLE, 0));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(sender.post(encoder, DcsBiosCommandAction.DEC, 0));
+        }
+        CompletableFuture<Void> future = sender.send(encoder, DcsBiosCommandAction.INC, 0);
+        sender.start();
+        sender.stop();
+
+        future.get(5, TimeUnit.SECONDS);
+        int steps = 0;
+        for (String datagram : receiver.getDatagrams()) {
+            for (String command : datagram.split("\n")) {
+                if (command.equals("HDG_KNOB DEC")) {
+                    steps++;
+                }
+            }
+        }
+        assertEquals("Every net step is sent", 19, steps);
+        assertEquals(2, sender.getSuppressedCount());
+    }
+
+    public void testConflationWindow() throws Exception {
+        CapturingReceiver receiver = new CapturingReceiver();
+        DcsBiosCommandSender sender = new DcsBiosCommandSender(receiver);
+        sender.setCoalescingWindow(0, TimeUnit.MILLISECONDS);
+        DcsBiosControl volume = new DcsBiosControl("VOLUME");
+        sender.setConflationWindow(volume, 20, TimeUnit.MILLISECONDS);
+        sender.start();
+
+        CompletableFuture<Void> first = null;
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<Void> future = sender.send(volume, DcsBiosCommandAction.SET_STATE, i);
+            if (first == null) {
+                first = future;
+            }
+            assertSame("Merged commands share a future", first, future);
+        }
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals("[VOLUME 9\n]", receiver.getDatagrams().toString());
+
+        byte[] toggle = "VOLUME TOGGLE".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(sender.post(volume, DcsBiosCommandAction.SET_STATE, 1));
+        assertTrue(sender.getDefaultSource().post(toggle, 0, toggle.length));
+        sender.stop();
+
+        assertEquals("Pending value should be sent before the toggle", "VOLUME 1\nVOLUME TOGGLE\n", String.join("", receiver.getDatagrams().subList(1, receiver.getDatagrams().size())));
+    }
+}
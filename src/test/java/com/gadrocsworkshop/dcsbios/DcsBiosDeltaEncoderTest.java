@@ -0,0 +1,118 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDeltaEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamWriter;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DcsBiosDeltaEncoderTest extends TestCase {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final DcsBiosStreamListener capture = (data, offset, length) -> frames.add(Arrays.copyOfRange(data, offset, offset + length));
+
+    private DcsBiosParser source;
+    private DcsBiosDeltaEncoder encoder;
+
+    @Override
+    protected void setUp() {
+        source = new DcsBiosParser();
+        encoder = new DcsBiosDeltaEncoder(source.getExportImage(), capture);
+        encoder.setFullRefreshInterval(0);
+        source.addBlockListener(encoder);
+        source.addSyncListener(encoder);
+    }
+
+    private void sendFrame(int address, int... values) {
+        byte[] buffer = new byte[1024];
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(buffer);
+        writer.writeSync();
+        writer.writeBlock(address, values, 0, values.length);
+        writer.writeEndOfFrame(0);
+        source.processData(buffer, 0, writer.getLength());
+    }
+
+    private static byte[] expected(int address, int... values) {
+        byte[] buffer = new byte[1024];
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(buffer);
+        writer.writeSync();
+        if (values.length > 0) {
+            writer.writeBlock(address, values, 0, values.length);
+        }
+        writer.writeEndOfFrame(0);
+        return Arrays.copyOf(buffer, writer.getLength());
+    }
+
+    private static void assertFrame(byte[] expected, byte[] actual) {
+        // Update counter belongs to the encoder, only compare up to it.
+        assertEquals(expected.length, actual.length);
+        assertTrue(Arrays.equals(Arrays.copyOf(expected, expected.length - 2), Arrays.copyOf(actual, actual.length - 2)));
+    }
+
+    private static void assertFrame(String message, byte[] expected, byte[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        assertFrame(expected, actual);
+    }
+
+    public void testOnlyChangesSent() {
+        sendFrame(0x10, 1, 2, 3, 4, 5, 6);
+        sendFrame(0x10, 1, 2, 3, 4, 5, 6);
+        sendFrame(0x10, 1, 7, 3, 8, 5, 6);
+        sendFrame(0x10, 9, 7, 3, 8, 5, 10);
+
+        assertEquals(4, frames.size());
+        assertFrame(expected(0x10, 1, 2, 3, 4, 5, 6), frames.get(0));
+        assertFrame(expected(0), frames.get(1));
+        assertFrame("Gap of one word is merged", expected(0x12, 7, 3, 8), frames.get(2));
+        assertEquals("Large gap splits blocks", 10 + 6 + 6, frames.get(3).length);
+        assertEquals("Bridged gap words are counted", 11, encoder.getWordCount());
+        assertEquals(4, encoder.getFrameCount());
+    }
+
+    public void testTruncatedFrameNotSent() {
+        sendFrame(0x10, 1, 2);
+        byte[] cut = {0x55, 0x55, 0x55, 0x55, 0x10, 0x00, 0x04, 0x00, 0x09, 0x00};
+        source.processData(cut, 0, cut.length);
+        sendFrame(0x20, 3);
+
+        assertEquals(2, frames.size());
+        assertFrame(expected(0x20, 3), frames.get(1));
+    }
+
+    public void testFullRefresh() {
+        sendFrame(0x10, 1, 2);
+        sendFrame(0x40, 3);
+        encoder.requestFullRefresh();
+        sendFrame(0x40, 3);
+
+        assertEquals(3, frames.size());
+        assertEquals("Both blocks resent", 10 + 8 + 6, frames.get(2).length);
+
+        encoder.setFullRefreshInterval(1);
+        sendFrame(0x40, 3);
+        assertEquals(10 + 8 + 6, frames.get(3).length);
+    }
+
+    public void testConsumerSeesSameValues() {
+        DcsBiosParser consumer = new DcsBiosParser();
+        encoder.setFullRefreshInterval(4);
+        source.addSyncListener(() -> {
+            byte[] frame = frames.get(frames.size() - 1);
+            consumer.processData(frame, 0, frame.length);
+        });
+        int[] values = new int[200];
+        for (int frame = 0; frame < 20; frame++) {
+            values[(frame * 37) % values.length] = frame * 1000;
+            values[(frame * 11) % values.length] ^= 0xff;
+            sendFrame(0x100, values);
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], consumer.getExportImage().readWord(0x100 + i * 2));
+        }
+        assertTrue(encoder.getByteCount() < 20 * (values.length * 2 + 14));
+    }
+}
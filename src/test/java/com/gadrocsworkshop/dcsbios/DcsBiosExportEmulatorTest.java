@@ -0,0 +1,90 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.emulator.DcsBiosExportEmulator;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosChannelReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosExportImage;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DcsBiosExportEmulatorTest extends TestCase {
+
+    private static final int EXPORT_PORT = 15030;
+    private static final int COMMAND_PORT = 15031;
+
+    private DcsBiosExportEmulator emulator;
+    private DcsBiosChannelReceiver receiver;
+    private final AtomicInteger frames = new AtomicInteger();
+
+    public void setUp() throws Exception {
+        super.setUp();
+        emulator = new DcsBiosExportEmulator("127.0.0.1", EXPORT_PORT);
+        emulator.setCommandPort(COMMAND_PORT);
+        emulator.setFrameRate(200);
+        emulator.setAddressSpace(0x1000, 0x400);
+
+        receiver = new DcsBiosChannelReceiver(EXPORT_PORT);
+        receiver.setDcsPort(COMMAND_PORT);
+        receiver.addSyncListener(new DcsBiosSyncListener() {
+            @Override
+            public void dcsBiosFrameSyncReceived() {
+                frames.incrementAndGet();
+            }
+        });
+        receiver.start();
+    }
+
+    public void tearDown() throws Exception {
+        emulator.stop();
+        receiver.stop();
+    }
+
+    public void testExport() throws Exception {
+        emulator.setChangesPerFrame(20);
+        emulator.setMaxPacketSize(256);
+        emulator.setSeed(42);
+        emulator.start();
+        waitForFrames(50);
+        emulator.stop();
+        Thread.sleep(100);
+
+        assertTrue("Frames should be split into several packets", emulator.getPacketCount() > emulator.getFrameCount());
+        DcsBiosExportImage image = receiver.getExportImage();
+        for (int address = 0x1000; address < 0x1400; address += 2) {
+            assertEquals(String.format("Value at 0x%04x", address), emulator.getValue(address), image.readWord(address));
+        }
+    }
+
+    public void testCommandReflection() throws Exception {
+        emulator.setChangesPerFrame(0);
+        emulator.addControl("MASTER_ARM", 0x1100, 0x0100, 8);
+        emulator.addControl("HDG_KNOB", 0x1102, 0x01ff, 0);
+        emulator.setValue(0x1100, 0x00ff);
+        emulator.start();
+        waitForFrames(1);
+
+        receiver.sendCommand("MASTER_ARM 1\nHDG_KNOB 100\nHDG_KNOB INC\nHDG_KNOB -500\n");
+        waitForValue(0x1100, 0x01ff);
+        assertEquals("Commands should be clamped to the control range", 0, emulator.getValue(0x1102));
+
+        receiver.sendCommand("MASTER_ARM TOGGLE\nHDG_KNOB +300\n");
+        waitForValue(0x1100, 0x00ff);
+        waitForValue(0x1102, 300);
+        assertEquals(6, emulator.getCommandCount());
+    }
+
+    private void waitForFrames(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && frames.get() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue("Emulator frames should be received", frames.get() >= count);
+    }
+
+    private void waitForValue(int address, int value) throws InterruptedException {
+        for (int i = 0; i < 500 && receiver.getExportImage().readWord(address) != value; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(String.format("Value at 0x%04x", address), value, receiver.getExportImage().readWord(address));
+    }
+}
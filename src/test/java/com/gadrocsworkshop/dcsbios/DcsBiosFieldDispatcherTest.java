@@ -0,0 +1,68 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosFieldDispatcher;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import com.gadrocsworkshop.dcsbios.receiver.IntFieldListener;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DcsBiosFieldDispatcherTest extends TestCase {
+
+    private class RecordingField implements IntFieldListener {
+
+        private final List<Integer> values = new ArrayList<>();
+
+        @Override
+        public void intFieldChanged(int value) {
+            values.add(value);
+        }
+    }
+
+    private DcsBiosParser parser;
+    private DcsBiosFieldDispatcher dispatcher;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        parser = new DcsBiosParser();
+        dispatcher = new DcsBiosFieldDispatcher(parser);
+    }
+
+    public void tearDown() throws Exception {
+        parser = null;
+        dispatcher = null;
+    }
+
+    public void testFields() throws Exception {
+        byte[] inputData = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x04, 0x00, 0x01, 0x10, 0x42, 0x31, // Two Integers (0x1001, 0x3142) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00, // End of frame
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x02, 0x00, 0x03, 0x10,             // One Integer (0x1003) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+        };
+
+        RecordingField lamp1 = new RecordingField();
+        RecordingField lamp2 = new RecordingField();
+        RecordingField knob = new RecordingField();
+        RecordingField other = new RecordingField();
+        dispatcher.addIntField(0x0004, 0x0001, 0, lamp1);
+        dispatcher.addIntField(0x0004, 0x0002, 1, lamp2);
+        dispatcher.addIntField(0x0004, 0xf000, 12, knob);
+        dispatcher.addIntField(0x0006, 0xff00, 8, other);
+        parser.processData(inputData, 0, inputData.length);
+
+        assertEquals("Unchanged field should fire once", "[1]", lamp1.values.toString());
+        assertEquals("Changed field should fire on change", "[0, 1]", lamp2.values.toString());
+        assertEquals("Shifted field", "[1]", knob.values.toString());
+        assertEquals("Field on second address", "[49]", other.values.toString());
+
+        dispatcher.removeIntField(lamp2);
+        parser.processData(new byte[] { 0x55, 0x55, 0x55, 0x55, 0x04, 0x00, 0x02, 0x00, 0x00, 0x20 }, 0, 10);
+        assertEquals("Removed field should not fire", 2, lamp2.values.size());
+        assertEquals("[1, 0]", lamp1.values.toString());
+        assertEquals("[1, 2]", knob.values.toString());
+    }
+}
@@ -0,0 +1,75 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosAddressFilter;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosExportImage;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosKeyframeEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamWriter;
+import junit.framework.TestCase;
+
+public class DcsBiosKeyframeEncoderTest extends TestCase {
+
+    private DcsBiosParser source;
+    private DcsBiosKeyframeEncoder encoder;
+
+    @Override
+    protected void setUp() {
+        source = new DcsBiosParser();
+        encoder = new DcsBiosKeyframeEncoder(source.getExportImage());
+    }
+
+    private void sendFrame(int counter, int address, int... values) {
+        byte[] buffer = new byte[1024];
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(buffer);
+        writer.writeSync();
+        writer.writeBlock(address, values, 0, values.length);
+        writer.writeEndOfFrame(counter);
+        source.processData(buffer, 0, writer.getLength());
+    }
+
+    public void testKeyframeRestoresState() {
+        sendFrame(1, 0x10, 1, 2, 3);
+        sendFrame(2, 0x14, 4, 5);
+        sendFrame(3, 0x8000, 6);
+        sendFrame(4, 0x10, 7);
+
+        int length = encoder.encode();
+        assertEquals("Runs merged into one block each", 4 + 4 + 8 + 4 + 2 + 6, length);
+
+        DcsBiosParser replay = new DcsBiosParser();
+        replay.processData(encoder.getBuffer(), 0, length);
+        DcsBiosExportImage image = replay.getExportImage();
+        assertEquals(1, image.getFrame());
+        assertEquals(7, image.readWord(0x10));
+        assertEquals(2, image.readWord(0x12));
+        assertEquals(5, image.readWord(0x16));
+        assertEquals(6, image.readWord(0x8000));
+        assertTrue(image.isWritten(0x14));
+        assertFalse(image.isWritten(0x18));
+        assertEquals(4, image.readWord(DcsBiosStreamWriter.UPDATE_COUNTER_ADDRESS));
+    }
+
+    public void testTruncatedFrameNotIncluded() {
+        sendFrame(1, 0x10, 1);
+        byte[] cut = {0x55, 0x55, 0x55, 0x55, 0x20, 0x00, 0x02, 0x00, 0x09, 0x00};
+        source.processData(cut, 0, cut.length);
+
+        DcsBiosParser replay = new DcsBiosParser();
+        replay.processData(encoder.getBuffer(), 0, encoder.encode());
+        assertEquals(1, replay.getExportImage().readWord(0x10));
+        assertFalse(replay.getExportImage().isWritten(0x20));
+    }
+
+    public void testAddressFilter() {
+        sendFrame(1, 0x10, 1, 2);
+        sendFrame(2, 0x4000, 3, 4);
+        DcsBiosAddressFilter filter = new DcsBiosAddressFilter();
+        filter.addRange(0x4000, 0x40ff);
+        encoder.setAddressFilter(filter);
+
+        DcsBiosParser replay = new DcsBiosParser();
+        replay.processData(encoder.getBuffer(), 0, encoder.encode());
+        assertFalse(replay.getExportImage().isWritten(0x10));
+        assertEquals(4, replay.getExportImage().readWord(0x4002));
+    }
+}
@@ -0,0 +1,104 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDataListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosListenerTiming;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosMetrics;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosMetricsMXBean;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosMetricsReporter;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import junit.framework.TestCase;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosMetricsTest extends TestCase {
+
+    private static final byte[] FRAMES = {
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start
+            0x04, 0x00, 0x04, 0x00, 0x01, 0x10, 0x42, 0x31, // Two Integers at address 0x0004
+            (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00, // End of frame
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start
+            0x04, 0x00, 0x04, 0x00, 0x01, 0x10,             // Block cut short after one integer
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start
+            0x04, 0x00, 0x02, 0x00, 0x01, 0x10,             // One Integer at address 0x0004
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start, previous frame lost its end
+            0x04, 0x00, 0x02, 0x00, 0x02, 0x10,             // One Integer at address 0x0004
+            (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+    };
+
+    private final DcsBiosDataListener slowListener = new DcsBiosDataListener() {
+        @Override
+        public void dcsBiosDataWritten(int address, int data) {
+            long end = System.nanoTime() + 10000;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+        }
+    };
+
+    public void testParserCounters() throws Exception {
+        DcsBiosParser parser = new DcsBiosParser();
+        parser.processData(FRAMES, 0, 20);
+        parser.processData(FRAMES, 20, FRAMES.length - 20);
+
+        DcsBiosMetrics metrics = parser.getMetrics();
+        assertEquals(FRAMES.length, metrics.getByteCount());
+        // Sync bytes in the middle of a block are decoded as data until the marker is complete.
+        assertEquals("Data words and update counters", 8, metrics.getWordCount());
+        assertEquals(2, metrics.getFrameCount());
+        assertEquals("Sync in the middle of a block", 1, metrics.getResyncCount());
+        assertEquals("Frames without an update counter", 2, metrics.getTruncatedFrameCount());
+        assertEquals("Parser alone does not receive packets", -1, metrics.getNanosSinceLastPacket());
+    }
+
+    public void testListenerTiming() throws Exception {
+        DcsBiosParser parser = new DcsBiosParser();
+        parser.addDataListener(slowListener);
+        parser.processData(FRAMES, 0, FRAMES.length);
+        assertTrue("Timing is off by default", parser.getMetrics().getListenerTimings().isEmpty());
+
+        parser.getMetrics().setListenerTimingEnabled(true);
+        parser.processData(FRAMES, 0, FRAMES.length);
+
+        Map<String, DcsBiosListenerTiming> timings = parser.getMetrics().getListenerTimings();
+        assertEquals(1, timings.size());
+        DcsBiosListenerTiming timing = timings.values().iterator().next();
+        assertEquals(6, timing.getCount());
+        assertTrue(timing.getMeanNanos() >= 10000);
+        assertTrue(timing.getPercentileNanos(99) >= 10000);
+        assertTrue(timing.getPercentileNanos(99) <= timing.getMaxNanos());
+
+        parser.removeDataListener(slowListener);
+        assertTrue("Removed listener is forgotten", parser.getMetrics().getListenerTimings().isEmpty());
+    }
+
+    public void testReporter() throws Exception {
+        DcsBiosParser parser = new DcsBiosParser();
+        DcsBiosMetricsReporter reporter = new DcsBiosMetricsReporter(parser.getMetrics());
+
+        final CountDownLatch sampled = new CountDownLatch(2);
+        reporter.addMetricsListener(metrics -> sampled.countDown());
+        reporter.start(50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            parser.processData(FRAMES, 0, FRAMES.length);
+        }
+        assertTrue(sampled.await(5, TimeUnit.SECONDS));
+        reporter.stop();
+        reporter.sample();
+        assertEquals(0.0, reporter.getFramesPerSecond());
+
+        reporter.registerMBean("test");
+        try {
+            ObjectName name = new ObjectName("com.gadrocsworkshop.dcsbios:type=Metrics,name=\"test\"");
+            assertEquals(20L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FrameCount"));
+            DcsBiosMetricsMXBean proxy = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name, DcsBiosMetricsMXBean.class);
+            assertEquals(-1L, proxy.getMillisSinceLastPacket());
+        } finally {
+            reporter.unregisterMBean();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosMultiStreamReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStream;
+import junit.framework.TestCase;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosMultiStreamReceiverTest extends TestCase {
+
+    private static byte[] createFrame(int value) {
+        return new byte[] {
+                0x55, 0x55, 0x55, 0x55,                                       // Frame Start
+                0x04, 0x00, 0x02, 0x00, (byte)value, (byte)(value >> 8),      // One Integer at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00                // End of frame
+        };
+    }
+
+    public void testStreams() throws Exception {
+        DcsBiosMultiStreamReceiver receiver = new DcsBiosMultiStreamReceiver();
+        DcsBiosStream seat1 = receiver.addStream(null, 15021);
+        DcsBiosStream seat2 = receiver.addStream(null, 15022);
+        receiver.start();
+
+        try (DatagramSocket dcs1 = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket dcs2 = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            dcs1.setSoTimeout(2000);
+            dcs2.setSoTimeout(2000);
+            seat1.setDcsPort(dcs1.getLocalPort());
+            seat2.setDcsPort(dcs2.getLocalPort());
+
+            byte[] frame1 = createFrame(0x1111);
+            byte[] frame2 = createFrame(0x2222);
+            dcs1.send(new DatagramPacket(frame1, frame1.length, InetAddress.getLoopbackAddress(), 15021));
+            dcs2.send(new DatagramPacket(frame2, frame2.length, InetAddress.getLoopbackAddress(), 15022));
+
+            long deadline = System.currentTimeMillis() + 2000;
+            while ((seat1.getExportImage().getFrame() == 0 || seat2.getExportImage().getFrame() == 0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("Stream 1 should have its own data", 0x1111, seat1.getExportImage().readWord(0x0004));
+            assertEquals("Stream 2 should have its own data", 0x2222, seat2.getExportImage().readWord(0x0004));
+
+            // Commands go back to the DCS instance each stream came from.
+            seat2.sendCommand("UFC_1 1\n");
+            byte[] buf = new byte[64];
+            DatagramPacket command = new DatagramPacket(buf, buf.length);
+            dcs2.receive(command);
+            assertEquals("UFC_1 1\n", new String(buf, 0, command.getLength()));
+        } finally {
+            receiver.stop();
+        }
+        assertFalse("isRunning should return false after stop.", receiver.isRunning());
+    }
+
+    public void testListenerDuringStop() throws Exception {
+        DcsBiosMultiStreamReceiver receiver = new DcsBiosMultiStreamReceiver();
+        DcsBiosStream stream = receiver.addStream(null, 15023);
+        CountDownLatch received = new CountDownLatch(1);
+        stream.addStreamListener((data, offset, length) -> {
+            received.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Called while stop is waiting for this thread.
+            receiver.getStreams();
+        });
+        receiver.start();
+
+        try (DatagramSocket dcs = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            byte[] frame = createFrame(0x1111);
+            dcs.send(new DatagramPacket(frame, frame.length, InetAddress.getLoopbackAddress(), 15023));
+            assertTrue(received.await(2, TimeUnit.SECONDS));
+        }
+
+        Thread stopper = new Thread(receiver::stop);
+        stopper.start();
+        stopper.join(5000);
+        assertFalse("Stop should not wait on a listener calling the receiver", stopper.isAlive());
+        assertFalse(receiver.isRunning());
+    }
+}
@@ -1,10 +1,21 @@
 package com.gadrocsworkshop.dcsbios;
 
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosBlockListener;
 import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDataListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDirtyBitmap;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosExportImage;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosFrameChangeListener;
 import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
 import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
 import junit.framework.TestCase;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 public class DcsBiosParserTest extends TestCase {
 
     private class CheckData {
@@ -67,6 +78,21 @@ public class DcsBiosParserTest extends TestCase {
         }
     }
 
+    private class RecordingListener implements DcsBiosDataListener, DcsBiosSyncListener {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void dcsBiosDataWritten(int address, int data) {
+            events.add(address + "=" + data);
+        }
+
+        @Override
+        public void dcsBiosFrameSyncReceived() {
+            events.add("sync");
+        }
+    }
+
     private DcsBiosParser parser;
 
     public void setUp() throws Exception {
@@ -168,4 +194,265 @@ public class DcsBiosParserTest extends TestCase {
         parser.removeDataListener(listener);
         parser.removeSyncListener(listener);
     }
-}
\ No newline at end of file
+
+    /**
+     * Builds a stream of frames with random write blocks, random sync bytes sprinkled
+     * in the data and frames truncated in the middle of a write block.
+     */
+    private byte[] createRandomStream(Random random) {
+        ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+        for (int frame = 0; frame < 50; frame++) {
+            stream.put(new byte[] { 0x55, 0x55, 0x55, 0x55 });
+            int blocks = random.nextInt(20);
+            boolean truncate = random.nextInt(5) == 0;
+            for (int block = 0; block < blocks; block++) {
+                int address = random.nextInt(0x4000) * 2;
+                int count = (1 + random.nextInt(8)) * 2;
+                stream.put((byte)address).put((byte)(address >> 8));
+                stream.put((byte)count).put((byte)(count >> 8));
+                for (int i = 0; i < count; i++) {
+                    stream.put(random.nextInt(10) == 0 ? (byte)0x55 : (byte)random.nextInt(256));
+                }
+                if (truncate && block == blocks / 2) {
+                    stream.position(stream.position() - 1 - random.nextInt(count));
+                    break;
+                }
+            }
+            if (!truncate) {
+                stream.put(new byte[] { (byte)0xfe, (byte)0xff, 0x02, 0x00, (byte)frame, 0x00 });
+            }
+        }
+        byte[] result = new byte[stream.position()];
+        stream.flip();
+        stream.get(result);
+        return result;
+    }
+
+    public void testBlockDecodingMatchesByteDecoding() throws Exception {
+        Random random = new Random(1234);
+        for (int run = 0; run < 20; run++) {
+            byte[] inputData = createRandomStream(random);
+
+            RecordingListener expected = new RecordingListener();
+            DcsBiosParser byteParser = new DcsBiosParser();
+            byteParser.addDataListener(expected);
+            byteParser.addSyncListener(expected);
+            for (byte b : inputData) {
+                byteParser.processData(b);
+            }
+
+            // Split the stream into random packets so blocks and sync markers straddle packet boundaries.
+            RecordingListener actual = new RecordingListener();
+            DcsBiosParser blockParser = new DcsBiosParser();
+            blockParser.addDataListener(actual);
+            blockParser.addSyncListener(actual);
+            int offset = 0;
+            while (offset < inputData.length) {
+                int length = Math.min(inputData.length - offset, 1 + random.nextInt(300));
+                blockParser.processData(inputData, offset, length);
+                offset += length;
+            }
+
+            assertEquals("Block decoding output differs from byte decoding.", expected.events, actual.events);
+        }
+    }
+
+    public void testByteBufferInput() throws Exception {
+        byte[] inputData = createRandomStream(new Random(42));
+
+        RecordingListener expected = new RecordingListener();
+        DcsBiosParser arrayParser = new DcsBiosParser();
+        arrayParser.addDataListener(expected);
+        arrayParser.addSyncListener(expected);
+        arrayParser.processData(inputData, 0, inputData.length);
+
+        RecordingListener actual = new RecordingListener();
+        parser.addDataListener(actual);
+        parser.addSyncListener(actual);
+        ByteBuffer direct = ByteBuffer.allocateDirect(inputData.length);
+        direct.put(inputData);
+        direct.flip();
+        parser.processData(direct);
+
+        assertEquals("Direct buffer should be fully consumed.", 0, direct.remaining());
+        assertEquals("ByteBuffer output differs from array output.", expected.events, actual.events);
+    }
+
+    public void testNoAllocationPerWord() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        // One frame with 500 words in 50 blocks.
+        ByteBuffer frame = ByteBuffer.allocate(4 + 50 * 24 + 6);
+        frame.put(new byte[] { 0x55, 0x55, 0x55, 0x55 });
+        for (int block = 0; block < 50; block++) {
+            frame.put((byte)(block * 20)).put((byte)0x10).put((byte)20).put((byte)0);
+            for (int i = 0; i < 10; i++) {
+                frame.put((byte)i).put((byte)block);
+            }
+        }
+        frame.put(new byte[] { (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00 });
+        byte[] inputData = frame.array();
+
+        DcsBiosDataListener dataListener = new DcsBiosDataListener() {
+            @Override
+            public void dcsBiosDataWritten(int address, int data) {
+            }
+        };
+        DcsBiosSyncListener syncListener = new DcsBiosSyncListener() {
+            @Override
+            public void dcsBiosFrameSyncReceived() {
+            }
+        };
+        parser.addDataListener(dataListener);
+        parser.addDataListener(new CheckDataListener(new CheckData[0]));
+        parser.addSyncListener(syncListener);
+
+        for (int i = 0; i < 1000; i++) {
+            parser.processData(inputData, 0, inputData.length);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            parser.processData(inputData, 0, inputData.length);
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        // 500,000 words were dispatched, allow for a small fixed overhead from the measurement itself.
+        assertTrue(String.format("Parser allocated %d bytes while dispatching.", allocated), allocated < 4096);
+    }
+
+    public void testAddressSubscriptions() throws Exception {
+        byte[] inputData = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x00, 0x00, 0x02, 0x00, 0x10, 0x00,             // One Integer (0x0010) at address 0x0000
+                0x04, 0x00, 0x04, 0x00, 0x21, 0x10, 0x42, 0x31, // Two Integers (0x1021, 0x3142) at address 0x0004
+                0x04, 0x00, 0x02, 0x00, 0x22, 0x10,             // One Integer (0x1022) at address 0x0004
+                0x04, 0x00, 0x02, 0x00, 0x22, 0x11,             // One Integer (0x1122) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00  // End of frame
+        };
+
+        RecordingListener single = new RecordingListener();
+        RecordingListener range = new RecordingListener();
+        RecordingListener masked = new RecordingListener();
+        parser.addDataListener(single, 0x0000);
+        parser.addDataListener(range, 0x0002, 0x0006);
+        parser.addMaskedDataListener(masked, 0x0004, 0x0f00);
+        parser.processData(inputData, 0, inputData.length);
+
+        assertEquals("Single address listener", "[0=16]", single.events.toString());
+        assertEquals("Range listener", "[4=4129, 6=12610, 4=4130, 4=4386]", range.events.toString());
+        assertEquals("Masked listener", "[4=4129, 4=4386]", masked.events.toString());
+
+        parser.removeDataListener(single);
+        parser.removeDataListener(range);
+        parser.removeDataListener(masked);
+        parser.processData(inputData, 0, inputData.length);
+        assertEquals("Removed listener should not be notified", 1, single.events.size());
+        assertEquals("Removed listener should not be notified", 4, range.events.size());
+        assertEquals("Removed listener should not be notified", 2, masked.events.size());
+    }
+
+    public void testExportImage() throws Exception {
+        byte[] firstFrame = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x04, 0x00, 0x21, 0x10, 0x42, 0x31, // Two Integers (0x1021, 0x3142) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+        };
+        byte[] brokenFrame = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x04, 0x00, 0x22, 0x10, 0x43,       // Two Integers at address 0x0004 (partial)
+        };
+        byte[] lastFrame = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x02, 0x00, 0x02, 0x00, 0x05, (byte)0xff,       // One Integer (0xff05) at address 0x0002
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x02, 0x00  // End of frame
+        };
+
+        DcsBiosExportImage image = parser.getExportImage();
+        assertEquals("No frame should be published before sync", 0, image.getFrame());
+
+        parser.processData(firstFrame, 0, firstFrame.length);
+        assertEquals(1, image.getFrame());
+        assertEquals(0x1021, image.readWord(0x0004));
+        assertEquals(0x3142, image.readWord(0x0006));
+        assertEquals(0x0001, image.readWord(0xfffe));
+
+        parser.processData(brokenFrame, 0, brokenFrame.length);
+        parser.processData(lastFrame, 0, lastFrame.length);
+        assertEquals(2, image.getFrame());
+        assertEquals("Partial frame should have been discarded", 0x1021, image.readWord(0x0004));
+        assertEquals(0xff05, image.readWord(0x0002));
+
+        byte[] copy = new byte[DcsBiosExportImage.SIZE];
+        assertEquals(2, image.copyTo(copy));
+        assertEquals(0x05, copy[0x0002]);
+        assertEquals(0x21, copy[0x0004]);
+    }
+
+    public void testNotifyChangesOnly() throws Exception {
+        byte[] inputData = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x04, 0x00, 0x21, 0x10, 0x42, 0x31, // Two Integers (0x1021, 0x3142) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00, // End of frame
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x04, 0x00, 0x21, 0x10, 0x43, 0x31, // Two Integers (0x1021, 0x3143) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+        };
+
+        final List<String> frames = new ArrayList<>();
+        RecordingListener listener = new RecordingListener();
+        parser.addDataListener(listener);
+        parser.addFrameChangeListener(new DcsBiosFrameChangeListener() {
+            @Override
+            public void dcsBiosFrameChanged(DcsBiosDirtyBitmap dirtyAddresses) {
+                StringBuilder frame = new StringBuilder();
+                for (int address = dirtyAddresses.nextDirtyAddress(0); address >= 0; address = dirtyAddresses.nextDirtyAddress(address + 1)) {
+                    frame.append(address).append(' ');
+                }
+                frames.add(dirtyAddresses.size() + ": " + frame.toString().trim());
+            }
+        });
+        parser.setNotifyChangesOnly(true);
+        parser.processData(inputData, 0, inputData.length);
+
+        assertEquals("Only changed values should be delivered", "[4=4129, 6=12610, 6=12611]", listener.events.toString());
+        assertEquals("Dirty addresses for each frame", "[2: 4 6, 1: 6]", frames.toString());
+    }
+
+    public void testBlockListener() throws Exception {
+        byte[] inputData = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x00, 0x00, 0x02, 0x00, 0x10, 0x00,             // One Integer (0x0010) at address 0x0000
+                0x04, 0x00, 0x06, 0x00, 0x21, 0x10, 0x42, 0x31, // Three Integers (0x1021, 0x3142, 0x0001) at address 0x0004
+                0x01, 0x00,
+                0x02, 0x00, 0x08, 0x00, 0x05, (byte)0xff,       // Four Integers at address 0x0002 (partial)
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00  // End of frame
+        };
+
+        final List<String> blocks = new ArrayList<>();
+        parser.addBlockListener(new DcsBiosBlockListener() {
+            @Override
+            public void dcsBiosBlockWritten(int startAddress, int[] values, int offset, int count) {
+                StringBuilder block = new StringBuilder().append(startAddress).append(':');
+                for (int i = 0; i < count; i++) {
+                    block.append(' ').append(values[offset + i]);
+                }
+                blocks.add(block.toString());
+            }
+        });
+        parser.processData(inputData, 0, inputData.length);
+
+        // Sync bytes are read as data until the marker is complete (see testMissingEndFrame).
+        assertEquals("Blocks should match writes", "[0: 16, 4: 4129 12610 1, 2: 65285 21845 21845]", blocks.toString());
+    }
+}
@@ -0,0 +1,111 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosAddressFilter;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDeltaEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosParser;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamFilter;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamWriter;
+import junit.framework.TestCase;
+
+public class DcsBiosStreamFilterTest extends TestCase {
+
+    private final DcsBiosParser source = new DcsBiosParser();
+    private final DcsBiosParser consumer = new DcsBiosParser();
+    private final DcsBiosAddressFilter filter = new DcsBiosAddressFilter();
+
+    private int sendFrame(int[] values) {
+        byte[] buffer = new byte[4096];
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(buffer);
+        writer.writeSync();
+        writer.writeBlock(0x1000, values, 0, values.length);
+        writer.writeEndOfFrame(0);
+        source.processData(buffer, 0, writer.getLength());
+        return writer.getLength();
+    }
+
+    private static int[] frameValues(int base) {
+        int[] values = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = base + i;
+        }
+        return values;
+    }
+
+    public void testAddressFilter() {
+        assertTrue(filter.isEmpty());
+        filter.addRange(0x1010, 0x1013);
+        assertFalse(filter.isEmpty());
+        assertFalse(filter.contains(0x100e));
+        assertTrue(filter.contains(0x1010));
+        assertTrue(filter.contains(0x1013));
+        assertFalse(filter.contains(0x1014));
+        try {
+            filter.addRange(0x10, 0x08);
+            fail("Reversed range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testOnlyRangesForwarded() {
+        filter.addRange(0x1010, 0x1013);
+        filter.addRange(0x1100, 0x11ff);
+        DcsBiosStreamFilter streamFilter = new DcsBiosStreamFilter(filter, consumer::processData);
+        source.addBlockListener(streamFilter);
+        source.addSyncListener(streamFilter);
+
+        int inputLength = sendFrame(frameValues(0));
+        int[] values = frameValues(7);
+        sendFrame(values);
+
+        assertEquals(2, streamFilter.getFrameCount());
+        assertEquals(2, consumer.getMetrics().getFrameCount());
+        assertEquals(2 * (4 + 8 + 4 + 256 + 6), streamFilter.getByteCount());
+        assertTrue(streamFilter.getByteCount() / 2 < inputLength / 5);
+        assertEquals(values[8], consumer.getExportImage().readWord(0x1010));
+        assertEquals(values[9], consumer.getExportImage().readWord(0x1012));
+        assertEquals(values[0x80], consumer.getExportImage().readWord(0x1100));
+        assertEquals(values[0xff], consumer.getExportImage().readWord(0x11fe));
+        assertEquals(0, consumer.getExportImage().readWord(0x100e));
+        assertEquals(0, consumer.getExportImage().readWord(0x1200));
+    }
+
+    public void testLargeFrameSplit() {
+        filter.addRange(0, 0xfffd);
+        DcsBiosStreamFilter streamFilter = new DcsBiosStreamFilter(filter, consumer::processData);
+        source.addBlockListener(streamFilter);
+        source.addSyncListener(streamFilter);
+
+        int[] values = new int[6000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        byte[] buffer = new byte[20000];
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(buffer);
+        writer.writeSync();
+        writer.writeBlock(0, values, 0, values.length);
+        writer.writeEndOfFrame(0);
+        source.processData(buffer, 0, writer.getLength());
+
+        assertEquals(1, consumer.getMetrics().getFrameCount());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(i, consumer.getExportImage().readWord(i * 2));
+        }
+    }
+
+    public void testDeltaEncoderFilter() {
+        filter.addRange(0x1010, 0x1013);
+        DcsBiosDeltaEncoder encoder = new DcsBiosDeltaEncoder(source.getExportImage(), consumer::processData);
+        encoder.setAddressFilter(filter);
+        source.addBlockListener(encoder);
+        source.addSyncListener(encoder);
+
+        sendFrame(frameValues(0));
+        assertEquals(2, encoder.getWordCount());
+        encoder.requestFullRefresh();
+        sendFrame(frameValues(0));
+        assertEquals("Refresh limited to the filter", 4, encoder.getWordCount());
+        assertEquals(9, consumer.getExportImage().readWord(0x1012));
+        assertEquals(0, consumer.getExportImage().readWord(0x1014));
+    }
+}
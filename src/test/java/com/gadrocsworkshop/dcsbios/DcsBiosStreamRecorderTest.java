@@ -0,0 +1,103 @@
+package com.gadrocsworkshop.dcsbios;
+
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosDataListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosReplayReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamListener;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamRecorder;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosStreamRecorderTest extends TestCase {
+
+    private static final byte[] FRAME = {
+            0x55, 0x55, 0x55, 0x55,                         // Frame Start
+            0x04, 0x00, 0x04, 0x00, 0x01, 0x10, 0x42, 0x31, // Two Integers at address 0x0004
+            (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x00, 0x00  // End of frame
+    };
+
+    private class CapturingListener implements DcsBiosStreamListener, DcsBiosDataListener {
+
+        private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        private int dataCount = 0;
+
+        @Override
+        public synchronized void dcsBiosStreamDataReceived(byte[] data, int offset, int length) {
+            stream.write(data, offset, length);
+        }
+
+        @Override
+        public synchronized void dcsBiosDataWritten(int address, int data) {
+            dataCount++;
+        }
+    }
+
+    private Path file;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        file = Files.createTempFile("dcsbios", ".rec");
+    }
+
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testRecordAndReplay() throws Exception {
+        byte[] large = new byte[5000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = FRAME[i % FRAME.length];
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (DcsBiosStreamRecorder recorder = new DcsBiosStreamRecorder(file)) {
+            for (int i = 0; i < 100; i++) {
+                recorder.dcsBiosStreamDataReceived(FRAME, 0, FRAME.length);
+                expected.write(FRAME, 0, FRAME.length);
+            }
+            recorder.dcsBiosStreamDataReceived(large, 0, large.length);
+            expected.write(large, 0, large.length);
+        }
+
+        CapturingListener listener = new CapturingListener();
+        DcsBiosReplayReceiver receiver = new DcsBiosReplayReceiver(file);
+        receiver.setSpeed(DcsBiosReplayReceiver.AS_FAST_AS_POSSIBLE);
+        receiver.addStreamListener(listener);
+        receiver.addDataListener(listener);
+        receiver.start();
+        assertTrue("Replay should finish", receiver.awaitCompletion(5, TimeUnit.SECONDS));
+        receiver.stop();
+
+        assertTrue("Replayed stream should match recorded stream", Arrays.equals(expected.toByteArray(), listener.stream.toByteArray()));
+        assertEquals("Large packets are split into slot sized records", 103, receiver.getReplayedCount());
+        assertTrue("Replayed data should reach the parser", listener.dataCount > 0);
+    }
+
+    public void testReplaySpeed() throws Exception {
+        try (DcsBiosStreamRecorder recorder = new DcsBiosStreamRecorder(file)) {
+            recorder.dcsBiosStreamDataReceived(FRAME, 0, FRAME.length);
+            Thread.sleep(200);
+            recorder.dcsBiosStreamDataReceived(FRAME, 0, FRAME.length);
+            assertEquals(0, recorder.getDroppedCount());
+        }
+
+        DcsBiosReplayReceiver receiver = new DcsBiosReplayReceiver(file);
+        long start = System.nanoTime();
+        receiver.start();
+        assertTrue(receiver.awaitCompletion(5, TimeUnit.SECONDS));
+        long realTime = System.nanoTime() - start;
+        assertEquals(2, receiver.getReplayedCount());
+        assertTrue("Real time replay should keep packet spacing", realTime >= TimeUnit.MILLISECONDS.toNanos(180));
+
+        receiver.setSpeed(10);
+        start = System.nanoTime();
+        receiver.start();
+        assertTrue(receiver.awaitCompletion(5, TimeUnit.SECONDS));
+        long fastTime = System.nanoTime() - start;
+        assertTrue("10x replay should be faster than real time", fastTime < realTime / 2);
+    }
+}
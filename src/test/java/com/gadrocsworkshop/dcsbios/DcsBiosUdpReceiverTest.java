@@ -1,14 +1,34 @@
 package com.gadrocsworkshop.dcsbios;
 
+import com.gadrocsworkshop.dcsbios.emulator.DcsBiosExportEmulator;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosOverflowPolicy;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosSyncListener;
 import com.gadrocsworkshop.dcsbios.receiver.DcsBiosUdpReceiver;
 import junit.framework.TestCase;
 
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DcsBiosUdpReceiverTest extends TestCase {
 
     public void testThread() throws Exception {
-        DcsBiosUdpReceiver receiver =  new DcsBiosUdpReceiver();
+        DcsBiosUdpReceiver receiver =  new DcsBiosUdpReceiver(15012);
         assertFalse("isRunning should return false after initialization.", receiver.isRunning());
 
+        final AtomicInteger frames = new AtomicInteger();
+        receiver.addSyncListener(new DcsBiosSyncListener() {
+            @Override
+            public void dcsBiosFrameSyncReceived() {
+                frames.incrementAndGet();
+            }
+        });
+
+        DcsBiosExportEmulator emulator = new DcsBiosExportEmulator("127.0.0.1", 15012);
+        emulator.setCommandPort(0);
+        emulator.start();
+
         receiver.start();
         Thread.sleep(1000);
         assertTrue("isRunning should return true after start.", receiver.isRunning());
@@ -16,7 +36,51 @@ public class DcsBiosUdpReceiverTest extends TestCase {
         Thread.sleep(2000);
 
         receiver.stop();
+        emulator.stop();
         Thread.sleep(2000);
         assertFalse("isRunning should return false after stop.", receiver.isRunning());
+        assertTrue("Frames from the emulator should be received.", frames.get() > 0);
+    }
+
+    public void testPipeline() throws Exception {
+        byte[] frame = {
+                0x55, 0x55, 0x55, 0x55,                         // Frame Start
+                0x04, 0x00, 0x02, 0x00, 0x21, 0x10,             // One Integer (0x1021) at address 0x0004
+                (byte)0xfe, (byte)0xff, 0x02, 0x00, 0x01, 0x00  // End of frame
+        };
+
+        DcsBiosUdpReceiver receiver = new DcsBiosUdpReceiver(15011);
+        receiver.enablePipeline(4, DcsBiosOverflowPolicy.DROP_NEWEST);
+
+        final AtomicInteger frames = new AtomicInteger();
+        receiver.addSyncListener(new DcsBiosSyncListener() {
+            @Override
+            public void dcsBiosFrameSyncReceived() {
+                frames.incrementAndGet();
+                try {
+                    // Simulate a slow listener.
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        receiver.start();
+
+        int sent = 50;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            for (int i = 0; i < sent; i++) {
+                socket.send(new DatagramPacket(frame, frame.length, InetAddress.getLoopbackAddress(), 15011));
+            }
+        }
+
+        Thread.sleep(1000);
+        receiver.stop();
+        Thread.sleep(2000);
+
+        assertTrue("Slow listener should cause packets to be dropped.", receiver.getDroppedPacketCount() > 0);
+        assertEquals("Every packet should be dispatched or dropped.", sent, frames.get() + receiver.getDroppedPacketCount());
+        assertTrue("Queue should not exceed capacity.", receiver.getMaxQueueDepth() <= 4);
+        assertFalse("isRunning should return false after stop.", receiver.isRunning());
     }
-}
\ No newline at end of file
+}
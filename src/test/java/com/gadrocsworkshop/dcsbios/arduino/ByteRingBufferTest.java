@@ -0,0 +1,125 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class ByteRingBufferTest extends TestCase {
+
+    private static byte[] frame(int id, int length) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte)id);
+        Arrays.fill(frame, 0, 4, (byte)0x55);
+        return frame;
+    }
+
+    public void testCapacity() {
+        assertEquals(16, new ByteRingBuffer(10).capacity());
+        assertEquals(4096, new ByteRingBuffer(4096).capacity());
+    }
+
+    public void testBulkWrap() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16);
+        byte[] data = new byte[12];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        byte[] out = new byte[16];
+
+        for (int round = 0; round < 5; round++) {
+            buffer.add(data, 0, data.length);
+            assertEquals(4, buffer.peek(8, out, 0, 10));
+            assertEquals(8, out[0]);
+            assertEquals(8, buffer.drain(out, 0, 8));
+            assertEquals(7, out[7]);
+            buffer.skip(2);
+            assertEquals(10, buffer.get());
+            assertEquals(11, buffer.get());
+            assertTrue(buffer.isEmpty());
+        }
+        assertEquals(0, buffer.getOverflowCount());
+        assertEquals(12, buffer.getHighWaterMark());
+    }
+
+    public void testDropOldestFrame() {
+        ByteRingBuffer buffer = new ByteRingBuffer(32);
+        buffer.add(frame(1, 10), 0, 10);
+        buffer.add(frame(2, 10), 0, 10);
+        buffer.add(frame(3, 10), 0, 10);
+        buffer.add(frame(4, 10), 0, 10);
+
+        assertEquals(1, buffer.getOverflowCount());
+        assertEquals("Oldest frame should be dropped", 10, buffer.getDroppedByteCount());
+        byte[] out = new byte[32];
+        assertEquals(30, buffer.drain(out, 0, out.length));
+        assertEquals("Buffer should start at a frame", 0x55, out[0]);
+        assertEquals(2, out[4]);
+        assertEquals(4, out[29]);
+    }
+
+    public void testReplaceCompleteFrames() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16);
+        buffer.add(frame(1, 10), 0, 10);
+        buffer.add(frame(2, 10), 0, 6);
+        assertFalse("Drops everything without a sync marker", new ByteRingBuffer(16).replaceCompleteFrames(frame(3, 8), 0, 8));
+
+        long position = buffer.getReadPosition();
+        assertTrue(buffer.replaceCompleteFrames(frame(3, 20), 0, 20));
+        assertEquals("Grows to fit", 32, buffer.capacity());
+        assertEquals(0, buffer.getDroppedByteCount());
+        assertEquals(position + 16, buffer.getReadPosition());
+
+        byte[] out = new byte[32];
+        assertEquals(26, buffer.drain(out, 0, out.length));
+        assertEquals(3, out[19]);
+        assertEquals("Partial frame follows", 0x55, out[20]);
+        assertEquals(2, out[25]);
+    }
+
+    public void testGrow() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, DcsBiosExportOverflowPolicy.GROW);
+        buffer.setMaxCapacity(64);
+        for (int i = 0; i < 6; i++) {
+            buffer.add(frame(i, 10), 0, 10);
+        }
+        assertEquals(64, buffer.capacity());
+        assertEquals(60, buffer.size());
+        assertEquals(0, buffer.getDroppedByteCount());
+
+        buffer.add(frame(6, 10), 0, 10);
+        assertEquals("Growth is capped, then frames are dropped", 64, buffer.capacity());
+        assertEquals(10, buffer.getDroppedByteCount());
+        byte[] out = new byte[64];
+        assertEquals(60, buffer.drain(out, 0, out.length));
+        assertEquals(1, out[4]);
+    }
+
+    public void testBlock() throws Exception {
+        final ByteRingBuffer buffer = new ByteRingBuffer(16, DcsBiosExportOverflowPolicy.BLOCK);
+        buffer.setBlockTimeout(5, TimeUnit.SECONDS);
+        buffer.add(frame(1, 12), 0, 12);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            buffer.skip(12);
+        });
+        consumer.start();
+        long start = System.nanoTime();
+        buffer.add(frame(2, 12), 0, 12);
+        consumer.join();
+
+        assertTrue("Add should wait for the consumer", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(12, buffer.size());
+        assertEquals(0, buffer.getDroppedByteCount());
+
+        buffer.setBlockTimeout(10, TimeUnit.MILLISECONDS);
+        buffer.add(frame(3, 12), 0, 12);
+        assertEquals("Timeout falls back to dropping frames", 12, buffer.getDroppedByteCount());
+        assertEquals(2, buffer.getOverflowCount());
+    }
+}
@@ -0,0 +1,166 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import com.gadrocsworkshop.dcsbios.receiver.AbstractDcsBiosReceiver;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosKeyframeEncoder;
+import com.gadrocsworkshop.dcsbios.receiver.DcsBiosStreamWriter;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class DcsBiosArduinoControllerTest extends TestCase {
+
+    private static class IdleReceiver extends AbstractDcsBiosReceiver {
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void sendCommand(byte[] buffer, int offset, int length) {
+        }
+    }
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private IdleReceiver receiver;
+    private DcsBiosArduinoController controller;
+
+    @Override
+    protected void setUp() {
+        receiver = new IdleReceiver();
+        byte[] frame = frame(0);
+        receiver.getParser().processData(frame, 0, frame.length);
+
+        // Stands in for a serial port which is always open.
+        controller = new DcsBiosArduinoController(receiver, "TEST") {
+            @Override
+            boolean openPort() {
+                return true;
+            }
+
+            @Override
+            void closePort() {
+            }
+
+            @Override
+            boolean isPortOpen() {
+                return true;
+            }
+
+            @Override
+            void writePort(byte[] data, int length) {
+                written.write(data, 0, length);
+            }
+        };
+        controller.setAckTimeout(1, TimeUnit.MINUTES);
+    }
+
+    private static byte[] frame(int counter) {
+        DcsBiosStreamWriter writer = new DcsBiosStreamWriter(new byte[64]);
+        writer.writeSync();
+        writer.writeBlock(0x1000, new int[] { counter }, 0, 1);
+        writer.writeEndOfFrame(counter);
+        return Arrays.copyOf(writer.getBuffer(), writer.getLength());
+    }
+
+    private byte[] keyframe() {
+        DcsBiosKeyframeEncoder encoder = new DcsBiosKeyframeEncoder(receiver.getExportImage());
+        int length = encoder.encode();
+        return Arrays.copyOf(encoder.getBuffer(), length);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private void controllerSends(String notifications) {
+        byte[] data = notifications.getBytes(StandardCharsets.US_ASCII);
+        controller.processSerialData(data, data.length);
+    }
+
+    private void exportFrame(byte[] frame) {
+        controller.dcsBiosStreamDataReceived(frame, 0, frame.length);
+    }
+
+    /**
+     * Export data sent in load export data messages since the last call.
+     */
+    private byte[] takeExportData() {
+        byte[] data = written.toByteArray();
+        written.reset();
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < data.length) {
+            if (data[i] == 'e') {
+                int size = data[i + 1] & 0xff;
+                export.write(data, i + 2, size);
+                i += size + 3;
+            }
+            else {
+                assertEquals("Only status requests are expected", 's', data[i]);
+                i++;
+            }
+        }
+        return export.toByteArray();
+    }
+
+    public void testKeyframeOnConnect() {
+        controllerSends("r");
+        byte[] frame = frame(1);
+        exportFrame(frame);
+        assertTrue(Arrays.equals(concat(keyframe(), frame), takeExportData()));
+    }
+
+    public void testBufferFullDoesNotSendKeyframe() {
+        controllerSends("r");
+        exportFrame(frame(1));
+        controllerSends("v");
+        takeExportData();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 2; i < 20; i += 3) {
+            byte[] first = frame(i);
+            byte[] second = frame(i + 1);
+            byte[] third = frame(i + 2);
+            exportFrame(first);
+            controllerSends("vt");
+            exportFrame(second);
+            exportFrame(third);
+            controllerSends("r");
+            controllerSends("v");
+            expected.write(first, 0, first.length);
+            expected.write(second, 0, second.length);
+            expected.write(third, 0, third.length);
+        }
+        assertTrue("Frames sent as they arrived", Arrays.equals(expected.toByteArray(), takeExportData()));
+        assertEquals(0, controller.getExportBacklog());
+    }
+
+    public void testAckTimeoutSendsKeyframe() throws Exception {
+        controllerSends("r");
+        exportFrame(frame(1));
+        controllerSends("v");
+        takeExportData();
+
+        controller.setAckTimeout(1, TimeUnit.MILLISECONDS);
+        byte[] lost = frame(2);
+        exportFrame(lost);
+        Thread.sleep(10);
+        byte[] frame = frame(3);
+        exportFrame(frame);
+        assertEquals(1, controller.getAckTimeoutCount());
+
+        controllerSends("r");
+        assertTrue(Arrays.equals(concat(lost, keyframe(), frame), takeExportData()));
+    }
+}
@@ -0,0 +1,67 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import junit.framework.TestCase;
+
+public class ExportQueueTest extends TestCase {
+
+    public void testWrap() {
+        ExportQueue queue = new ExportQueue(16);
+        ByteRingBuffer buffer = new ByteRingBuffer(64);
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        byte[] out = new byte[10];
+
+        for (int round = 0; round < 5; round++) {
+            assertTrue(queue.offer(data, 0, data.length));
+            assertEquals(10, queue.size());
+            assertEquals(10, queue.drainTo(buffer));
+            assertEquals(0, queue.size());
+            assertEquals(10, buffer.drain(out, 0, out.length));
+            assertEquals(1, out[0]);
+            assertEquals(10, out[9]);
+        }
+    }
+
+    public void testFullDropsWholeOffer() {
+        ExportQueue queue = new ExportQueue(16);
+        byte[] data = new byte[10];
+        assertTrue(queue.offer(data, 0, data.length));
+        assertFalse(queue.offer(data, 0, data.length));
+        assertEquals(10, queue.getDroppedByteCount());
+        assertEquals(10, queue.size());
+        assertTrue(queue.offer(data, 0, 6));
+        assertEquals(16, queue.size());
+    }
+
+    public void testConcurrentHandoff() throws Exception {
+        final ExportQueue queue = new ExportQueue(256);
+        final int packets = 20000;
+        Thread producer = new Thread(() -> {
+            byte[] packet = new byte[17];
+            for (int i = 0; i < packets; i++) {
+                for (int j = 0; j < packet.length; j++) {
+                    packet[j] = (byte)(i + j);
+                }
+                while (!queue.offer(packet, 0, packet.length)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        ByteRingBuffer buffer = new ByteRingBuffer(1024);
+        byte[] packet = new byte[17];
+        int received = 0;
+        while (received < packets) {
+            queue.drainTo(buffer);
+            while (buffer.size() >= packet.length) {
+                buffer.drain(packet, 0, packet.length);
+                for (int j = 0; j < packet.length; j++) {
+                    assertEquals((byte)(received + j), packet[j]);
+                }
+                received++;
+            }
+        }
+        producer.join();
+        assertEquals(0, queue.size());
+    }
+}
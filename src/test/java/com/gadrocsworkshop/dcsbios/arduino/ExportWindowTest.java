@@ -0,0 +1,104 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class ExportWindowTest extends TestCase {
+
+    private ByteRingBuffer buffer;
+    private ExportWindow window;
+    private final byte[] message = new byte[DcsBiosArduinoController.MAX_EXPORT_DATA_SIZE + 3];
+
+    @Override
+    protected void setUp() {
+        buffer = new ByteRingBuffer(4096);
+        window = new ExportWindow(buffer, 3);
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        buffer.add(data, 0, data.length);
+    }
+
+    public void testWindowFills() {
+        assertEquals(67, window.next(message, 0));
+        assertEquals(0, message[2]);
+        assertEquals(67, window.next(message, 0));
+        assertEquals(64, message[2]);
+        assertEquals(67, window.next(message, 0));
+        assertEquals("Window should be full", 0, window.next(message, 0));
+        assertEquals(300, buffer.size());
+
+        window.acknowledged();
+        assertEquals(236, buffer.size());
+        assertEquals(67, window.next(message, 0));
+        assertEquals((byte)192, message[2]);
+    }
+
+    public void testChecksum() {
+        int length = window.next(message, 0);
+        int checksum = message[1];
+        for (int i = 2; i < length - 1; i++) {
+            checksum += message[i];
+        }
+        assertEquals('e', message[0]);
+        assertEquals((byte)checksum, message[length - 1]);
+    }
+
+    public void testRejectGoesBack() {
+        window.next(message, 0);
+        window.next(message, 0);
+        window.next(message, 0);
+        window.acknowledged();
+        window.rejected();
+        assertEquals(1, window.getRetransmitCount());
+        assertEquals(0, window.getInFlightCount());
+
+        assertEquals(67, window.next(message, 0));
+        assertEquals("Rejected message should be sent again", 64, message[2]);
+
+        // Late response for the third original message is ignored.
+        window.acknowledged();
+        assertEquals(236, buffer.size());
+        window.acknowledged();
+        assertEquals(172, buffer.size());
+    }
+
+    public void testTimeout() {
+        window.setAckTimeout(10, TimeUnit.NANOSECONDS);
+        window.next(message, 0);
+        window.next(message, 5);
+        assertFalse(window.checkTimeout(10));
+        assertTrue(window.checkTimeout(11));
+        assertEquals(1, window.getTimeoutCount());
+
+        assertEquals(67, window.next(message, 20));
+        assertEquals(0, message[2]);
+    }
+
+    public void testDroppedWhileInFlight() {
+        window.next(message, 0);
+        window.next(message, 0);
+        buffer.skip(100);
+
+        window.acknowledged();
+        assertEquals(200, buffer.size());
+        window.acknowledged();
+        assertEquals(172, buffer.size());
+        assertEquals(67, window.next(message, 0));
+        assertEquals((byte)128, message[2]);
+    }
+
+    public void testPartialMessage() {
+        window.setSize(16);
+        int total = 0;
+        int length;
+        while ((length = window.next(message, 0)) > 0) {
+            total += length - 3;
+        }
+        assertEquals(300, total);
+        assertEquals(44, message[1]);
+        assertEquals(5, window.getInFlightCount());
+    }
+}
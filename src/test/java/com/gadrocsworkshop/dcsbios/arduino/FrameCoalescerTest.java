@@ -0,0 +1,96 @@
+package com.gadrocsworkshop.dcsbios.arduino;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class FrameCoalescerTest extends TestCase {
+
+    private final byte[] packet = new byte[100];
+
+    public void testWaitsForFrameEnd() throws Exception {
+        FrameCoalescer coalescer = new FrameCoalescer(1024, 512);
+        coalescer.append(packet, 0, 100);
+        coalescer.append(packet, 0, 100);
+        assertEquals("Half a frame is not written", 0, coalescer.take(0, TimeUnit.MILLISECONDS));
+
+        coalescer.frameCompleted();
+        coalescer.append(packet, 0, 50);
+        assertEquals(250, coalescer.take(0, TimeUnit.MILLISECONDS));
+        assertEquals(250, coalescer.getLastFrameSize());
+        assertEquals(1, coalescer.getFrameCount());
+    }
+
+    public void testFramesMerged() throws Exception {
+        FrameCoalescer coalescer = new FrameCoalescer(1024, 512);
+        for (int i = 0; i < 3; i++) {
+            coalescer.frameCompleted();
+            coalescer.append(packet, 0, 100);
+        }
+        coalescer.append(packet, 0, 60);
+        assertEquals("Complete frames written together", 300, coalescer.take(0, TimeUnit.MILLISECONDS));
+        coalescer.frameCompleted();
+        coalescer.append(packet, 0, 40);
+        assertEquals(100, coalescer.take(0, TimeUnit.MILLISECONDS));
+        assertEquals(4, coalescer.getFrameCount());
+        assertEquals(400, coalescer.getFrameByteCount());
+    }
+
+    public void testLargeFrameWrittenEarly() throws Exception {
+        FrameCoalescer coalescer = new FrameCoalescer(1024, 256);
+        coalescer.append(packet, 0, 100);
+        coalescer.append(packet, 0, 100);
+        coalescer.append(packet, 0, 100);
+        assertEquals(300, coalescer.take(0, TimeUnit.MILLISECONDS));
+    }
+
+    public void testWriterBehindDropsFrames() throws Exception {
+        FrameCoalescer coalescer = new FrameCoalescer(256, 256);
+        packet[0] = 1;
+        coalescer.frameCompleted();
+        coalescer.append(packet, 0, 100);
+        packet[0] = 2;
+        coalescer.frameCompleted();
+        coalescer.append(packet, 0, 100);
+        packet[0] = 3;
+        coalescer.append(packet, 0, 100);
+
+        assertEquals(200, coalescer.getDroppedByteCount());
+        coalescer.frameCompleted();
+        coalescer.append(packet, 0, 10);
+        assertEquals(110, coalescer.take(0, TimeUnit.MILLISECONDS));
+        assertEquals(3, coalescer.getWriteBuffer()[0]);
+    }
+
+    public void testReplaceReady() throws Exception {
+        FrameCoalescer coalescer = new FrameCoalescer(1024, 512);
+        coalescer.frameCompleted();
+        assertTrue(coalescer.append(packet, 0, 100));
+        assertFalse(coalescer.append(packet, 0, 30));
+
+        byte[] keyframe = {1, 2, 3, 4, 5, 6};
+        coalescer.replaceReady(keyframe, 0, keyframe.length);
+        assertEquals(6, coalescer.take(0, TimeUnit.MILLISECONDS));
+        assertEquals(1, coalescer.getWriteBuffer()[0]);
+        coalescer.frameCompleted();
+        assertTrue(coalescer.append(packet, 0, 10));
+        assertEquals("Partial frame kept", 40, coalescer.take(0, TimeUnit.MILLISECONDS));
+        assertEquals(0, coalescer.getDroppedByteCount());
+    }
+
+    public void testWriterWakes() throws Exception {
+        final FrameCoalescer coalescer = new FrameCoalescer(1024, 512);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            coalescer.frameCompleted();
+            coalescer.append(packet, 0, 20);
+        });
+        producer.start();
+        assertEquals(20, coalescer.take(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+}